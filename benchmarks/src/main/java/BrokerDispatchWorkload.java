@@ -0,0 +1,122 @@
+import jade.core.AID;
+import jade.lang.acl.ACLMessage;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ *  Feeds one kind of synthetic message to BrokerAgent.handleRequest on a broker that was never started.
+ *  Messages sent by an unstarted agent go to JADE's dummy toolkit and are dropped, so only the broker's
+ *  own decoding, bookkeeping and encoding is measured. The console is silenced for the duration of the
+ *  trial because the broker logs every message.
+ * **/
+public class BrokerDispatchWorkload implements Callable<Object>, AutoCloseable {
+    private final PrintStream originalOut;
+    private final BrokerAgent broker;
+    private final ACLMessage message;
+    private final boolean resetReceivers;
+
+    public BrokerDispatchWorkload(String scenario, Integer supplierCount) throws IOException, ClassNotFoundException {
+        this.originalOut = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        this.broker = new BrokerAgent();
+        // Without a journal, the benchmark measures dispatch alone and leaves no files behind.
+        broker.initializeState(AgentArguments.of(new Object[]{"quoteTtl=" + Long.MAX_VALUE / 2, "journal="}));
+
+        AID consumer = new AID("consumer-0@benchmark", AID.ISGUID);
+        List<AID> suppliers = new ArrayList<>();
+        for (int i = 0; i < supplierCount; ++i) {
+            AID supplier = new AID("supplier-" + i + "@benchmark", AID.ISGUID);
+            suppliers.add(supplier);
+            broker.handleRequest(createSubscription(supplier));
+            broker.handleRequest(createQuoteUpdate(supplier));
+        }
+
+        this.resetReceivers = scenario.startsWith("delivery");
+        this.message = switch (scenario) {
+            case "cfp" -> createPriceRequest(consumer);
+            case "quote-update" -> createQuoteUpdate(suppliers.get(0));
+            case "accept" -> createAcceptedProposal(consumer, suppliers.get(0), false);
+            case "accept-routed" -> createAcceptedProposal(consumer, suppliers.get(0), true);
+            case "delivery" -> createDelivery(consumer, suppliers.get(0), false);
+            case "delivery-routed" -> createDelivery(consumer, suppliers.get(0), true);
+            default -> throw new IllegalArgumentException("Unknown broker dispatch scenario " + scenario);
+        };
+    }
+
+    private static ACLMessage createSubscription(AID supplier) {
+        ACLMessage subscription = new ACLMessage(ACLMessage.SUBSCRIBE);
+        subscription.setSender(supplier);
+        subscription.setContent("supplier_registration");
+        return subscription;
+    }
+
+    private static ACLMessage createQuoteUpdate(AID supplier) throws IOException {
+        List<PriceInformation> quotes = new ArrayList<>();
+        CarComponentType.initializeReferencePrices().forEach((type, price) -> quotes.add(new PriceInformation(supplier, price, type)));
+        ACLMessage quoteUpdate = new ACLMessage(ACLMessage.INFORM);
+        quoteUpdate.setSender(supplier);
+        quoteUpdate.setOntology(MarketOntology.QUOTE_UPDATE);
+        MessageCodecs.encode(quotes, quoteUpdate);
+        return quoteUpdate;
+    }
+
+    private static ACLMessage createPriceRequest(AID consumer) {
+        ACLMessage priceRequest = new ACLMessage(ACLMessage.CFP);
+        priceRequest.setSender(consumer);
+        priceRequest.setConversationId("benchmark-cfp");
+        priceRequest.setReplyWith("benchmark-cfp");
+        priceRequest.setContent(CarComponentType.ALTERNATOR.name());
+        return priceRequest;
+    }
+
+    /**
+     *  A routed message names its destination in the envelope, so that the broker forwards it without
+     *  decoding the content.
+     * **/
+    private static ACLMessage createAcceptedProposal(AID consumer, AID supplier, boolean routed) throws IOException {
+        PriceInformation acceptedOffer = new PriceInformation(supplier, 250.0, CarComponentType.ALTERNATOR);
+        acceptedOffer.setDestinationAid(consumer);
+        ACLMessage acceptedProposal = new ACLMessage(ACLMessage.ACCEPT_PROPOSAL);
+        acceptedProposal.setSender(consumer);
+        if (routed) {
+            acceptedProposal.addUserDefinedParameter(MarketOntology.SUPPLIER_PARAMETER, supplier.getName());
+            acceptedProposal.addUserDefinedParameter(MarketOntology.RECEIPT_PARAMETER, TradeReceipt.formatOffers(List.of(acceptedOffer)));
+        }
+        MessageCodecs.encode(acceptedOffer, acceptedProposal);
+        return acceptedProposal;
+    }
+
+    private static ACLMessage createDelivery(AID consumer, AID supplier, boolean routed) throws IOException {
+        ComponentDeliveryUnit unit = new ComponentDeliveryUnit(new CarComponent(CarComponentType.ALTERNATOR, 250.0), supplier, consumer);
+        ACLMessage delivery = new ACLMessage(ACLMessage.AGREE);
+        delivery.setSender(supplier);
+        if (routed) {
+            delivery.addUserDefinedParameter(MarketOntology.CONSUMER_PARAMETER, consumer.getName());
+            delivery.addUserDefinedParameter(MarketOntology.RECEIPT_PARAMETER, TradeReceipt.formatDeliveries(List.of(unit)));
+        }
+        MessageCodecs.encode(unit, delivery);
+        return delivery;
+    }
+
+    @Override
+    public Object call() throws Exception {
+        if (resetReceivers) {
+            // The broker forwards deliveries by re-addressing the incoming message itself.
+            message.clearAllReceiver();
+            message.setPerformative(ACLMessage.AGREE);
+        }
+        broker.handleRequest(message);
+        return message;
+    }
+
+    @Override
+    public void close() {
+        System.setOut(originalOut);
+    }
+}
@@ -0,0 +1,56 @@
+import jade.core.AID;
+import jade.lang.acl.ACLMessage;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+public class CodecRoundTripWorkload implements Callable<Object> {
+    private final MessageCodec codec;
+    private final Object payload;
+    private final ACLMessage message;
+
+    public CodecRoundTripWorkload(String codecName, String payloadName) {
+        this.codec = MessageCodecs.forName(codecName);
+        this.payload = createPayloads().get(payloadName);
+        if (payload == null) {
+            throw new IllegalArgumentException("Unknown payload " + payloadName);
+        }
+        this.message = new ACLMessage(ACLMessage.INFORM);
+    }
+
+    /**
+     *  The objects that travel on every ACL hop of a trade, keyed by the payload names the benchmark takes.
+     * **/
+    private static Map<String, Object> createPayloads() {
+        AID supplier = new AID("supplier-17@192.168.1.8:1099/JADE", AID.ISGUID);
+        AID consumer = new AID("consumer-42@192.168.1.8:1099/JADE", AID.ISGUID);
+
+        PriceInformation quote = new PriceInformation(supplier, 243.75, CarComponentType.ALTERNATOR);
+        quote.setDestinationAid(consumer);
+
+        List<PriceInformation> quotes = new ArrayList<>();
+        for (int i = 0; i < 16; ++i) {
+            PriceInformation supplierQuote = new PriceInformation(new AID("supplier-" + i + "@192.168.1.8:1099/JADE", AID.ISGUID), 200.0 + i, CarComponentType.ALTERNATOR);
+            supplierQuote.setDestinationAid(consumer);
+            quotes.add(supplierQuote);
+        }
+
+        Map<String, Object> payloads = new LinkedHashMap<>();
+        payloads.put("PriceInformation", quote);
+        payloads.put("CarComponent", new CarComponent(CarComponentType.CAMSHAFT, 61.5));
+        payloads.put("ComponentDeliveryUnit", new ComponentDeliveryUnit(new CarComponent(CarComponentType.ALTERNATOR, 243.75), supplier, consumer));
+        payloads.put("List<PriceInformation>x16", quotes);
+        payloads.put("List<BasketLine>x3", List.of(new BasketLine(CarComponentType.ALTERNATOR, 1),
+                new BasketLine(CarComponentType.CAMSHAFT, 2), new BasketLine(CarComponentType.CLUTCH_PLATE, 4)));
+        return payloads;
+    }
+
+    @Override
+    public Object call() throws Exception {
+        codec.encode(payload, message);
+        return codec.decode(message);
+    }
+}
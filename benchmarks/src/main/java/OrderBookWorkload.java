@@ -0,0 +1,44 @@
+import jade.core.AID;
+
+import java.util.SplittableRandom;
+import java.util.function.IntSupplier;
+
+/**
+ *  Keeps an order book at a fixed depth of one-unit asks spread over the given number of price levels and
+ *  crosses it with one marketable bid per call. The bid takes the oldest ask of the best level, and a new
+ *  ask at a random level takes its place, so every call is one match and one insert into a book of the same
+ *  shape.
+ * **/
+public class OrderBookWorkload implements IntSupplier {
+    private static final double BASE_PRICE = 250.0;
+
+    private final OrderBook orderBook;
+    private final AID supplier;
+    private final AID consumer;
+    private final SplittableRandom random;
+    private final int priceLevels;
+    private int filledUnits;
+
+    public OrderBookWorkload(Integer restingOrders, Integer priceLevels) {
+        this.orderBook = new OrderBook(CarComponentType.ALTERNATOR);
+        this.supplier = new AID("supplier-0@benchmark", AID.ISGUID);
+        this.consumer = new AID("consumer-0@benchmark", AID.ISGUID);
+        this.random = new SplittableRandom(42);
+        this.priceLevels = priceLevels;
+        for (int i = 0; i < restingOrders; ++i) {
+            postAsk();
+        }
+    }
+
+    private void postAsk() {
+        double price = BASE_PRICE + random.nextInt(priceLevels) / 100.0;
+        orderBook.submit(new BookOrder("ask", supplier, false, CarComponentType.ALTERNATOR, price, 1, 0), fill -> ++filledUnits);
+    }
+
+    @Override
+    public int getAsInt() {
+        orderBook.submit(new BookOrder("bid", consumer, true, CarComponentType.ALTERNATOR, 2 * BASE_PRICE, 1, 0), fill -> ++filledUnits);
+        postAsk();
+        return filledUnits;
+    }
+}
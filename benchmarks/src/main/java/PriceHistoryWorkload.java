@@ -0,0 +1,32 @@
+import java.util.SplittableRandom;
+import java.util.function.LongSupplier;
+
+/**
+ *  Records one supplier quote and one trade of a random component type per call into a broker's price
+ *  history, with the clock moving a millisecond per call, so that ticks wrap around their rings and bars
+ *  of every resolution keep rolling over. Returns the number of ticks held so the calls cannot be optimized
+ *  away.
+ * **/
+public class PriceHistoryWorkload implements LongSupplier {
+    private static final CarComponentType[] COMPONENT_TYPES = CarComponentType.values();
+
+    private final PriceHistory priceHistory;
+    private final SplittableRandom random;
+    private long now;
+
+    public PriceHistoryWorkload(Integer tickCapacity, String resolutions) {
+        this.priceHistory = new PriceHistory(tickCapacity, PriceHistory.parseResolutions(resolutions), 1440);
+        this.random = new SplittableRandom(42);
+        this.now = 1_700_000_000_000L;
+    }
+
+    @Override
+    public long getAsLong() {
+        CarComponentType type = COMPONENT_TYPES[random.nextInt(COMPONENT_TYPES.length)];
+        double price = 100.0 + random.nextInt(1000) / 100.0;
+        priceHistory.recordQuote(type, price, now);
+        priceHistory.recordTrade(type, 1 + random.nextInt(4), price, now);
+        ++now;
+        return priceHistory.getTickCount();
+    }
+}
@@ -0,0 +1,20 @@
+import java.util.function.DoubleSupplier;
+
+/**
+ *  Ticks a supplier price engine over a catalog of the given size with the given price model, and returns
+ *  the price of the first SKU so that the tick cannot be optimized away.
+ * **/
+public class PriceUpdateWorkload implements DoubleSupplier {
+    private final PriceEngine priceEngine;
+
+    public PriceUpdateWorkload(String priceModel, Integer catalogSize) {
+        double[] referencePrices = PriceEngine.catalogReferencePrices(CarComponentType.initializeReferencePrices(), catalogSize);
+        this.priceEngine = new PriceEngine(referencePrices, PriceModel.valueOf(priceModel.toUpperCase()), 42);
+    }
+
+    @Override
+    public double getAsDouble() {
+        priceEngine.tick();
+        return priceEngine.getPrice(CarComponentType.ALTERNATOR);
+    }
+}
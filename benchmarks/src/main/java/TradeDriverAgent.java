@@ -0,0 +1,110 @@
+import jade.core.AID;
+import jade.core.Agent;
+import jade.core.behaviours.CyclicBehaviour;
+import jade.lang.acl.ACLMessage;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ *  Consumer stand-in for the end-to-end benchmark. Benchmark threads hand it futures through the
+ *  object-to-agent queue, and it runs one CFP -> PROPOSE -> ACCEPT_PROPOSAL -> AGREE trade per future,
+ *  completing the future with the round-trip time in nanoseconds.
+ * **/
+public class TradeDriverAgent extends Agent {
+    private final AID broker;
+    private final Queue<CompletableFuture<Long>> pendingTrades;
+    private CompletableFuture<Long> currentTrade;
+    private long currentTradeStart;
+    private long tradeCounter;
+
+    public TradeDriverAgent(AID broker) {
+        this.broker = broker;
+        this.pendingTrades = new ArrayDeque<>();
+        this.tradeCounter = 0;
+    }
+
+    protected void setup() {
+        setEnabledO2ACommunication(true, 0);
+        addBehaviour(new CyclicBehaviour() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public void action() {
+                Object trade;
+                while ((trade = getO2AObject()) != null) {
+                    pendingTrades.add((CompletableFuture<Long>) trade);
+                }
+                if (currentTrade == null && !pendingTrades.isEmpty()) {
+                    startTrade(pendingTrades.poll());
+                }
+
+                ACLMessage message = receive();
+                if (message != null) {
+                    handleMessage(message);
+                } else {
+                    block();
+                }
+            }
+        });
+    }
+
+    private void startTrade(CompletableFuture<Long> trade) {
+        currentTrade = trade;
+        currentTradeStart = System.nanoTime();
+        String conversationId = getLocalName() + "-trade-" + (++tradeCounter);
+        ACLMessage priceRequest = new ACLMessage(ACLMessage.CFP);
+        priceRequest.addReceiver(broker);
+        priceRequest.setConversationId(conversationId);
+        priceRequest.setReplyWith(conversationId);
+        priceRequest.setContent(CarComponentType.ALTERNATOR.name());
+        send(priceRequest);
+    }
+
+    private void finishTrade(Throwable failure) {
+        if (currentTrade != null) {
+            if (failure == null) {
+                currentTrade.complete(System.nanoTime() - currentTradeStart);
+            } else {
+                currentTrade.completeExceptionally(failure);
+            }
+        }
+        currentTrade = null;
+        if (!pendingTrades.isEmpty()) {
+            startTrade(pendingTrades.poll());
+        }
+    }
+
+    private void handleMessage(ACLMessage message) {
+        try {
+            switch (message.getPerformative()) {
+                case ACLMessage.PROPOSE -> acceptCheapestQuote(message);
+                case ACLMessage.AGREE -> finishTrade(null);
+                case ACLMessage.REFUSE -> finishTrade(new IllegalStateException("Broker refused the trade: " + message.getContent()));
+                default -> { }
+            }
+        } catch (IOException | ClassNotFoundException e) {
+            finishTrade(e);
+        }
+    }
+
+    private void acceptCheapestQuote(ACLMessage message) throws IOException, ClassNotFoundException {
+        List<PriceInformation> quotes = MessageCodecs.decode(message);
+        Optional<PriceInformation> cheapestQuote = ConsumerAgent.selectCheapestQuote(quotes);
+        if (cheapestQuote.isEmpty()) {
+            finishTrade(new IllegalStateException("Broker proposed no quotes."));
+            return;
+        }
+
+        PriceInformation acceptedOffer = new PriceInformation(cheapestQuote.get().getSupplier(), cheapestQuote.get().getPrice(), cheapestQuote.get().getType());
+        acceptedOffer.setDestinationAid(getAID());
+        ACLMessage acceptedProposal = new ACLMessage(ACLMessage.ACCEPT_PROPOSAL);
+        acceptedProposal.addReceiver(broker);
+        acceptedProposal.setConversationId(message.getConversationId());
+        MessageCodecs.encode(acceptedOffer, acceptedProposal);
+        send(acceptedProposal);
+    }
+}
@@ -0,0 +1,94 @@
+import jade.core.AID;
+import jade.core.Profile;
+import jade.core.ProfileImpl;
+import jade.core.Runtime;
+import jade.wrapper.AgentController;
+import jade.wrapper.ContainerController;
+import jade.wrapper.StaleProxyException;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ *  Boots an in-process JADE main container with one broker, the given number of suppliers and the given
+ *  number of trade drivers, and waits until a first trade succeeds. Each call then runs one full trade on
+ *  the next driver and returns its round-trip time in nanoseconds.
+ * **/
+public class TradeRoundTripWorkload implements Callable<Object>, AutoCloseable {
+    private static final long TRADE_TIMEOUT_SECONDS = 10;
+    private static final long STARTUP_TIMEOUT_MILLIS = 60000;
+
+    private final PrintStream originalOut;
+    private final ContainerController container;
+    private final List<AgentController> drivers;
+    private final AtomicInteger nextDriver;
+
+    public TradeRoundTripWorkload(Integer supplierCount, Integer consumerCount) throws Exception {
+        this.originalOut = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        Profile profile = new ProfileImpl(null, findFreePort(), null);
+        profile.setParameter(Profile.GUI, "false");
+        this.container = Runtime.instance().createMainContainer(profile);
+        // Drivers fire trades back to back, far above the per-consumer rate a real consumer is allowed.
+        container.createNewAgent("broker", BrokerAgent.class.getName(), new Object[]{"consumerRequestRate=1000000", "consumerRequestBurst=1000000"}).start();
+        for (int i = 0; i < supplierCount; ++i) {
+            // Enough stock that the suppliers never sell out during a run.
+            container.createNewAgent("supplier-" + i, SupplierAgent.class.getName(), new Object[]{"stock=1000000000"}).start();
+        }
+
+        AID broker = new AID("broker", AID.ISLOCALNAME);
+        this.drivers = new ArrayList<>();
+        for (int i = 0; i < consumerCount; ++i) {
+            AgentController driver = container.acceptNewAgent("driver-" + i, new TradeDriverAgent(broker));
+            driver.start();
+            drivers.add(driver);
+        }
+        this.nextDriver = new AtomicInteger();
+        awaitFirstTrade();
+    }
+
+    private static int findFreePort() throws Exception {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private void awaitFirstTrade() throws Exception {
+        long deadline = System.currentTimeMillis() + STARTUP_TIMEOUT_MILLIS;
+        while (true) {
+            try {
+                call();
+                return;
+            } catch (Exception e) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw new IllegalStateException("The market did not complete a trade within " + STARTUP_TIMEOUT_MILLIS + " ms.", e);
+                }
+                Thread.sleep(200);
+            }
+        }
+    }
+
+    @Override
+    public Object call() throws Exception {
+        CompletableFuture<Long> trade = new CompletableFuture<>();
+        drivers.get(Math.floorMod(nextDriver.getAndIncrement(), drivers.size())).putO2AObject(trade, AgentController.ASYNC);
+        return trade.get(TRADE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public void close() throws StaleProxyException {
+        try {
+            container.kill();
+        } finally {
+            System.setOut(originalOut);
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package carmarket.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BrokerDispatchBenchmark {
+    @Param({"cfp", "quote-update", "accept", "accept-routed", "delivery", "delivery-routed"})
+    public String scenario;
+
+    @Param({"4", "64"})
+    public int suppliers;
+
+    private Callable<Object> dispatch;
+
+    @Setup(Level.Trial)
+    public void setUp() throws ReflectiveOperationException {
+        dispatch = Workloads.create("BrokerDispatchWorkload", scenario, suppliers);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        ((AutoCloseable) dispatch).close();
+    }
+
+    @Benchmark
+    public Object handleRequest() throws Exception {
+        return dispatch.call();
+    }
+}
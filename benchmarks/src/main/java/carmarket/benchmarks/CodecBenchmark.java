@@ -0,0 +1,32 @@
+package carmarket.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CodecBenchmark {
+    @Param({"java", "binary"})
+    public String codec;
+
+    @Param({"PriceInformation", "ComponentDeliveryUnit", "List<PriceInformation>x16"})
+    public String payload;
+
+    private Callable<Object> roundTrip;
+
+    @Setup(Level.Trial)
+    public void setUp() throws ReflectiveOperationException {
+        roundTrip = Workloads.create("CodecRoundTripWorkload", codec, payload);
+    }
+
+    @Benchmark
+    public Object encodeAndDecode() throws Exception {
+        return roundTrip.call();
+    }
+}
@@ -0,0 +1,35 @@
+package carmarket.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OrderBookBenchmark {
+    /**
+     *  One marketable bid matched against a book of resting asks, plus the ask that replaces the filled one.
+     * **/
+    @Param({"100", "10000"})
+    public int restingOrders;
+
+    @Param({"10", "1000"})
+    public int priceLevels;
+
+    private IntSupplier match;
+
+    @Setup(Level.Trial)
+    public void setUp() throws ReflectiveOperationException {
+        match = Workloads.create("OrderBookWorkload", restingOrders, priceLevels);
+    }
+
+    @Benchmark
+    public int match() {
+        return match.getAsInt();
+    }
+}
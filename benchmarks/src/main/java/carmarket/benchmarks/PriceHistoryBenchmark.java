@@ -0,0 +1,35 @@
+package carmarket.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PriceHistoryBenchmark {
+    /**
+     *  One quote and one trade recorded into the price history, with their rollups.
+     * **/
+    @Param({"1024", "65536"})
+    public int tickCapacity;
+
+    @Param({"60000", "1000|60000|3600000"})
+    public String resolutions;
+
+    private LongSupplier record;
+
+    @Setup(Level.Trial)
+    public void setUp() throws ReflectiveOperationException {
+        record = Workloads.create("PriceHistoryWorkload", tickCapacity, resolutions);
+    }
+
+    @Benchmark
+    public long record() {
+        return record.getAsLong();
+    }
+}
@@ -0,0 +1,36 @@
+package carmarket.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.DoubleSupplier;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PriceUpdateBenchmark {
+    /**
+     *  One tick of a supplier's price engine over its whole catalog. Run with -prof gc to check that a tick
+     *  does not allocate.
+     * **/
+    @Param({"random_walk", "mean_reversion"})
+    public String priceModel;
+
+    @Param({"12", "1000", "10000"})
+    public int catalogSize;
+
+    private DoubleSupplier priceUpdate;
+
+    @Setup(Level.Trial)
+    public void setUp() throws ReflectiveOperationException {
+        priceUpdate = Workloads.create("PriceUpdateWorkload", priceModel, catalogSize);
+    }
+
+    @Benchmark
+    public double tick() {
+        return priceUpdate.getAsDouble();
+    }
+}
@@ -0,0 +1,43 @@
+package carmarket.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ *  End-to-end CFP -> PROPOSE -> ACCEPT_PROPOSAL -> AGREE trades on an in-process JADE main container.
+ *  Throughput mode reports trades per second, sample mode reports the round-trip latency distribution
+ *  with its percentiles. Every supplier/consumer combination runs in its own fork and platform.
+ * **/
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 10)
+@Threads(4)
+@Fork(1)
+public class TradeRoundTripBenchmark {
+    @Param({"1", "8", "32"})
+    public int suppliers;
+
+    @Param({"1", "8", "32"})
+    public int consumers;
+
+    private Callable<Object> trade;
+
+    @Setup(Level.Trial)
+    public void setUp() throws ReflectiveOperationException {
+        trade = Workloads.create("TradeRoundTripWorkload", suppliers, consumers);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        ((AutoCloseable) trade).close();
+    }
+
+    @Benchmark
+    public Object trade() throws Exception {
+        return trade.call();
+    }
+}
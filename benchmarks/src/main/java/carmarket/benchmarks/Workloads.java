@@ -0,0 +1,25 @@
+package carmarket.benchmarks;
+
+import java.lang.reflect.Constructor;
+
+/**
+ *  The market agents live in the unnamed package, which code in a named package cannot reference, while
+ *  JMH refuses benchmark classes in the unnamed package. Every benchmark therefore drives an unnamed-package
+ *  workload class through a JDK functional interface; the workload is created reflectively once per trial
+ *  and the measured call is a plain interface call.
+ * **/
+final class Workloads {
+    private Workloads() {
+    }
+
+    @SuppressWarnings("unchecked")
+    static <T> T create(String className, Object... arguments) throws ReflectiveOperationException {
+        Class<?> workloadClass = Class.forName(className);
+        for (Constructor<?> constructor : workloadClass.getConstructors()) {
+            if (constructor.getParameterCount() == arguments.length) {
+                return (T) constructor.newInstance(arguments);
+            }
+        }
+        throw new NoSuchMethodException(className + " has no public constructor with " + arguments.length + " parameters.");
+    }
+}
@@ -0,0 +1,93 @@
+import jade.core.AID;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ *  Decides whether the broker takes on a new consumer price request. A request is turned away when the
+ *  number of messages waiting in front of it is above the high watermark, or when its sender has used up
+ *  its token bucket of price requests. Turned away requests get a retry-after hint in milliseconds that
+ *  grows with the overload, so consumers back off harder the further the broker is behind.
+ * **/
+public class AdmissionController {
+    private final int highWatermark;
+    private final double requestsPerSecond;
+    private final double burst;
+    private final long baseRetryAfterMillis;
+    private final Map<AID, TokenBucket> senderBuckets;
+    private final long refillMillis;
+    private long nextEvictionMillis;
+    private long admittedRequests;
+    private long rejectedRequests;
+
+    private static class TokenBucket {
+        private double tokens;
+        private long lastRefill;
+
+        private TokenBucket(double tokens, long lastRefill) {
+            this.tokens = tokens;
+            this.lastRefill = lastRefill;
+        }
+    }
+
+    public AdmissionController(int highWatermark, double requestsPerSecond, double burst, long baseRetryAfterMillis) {
+        this.highWatermark = highWatermark;
+        this.requestsPerSecond = requestsPerSecond;
+        this.burst = burst;
+        this.baseRetryAfterMillis = baseRetryAfterMillis;
+        this.senderBuckets = new HashMap<>();
+        this.refillMillis = Math.max(1, (long) Math.ceil(burst * 1000.0 / requestsPerSecond));
+        this.nextEvictionMillis = 0;
+        this.admittedRequests = 0;
+        this.rejectedRequests = 0;
+    }
+
+    /**
+     *  Returns 0 if the request is admitted, otherwise the number of milliseconds the sender should wait
+     *  before asking again.
+     * **/
+    public long admit(AID sender, int queueDepth, long now) {
+        if (queueDepth > highWatermark) {
+            ++rejectedRequests;
+            return baseRetryAfterMillis * Math.max(1, queueDepth / Math.max(1, highWatermark));
+        }
+
+        TokenBucket bucket = senderBuckets.computeIfAbsent(sender, aid -> new TokenBucket(burst, now));
+        bucket.tokens = Math.min(burst, bucket.tokens + (now - bucket.lastRefill) * requestsPerSecond / 1000.0);
+        bucket.lastRefill = now;
+        if (bucket.tokens < 1.0) {
+            ++rejectedRequests;
+            return Math.max(1, (long) Math.ceil((1.0 - bucket.tokens) * 1000.0 / requestsPerSecond));
+        }
+
+        bucket.tokens -= 1.0;
+        ++admittedRequests;
+        return 0;
+    }
+
+    /**
+     *  Drops the buckets of senders that have been quiet long enough for their bucket to fill up again. Such
+     *  a bucket is no different from the one a new sender gets, so the map only holds the senders that asked
+     *  during the last refill period, however many consumers come and go. Sweeps at most once per refill
+     *  period, so it can be called on every timer tick.
+     * **/
+    public void evictIdleSenders(long now) {
+        if (now < nextEvictionMillis) {
+            return;
+        }
+        nextEvictionMillis = now + refillMillis;
+        senderBuckets.values().removeIf(bucket -> now - bucket.lastRefill >= refillMillis);
+    }
+
+    public int getSenderCount() {
+        return senderBuckets.size();
+    }
+
+    public long getAdmittedRequests() {
+        return admittedRequests;
+    }
+
+    public long getRejectedRequests() {
+        return rejectedRequests;
+    }
+}
@@ -0,0 +1,60 @@
+import jade.core.Agent;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ *  Reads the "key=value" start-up arguments of an agent, e.g. broker:BrokerAgent(rfqDeadline=500).
+ *  A key that was not passed to the agent falls back to the "market.<key>" system property and then
+ *  to the given default, so a whole container can be tuned with -D flags.
+ * **/
+public class AgentArguments {
+    private final Map<String, String> values;
+
+    private AgentArguments(Map<String, String> values) {
+        this.values = values;
+    }
+
+    public static AgentArguments of(Agent agent) {
+        return of(agent.getArguments());
+    }
+
+    public static AgentArguments of(Object[] arguments) {
+        Map<String, String> values = new HashMap<>();
+        if (arguments != null) {
+            for (Object argument : arguments) {
+                String keyValuePair = String.valueOf(argument);
+                int separatorIndex = keyValuePair.indexOf('=');
+                if (separatorIndex > 0) {
+                    values.put(keyValuePair.substring(0, separatorIndex).trim(), keyValuePair.substring(separatorIndex + 1).trim());
+                }
+            }
+        }
+        return new AgentArguments(values);
+    }
+
+    public String getString(String key, String defaultValue) {
+        String value = values.get(key);
+        return value != null ? value : System.getProperty("market." + key, defaultValue);
+    }
+
+    public long getLong(String key, long defaultValue) {
+        String value = getString(key, null);
+        return value != null ? Long.parseLong(value) : defaultValue;
+    }
+
+    public int getInt(String key, int defaultValue) {
+        String value = getString(key, null);
+        return value != null ? Integer.parseInt(value) : defaultValue;
+    }
+
+    public double getDouble(String key, double defaultValue) {
+        String value = getString(key, null);
+        return value != null ? Double.parseDouble(value) : defaultValue;
+    }
+
+    public boolean getBoolean(String key, boolean defaultValue) {
+        String value = getString(key, null);
+        return value != null ? Boolean.parseBoolean(value) : defaultValue;
+    }
+}
@@ -0,0 +1,109 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ *  Checkpoint files of one agent: <agent>.checkpoint holds a binary snapshot of its state and is replaced
+ *  atomically on every checkpoint, and <agent>.log is an append-only log for state that only grows, like the
+ *  components a consumer owns, so that a checkpoint writes what was added since the previous one instead of
+ *  the whole history.
+ *
+ *  The snapshot records the length of the log it goes with. A log tail written by a checkpoint that did not
+ *  get to replace its snapshot is therefore ignored on restore, and cut off before the log grows again.
+ *  A checkpoint whose snapshot and log did not change since the previous one writes nothing.
+ * **/
+public class AgentCheckpoint {
+    private static final int FORMAT_VERSION = 1;
+
+    private final Path snapshotFile;
+    private final Path temporaryFile;
+    private final Path logFile;
+    private final BinaryWriter snapshot;
+    private final BinaryWriter log;
+    private long logLength;
+    private byte[] lastSnapshot;
+
+    public record Contents(BinaryReader snapshot, BinaryReader log) {}
+
+    public AgentCheckpoint(Path directory, String agentName) throws IOException {
+        Files.createDirectories(directory);
+        this.snapshotFile = directory.resolve(agentName + ".checkpoint");
+        this.temporaryFile = directory.resolve(agentName + ".checkpoint.tmp");
+        this.logFile = directory.resolve(agentName + ".log");
+        this.snapshot = new BinaryWriter(256);
+        this.log = new BinaryWriter(256);
+        this.logLength = 0;
+        this.lastSnapshot = new byte[0];
+    }
+
+    /**
+     *  Reads the latest checkpoint, or returns null if the agent has none yet. Must be called before the
+     *  first checkpoint, since it also decides where the log continues.
+     * **/
+    public Contents restore() throws IOException {
+        if (!Files.exists(snapshotFile)) {
+            Files.deleteIfExists(logFile);
+            return null;
+        }
+
+        BinaryReader snapshotReader = new BinaryReader(Files.readAllBytes(snapshotFile));
+        int version = snapshotReader.readVarInt();
+        if (version != FORMAT_VERSION) {
+            throw new IOException("Checkpoint " + snapshotFile + " has format version " + version + ", expected " + FORMAT_VERSION + ".");
+        }
+        this.logLength = snapshotReader.readLong();
+
+        byte[] logBytes = new byte[(int) logLength];
+        if (logLength > 0) {
+            try (FileChannel channel = FileChannel.open(logFile, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                if (channel.size() < logLength) {
+                    throw new IOException("Checkpoint log " + logFile + " has " + channel.size() + " bytes, its snapshot expects " + logLength + ".");
+                }
+                channel.read(ByteBuffer.wrap(logBytes), 0);
+                channel.truncate(logLength);
+            }
+        } else {
+            Files.deleteIfExists(logFile);
+        }
+        return new Contents(snapshotReader, new BinaryReader(logBytes));
+    }
+
+    /**
+     *  Appends the state's new log records and then replaces the snapshot. Returns false if nothing changed
+     *  since the previous checkpoint.
+     * **/
+    public boolean checkpoint(Checkpointable state) throws IOException {
+        snapshot.reset();
+        log.reset();
+        state.writeCheckpoint(snapshot, log);
+        byte[] snapshotBytes = snapshot.toByteArray();
+        if (log.size() == 0 && Arrays.equals(snapshotBytes, lastSnapshot)) {
+            return false;
+        }
+
+        if (log.size() > 0) {
+            try (FileChannel channel = FileChannel.open(logFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                channel.write(ByteBuffer.wrap(log.toByteArray()), logLength);
+                channel.force(false);
+            }
+            logLength += log.size();
+        }
+
+        BinaryWriter file = new BinaryWriter(snapshotBytes.length + 16);
+        file.writeVarInt(FORMAT_VERSION);
+        file.writeLong(logLength);
+        file.writeBytes(snapshotBytes);
+        try (FileChannel channel = FileChannel.open(temporaryFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            channel.write(ByteBuffer.wrap(file.toByteArray()));
+            channel.force(false);
+        }
+        Files.move(temporaryFile, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        this.lastSnapshot = snapshotBytes;
+        return true;
+    }
+}
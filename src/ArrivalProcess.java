@@ -0,0 +1,32 @@
+import java.util.random.RandomGenerator;
+
+/**
+ *  Spacing of the requests of an open-loop load generator that runs at a given average rate. CONSTANT
+ *  spaces them evenly, POISSON draws exponential gaps, and BURSTY sends bursts of back-to-back requests
+ *  separated by exponential gaps long enough to keep the same average rate.
+ * **/
+public enum ArrivalProcess {
+    CONSTANT {
+        @Override
+        public long nextGapNanos(double ratePerSecond, int burstSize, RandomGenerator random) {
+            return (long) (1e9 / ratePerSecond);
+        }
+    },
+    POISSON {
+        @Override
+        public long nextGapNanos(double ratePerSecond, int burstSize, RandomGenerator random) {
+            return (long) (-Math.log(1.0 - random.nextDouble()) * 1e9 / ratePerSecond);
+        }
+    },
+    BURSTY {
+        @Override
+        public long nextGapNanos(double ratePerSecond, int burstSize, RandomGenerator random) {
+            if (burstSize > 1 && random.nextInt(burstSize) != 0) {
+                return 0;
+            }
+            return (long) (-Math.log(1.0 - random.nextDouble()) * 1e9 * Math.max(burstSize, 1) / ratePerSecond);
+        }
+    };
+
+    public abstract long nextGapNanos(double ratePerSecond, int burstSize, RandomGenerator random);
+}
@@ -0,0 +1,32 @@
+import java.io.Serializable;
+
+public class BasketLine implements Serializable {
+    private CarComponentType type;
+    private int quantity;
+
+    public BasketLine(CarComponentType type, int quantity) {
+        this.type = type;
+        this.quantity = quantity;
+    }
+
+    public CarComponentType getType() {
+        return type;
+    }
+
+    public void setType(CarComponentType type) {
+        this.type = type;
+    }
+
+    public int getQuantity() {
+        return quantity;
+    }
+
+    public void setQuantity(int quantity) {
+        this.quantity = quantity;
+    }
+
+    @Override
+    public String toString() {
+        return quantity + "x " + type;
+    }
+}
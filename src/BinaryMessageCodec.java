@@ -0,0 +1,272 @@
+import jade.lang.acl.ACLMessage;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ *  Schema-based binary codec for the objects exchanged between consumers, brokers and suppliers.
+ *  Every encoded value starts with a one byte tag that identifies its schema, followed by a bit mask
+ *  of the non-null fields and then the fields themselves in declaration order. Component types are
+ *  written as their ordinal, so every agent of a simulation must be built from the same CarComponentType.
+ *
+ *  Objects without a schema are still accepted and written with Java serialization behind the
+ *  JAVA_OBJECT tag, which keeps the codec usable for payloads that have not been migrated yet.
+ * **/
+public class BinaryMessageCodec implements MessageCodec {
+    public static final String LANGUAGE = "car-market-binary";
+
+    private static final int NULL = 0;
+    private static final int PRICE_INFORMATION = 1;
+    private static final int COMPONENT_DELIVERY_UNIT = 2;
+    private static final int CAR_COMPONENT = 3;
+    private static final int LIST = 4;
+    private static final int BASKET_LINE = 5;
+    private static final int LIMIT_ORDER = 6;
+    private static final int MARKET_DATA_UPDATE = 7;
+    private static final int PRICE_BAR = 8;
+    private static final int JAVA_OBJECT = 0x7F;
+
+    private static final CarComponentType[] COMPONENT_TYPES = CarComponentType.values();
+    private static final ThreadLocal<BinaryWriter> WRITERS = ThreadLocal.withInitial(() -> new BinaryWriter(256));
+
+    @Override
+    public String getLanguage() {
+        return LANGUAGE;
+    }
+
+    @Override
+    public <T> void encode(T entity, ACLMessage message) throws IOException {
+        message.setLanguage(LANGUAGE);
+        message.setByteSequenceContent(encode(entity));
+    }
+
+    @Override
+    public <T> T decode(ACLMessage message) throws IOException, ClassNotFoundException {
+        return decode(message.getByteSequenceContent());
+    }
+
+    public byte[] encode(Object entity) throws IOException {
+        BinaryWriter writer = WRITERS.get();
+        writer.reset();
+        writeValue(writer, entity);
+        return writer.toByteArray();
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T> T decode(byte[] content) throws IOException, ClassNotFoundException {
+        return (T) readValue(new BinaryReader(content));
+    }
+
+    private void writeValue(BinaryWriter writer, Object entity) throws IOException {
+        if (entity == null) {
+            writer.writeByte(NULL);
+        } else if (entity instanceof PriceInformation priceInformation) {
+            writer.writeByte(PRICE_INFORMATION);
+            writePriceInformation(writer, priceInformation);
+        } else if (entity instanceof ComponentDeliveryUnit deliveryUnit) {
+            writer.writeByte(COMPONENT_DELIVERY_UNIT);
+            writeComponentDeliveryUnit(writer, deliveryUnit);
+        } else if (entity instanceof CarComponent carComponent) {
+            writer.writeByte(CAR_COMPONENT);
+            writeCarComponent(writer, carComponent);
+        } else if (entity instanceof BasketLine basketLine) {
+            writer.writeByte(BASKET_LINE);
+            writeBasketLine(writer, basketLine);
+        } else if (entity instanceof LimitOrder limitOrder) {
+            writer.writeByte(LIMIT_ORDER);
+            writeLimitOrder(writer, limitOrder);
+        } else if (entity instanceof MarketDataUpdate marketDataUpdate) {
+            writer.writeByte(MARKET_DATA_UPDATE);
+            writeMarketDataUpdate(writer, marketDataUpdate);
+        } else if (entity instanceof PriceBar priceBar) {
+            writer.writeByte(PRICE_BAR);
+            writePriceBar(writer, priceBar);
+        } else if (entity instanceof List<?> list) {
+            writer.writeByte(LIST);
+            writer.writeVarInt(list.size());
+            for (Object element : list) {
+                writeValue(writer, element);
+            }
+        } else {
+            writer.writeByte(JAVA_OBJECT);
+            ByteArrayOutputStream byteOut = new ByteArrayOutputStream();
+            try (ObjectOutputStream objectOut = new ObjectOutputStream(byteOut)) {
+                objectOut.writeObject(entity);
+            }
+            byte[] serializedObject = byteOut.toByteArray();
+            writer.writeVarInt(serializedObject.length);
+            writer.writeBytes(serializedObject);
+        }
+    }
+
+    private Object readValue(BinaryReader reader) throws IOException, ClassNotFoundException {
+        int tag = reader.readByte();
+        switch (tag) {
+            case NULL:
+                return null;
+            case PRICE_INFORMATION:
+                return readPriceInformation(reader);
+            case COMPONENT_DELIVERY_UNIT:
+                return readComponentDeliveryUnit(reader);
+            case CAR_COMPONENT:
+                return readCarComponent(reader);
+            case BASKET_LINE:
+                return readBasketLine(reader);
+            case LIMIT_ORDER:
+                return readLimitOrder(reader);
+            case MARKET_DATA_UPDATE:
+                return readMarketDataUpdate(reader);
+            case PRICE_BAR:
+                return readPriceBar(reader);
+            case LIST: {
+                int size = reader.readVarInt();
+                List<Object> list = new ArrayList<>(size);
+                for (int i = 0; i < size; ++i) {
+                    list.add(readValue(reader));
+                }
+                return list;
+            }
+            case JAVA_OBJECT: {
+                byte[] serializedObject = reader.readBytes(reader.readVarInt());
+                try (ObjectInputStream objectIn = new ObjectInputStream(new ByteArrayInputStream(serializedObject))) {
+                    return objectIn.readObject();
+                }
+            }
+            default:
+                throw new IOException("Unknown binary content tag " + tag + ".");
+        }
+    }
+
+    private void writePriceInformation(BinaryWriter writer, PriceInformation priceInformation) {
+        int mask = (priceInformation.getSupplier() != null ? 1 : 0)
+                | (priceInformation.getPrice() != null ? 2 : 0)
+                | (priceInformation.getType() != null ? 4 : 0)
+                | (priceInformation.getDestinationAid() != null ? 8 : 0);
+        writer.writeByte(mask);
+        if ((mask & 1) != 0) writer.writeAid(priceInformation.getSupplier());
+        if ((mask & 2) != 0) writer.writeDouble(priceInformation.getPrice());
+        if ((mask & 4) != 0) writer.writeByte(priceInformation.getType().ordinal());
+        if ((mask & 8) != 0) writer.writeAid(priceInformation.getDestinationAid());
+    }
+
+    private PriceInformation readPriceInformation(BinaryReader reader) throws IOException {
+        int mask = reader.readByte();
+        PriceInformation priceInformation = new PriceInformation(
+                (mask & 1) != 0 ? reader.readAid() : null,
+                (mask & 2) != 0 ? reader.readDouble() : null,
+                (mask & 4) != 0 ? readComponentType(reader) : null);
+        if ((mask & 8) != 0) priceInformation.setDestinationAid(reader.readAid());
+        return priceInformation;
+    }
+
+    private void writeCarComponent(BinaryWriter writer, CarComponent carComponent) {
+        int mask = (carComponent.type() != null ? 1 : 0) | (carComponent.price() != null ? 2 : 0);
+        writer.writeByte(mask);
+        if ((mask & 1) != 0) writer.writeByte(carComponent.type().ordinal());
+        if ((mask & 2) != 0) writer.writeDouble(carComponent.price());
+    }
+
+    private CarComponent readCarComponent(BinaryReader reader) throws IOException {
+        int mask = reader.readByte();
+        return new CarComponent(
+                (mask & 1) != 0 ? readComponentType(reader) : null,
+                (mask & 2) != 0 ? reader.readDouble() : null);
+    }
+
+    private void writeBasketLine(BinaryWriter writer, BasketLine basketLine) {
+        int mask = basketLine.getType() != null ? 1 : 0;
+        writer.writeByte(mask);
+        if ((mask & 1) != 0) writer.writeByte(basketLine.getType().ordinal());
+        writer.writeVarInt(basketLine.getQuantity());
+    }
+
+    private BasketLine readBasketLine(BinaryReader reader) throws IOException {
+        int mask = reader.readByte();
+        CarComponentType type = (mask & 1) != 0 ? readComponentType(reader) : null;
+        return new BasketLine(type, reader.readVarInt());
+    }
+
+    private void writeLimitOrder(BinaryWriter writer, LimitOrder limitOrder) {
+        int mask = limitOrder.getType() != null ? 1 : 0;
+        writer.writeByte(mask);
+        if ((mask & 1) != 0) writer.writeByte(limitOrder.getType().ordinal());
+        writer.writeVarInt(limitOrder.getQuantity());
+        writer.writeDouble(limitOrder.getPrice());
+        writer.writeLong(limitOrder.getExpiresAt());
+    }
+
+    private LimitOrder readLimitOrder(BinaryReader reader) throws IOException {
+        int mask = reader.readByte();
+        CarComponentType type = (mask & 1) != 0 ? readComponentType(reader) : null;
+        return new LimitOrder(type, reader.readVarInt(), reader.readDouble(), reader.readLong());
+    }
+
+    private void writeMarketDataUpdate(BinaryWriter writer, MarketDataUpdate update) {
+        int mask = (update.getType() != null ? 1 : 0)
+                | (update.getBestBid() != null ? 2 : 0)
+                | (update.getBestAsk() != null ? 4 : 0)
+                | (update.getLastPrice() != null ? 8 : 0);
+        writer.writeByte(mask);
+        if ((mask & 1) != 0) writer.writeByte(update.getType().ordinal());
+        if ((mask & 2) != 0) writer.writeDouble(update.getBestBid());
+        if ((mask & 4) != 0) writer.writeDouble(update.getBestAsk());
+        if ((mask & 8) != 0) writer.writeDouble(update.getLastPrice());
+        writer.writeVarInt(update.getLastQuantity());
+        writer.writeLong(update.getLastTradeAt());
+    }
+
+    private MarketDataUpdate readMarketDataUpdate(BinaryReader reader) throws IOException {
+        int mask = reader.readByte();
+        return new MarketDataUpdate(
+                (mask & 1) != 0 ? readComponentType(reader) : null,
+                (mask & 2) != 0 ? reader.readDouble() : null,
+                (mask & 4) != 0 ? reader.readDouble() : null,
+                (mask & 8) != 0 ? reader.readDouble() : null,
+                reader.readVarInt(),
+                reader.readLong());
+    }
+
+    private void writePriceBar(BinaryWriter writer, PriceBar bar) {
+        writer.writeLong(bar.start());
+        writer.writeLong(bar.resolutionMillis());
+        writer.writeDouble(bar.open());
+        writer.writeDouble(bar.high());
+        writer.writeDouble(bar.low());
+        writer.writeDouble(bar.close());
+        writer.writeLong(bar.volume());
+        writer.writeDouble(bar.vwap());
+        writer.writeVarInt(bar.tickCount());
+    }
+
+    private PriceBar readPriceBar(BinaryReader reader) throws IOException {
+        return new PriceBar(reader.readLong(), reader.readLong(), reader.readDouble(), reader.readDouble(), reader.readDouble(),
+                reader.readDouble(), reader.readLong(), reader.readDouble(), reader.readVarInt());
+    }
+
+    private void writeComponentDeliveryUnit(BinaryWriter writer, ComponentDeliveryUnit deliveryUnit) {
+        int mask = (deliveryUnit.getComponent() != null ? 1 : 0)
+                | (deliveryUnit.getSource() != null ? 2 : 0)
+                | (deliveryUnit.getDestination() != null ? 4 : 0);
+        writer.writeByte(mask);
+        if ((mask & 1) != 0) writeCarComponent(writer, deliveryUnit.getComponent());
+        if ((mask & 2) != 0) writer.writeAid(deliveryUnit.getSource());
+        if ((mask & 4) != 0) writer.writeAid(deliveryUnit.getDestination());
+    }
+
+    private ComponentDeliveryUnit readComponentDeliveryUnit(BinaryReader reader) throws IOException {
+        int mask = reader.readByte();
+        return new ComponentDeliveryUnit(
+                (mask & 1) != 0 ? readCarComponent(reader) : null,
+                (mask & 2) != 0 ? reader.readAid() : null,
+                (mask & 4) != 0 ? reader.readAid() : null);
+    }
+
+    private CarComponentType readComponentType(BinaryReader reader) throws IOException {
+        int ordinal = reader.readByte();
+        if (ordinal >= COMPONENT_TYPES.length) {
+            throw new IOException("Unknown car component type ordinal " + ordinal + ".");
+        }
+        return COMPONENT_TYPES[ordinal];
+    }
+}
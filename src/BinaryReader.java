@@ -0,0 +1,95 @@
+import jade.core.AID;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+public class BinaryReader {
+    private final byte[] buffer;
+    private final int limit;
+    private int position;
+
+    public BinaryReader(byte[] buffer) {
+        this(buffer, 0, buffer.length);
+    }
+
+    public BinaryReader(byte[] buffer, int offset, int length) {
+        this.buffer = buffer;
+        this.position = offset;
+        this.limit = offset + length;
+    }
+
+    public boolean hasRemaining() {
+        return position < limit;
+    }
+
+    private void require(int bytes) throws EOFException {
+        if (position + bytes > limit) {
+            throw new EOFException("Binary content ended after " + position + " bytes, " + bytes + " more were expected.");
+        }
+    }
+
+    public int readByte() throws IOException {
+        require(1);
+        return buffer[position++] & 0xFF;
+    }
+
+    public byte[] readBytes(int length) throws IOException {
+        require(length);
+        byte[] bytes = new byte[length];
+        System.arraycopy(buffer, position, bytes, 0, length);
+        position += length;
+        return bytes;
+    }
+
+    public int readVarInt() throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int currentByte = readByte();
+            value |= (currentByte & 0x7F) << shift;
+            if ((currentByte & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint in binary content.");
+    }
+
+    public long readLong() throws IOException {
+        require(8);
+        long value = 0;
+        for (int i = 0; i < 8; ++i) {
+            value = (value << 8) | (buffer[position++] & 0xFF);
+        }
+        return value;
+    }
+
+    public double readDouble() throws IOException {
+        return Double.longBitsToDouble(readLong());
+    }
+
+    public String readString() throws IOException {
+        int lengthPrefix = readVarInt();
+        if (lengthPrefix == 0) {
+            return null;
+        }
+
+        int length = lengthPrefix - 1;
+        require(length);
+        String value = new String(buffer, position, length, StandardCharsets.UTF_8);
+        position += length;
+        return value;
+    }
+
+    public AID readAid() throws IOException {
+        if (readByte() == 0) {
+            return null;
+        }
+
+        AID aid = new AID(readString(), AID.ISGUID);
+        int addressCount = readVarInt();
+        for (int i = 0; i < addressCount; ++i) {
+            aid.addAddresses(readString());
+        }
+        return aid;
+    }
+}
@@ -0,0 +1,113 @@
+import jade.core.AID;
+import jade.util.leap.Iterator;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class BinaryWriter {
+    private byte[] buffer;
+    private int position;
+
+    public BinaryWriter(int initialCapacity) {
+        this.buffer = new byte[initialCapacity];
+        this.position = 0;
+    }
+
+    public void reset() {
+        this.position = 0;
+    }
+
+    public int size() {
+        return position;
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buffer, position);
+    }
+
+    private void ensureCapacity(int additionalBytes) {
+        if (position + additionalBytes > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, position + additionalBytes));
+        }
+    }
+
+    public void writeByte(int value) {
+        ensureCapacity(1);
+        buffer[position++] = (byte) value;
+    }
+
+    public void writeBytes(byte[] bytes) {
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, buffer, position, bytes.length);
+        position += bytes.length;
+    }
+
+    public void writeVarInt(int value) {
+        ensureCapacity(5);
+        while ((value & ~0x7F) != 0) {
+            buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[position++] = (byte) value;
+    }
+
+    public void writeLong(long value) {
+        ensureCapacity(8);
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            buffer[position++] = (byte) (value >>> shift);
+        }
+    }
+
+    public void writeDouble(double value) {
+        writeLong(Double.doubleToRawLongBits(value));
+    }
+
+    /**
+     *  Strings are written as a varint of (length + 1) followed by the UTF-8 bytes, so that a zero
+     *  length prefix can stand for null. Agent names are plain ASCII in practice, so that case is
+     *  copied char by char instead of going through an intermediate byte array.
+     * **/
+    public void writeString(String value) {
+        if (value == null) {
+            writeVarInt(0);
+            return;
+        }
+
+        int length = value.length();
+        boolean ascii = true;
+        for (int i = 0; i < length && ascii; ++i) {
+            ascii = value.charAt(i) < 0x80;
+        }
+
+        if (ascii) {
+            writeVarInt(length + 1);
+            ensureCapacity(length);
+            for (int i = 0; i < length; ++i) {
+                buffer[position++] = (byte) value.charAt(i);
+            }
+        } else {
+            byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+            writeVarInt(utf8.length + 1);
+            writeBytes(utf8);
+        }
+    }
+
+    public void writeAid(AID aid) {
+        if (aid == null) {
+            writeByte(0);
+            return;
+        }
+
+        writeByte(1);
+        writeString(aid.getName());
+        List<String> addresses = new ArrayList<>();
+        Iterator addressIterator = aid.getAllAddresses();
+        while (addressIterator != null && addressIterator.hasNext()) {
+            addresses.add((String) addressIterator.next());
+        }
+        writeVarInt(addresses.size());
+        addresses.forEach(this::writeString);
+    }
+}
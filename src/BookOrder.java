@@ -0,0 +1,85 @@
+import jade.core.AID;
+
+/**
+ *  An order in an OrderBook. The orders of one price level form an intrusive doubly linked list in arrival
+ *  order, so that the book takes the oldest one off the front when it fills and unlinks a cancelled one
+ *  from the middle without searching for it.
+ *
+ *  Prices are matched in whole cents, rounded down for bids and up for asks, so a trade never goes above
+ *  the limit of its bid or below the limit of its ask.
+ * **/
+public class BookOrder {
+    private final String id;
+    private final AID owner;
+    private final boolean bid;
+    private final CarComponentType type;
+    private final double price;
+    private final long priceTicks;
+    private final long expiresAt;
+    private int quantity;
+    private int filledQuantity;
+
+    OrderBook.PriceLevel level;
+    BookOrder previous;
+    BookOrder next;
+
+    public BookOrder(String id, AID owner, boolean bid, CarComponentType type, double price, int quantity, long expiresAt) {
+        this.id = id;
+        this.owner = owner;
+        this.bid = bid;
+        this.type = type;
+        this.price = price;
+        this.priceTicks = bid ? (long) Math.floor(price * 100) : (long) Math.ceil(price * 100);
+        this.quantity = quantity;
+        this.filledQuantity = 0;
+        this.expiresAt = expiresAt;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public AID getOwner() {
+        return owner;
+    }
+
+    public boolean isBid() {
+        return bid;
+    }
+
+    public CarComponentType getType() {
+        return type;
+    }
+
+    public double getPrice() {
+        return price;
+    }
+
+    public long getPriceTicks() {
+        return priceTicks;
+    }
+
+    public long getExpiresAt() {
+        return expiresAt;
+    }
+
+    /**
+     *  The units still to be filled.
+     * **/
+    public int getQuantity() {
+        return quantity;
+    }
+
+    public int getFilledQuantity() {
+        return filledQuantity;
+    }
+
+    public boolean isResting() {
+        return level != null;
+    }
+
+    void fill(int units) {
+        quantity -= units;
+        filledQuantity += units;
+    }
+}
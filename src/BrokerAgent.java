@@ -1,46 +1,329 @@
 import jade.core.*;
 import jade.core.behaviours.*;
 import jade.lang.acl.ACLMessage;
+import jade.domain.FIPAAgentManagement.Property;
 import jade.domain.FIPAAgentManagement.ServiceDescription;
 import jade.domain.FIPAAgentManagement.DFAgentDescription;
 import jade.domain.DFService;
+import jade.domain.FIPAAgentManagement.FIPAManagementVocabulary;
 import jade.domain.FIPAException;
-import jade.lang.acl.MessageTemplate;
-import jade.util.Logger;
+import jade.wrapper.AgentController;
 
-import java.awt.image.AreaAveragingScaleFilter;
 import java.io.*;
-import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.util.*;
-import java.util.stream.Stream;
+import java.util.concurrent.Callable;
 
-public class BrokerAgent extends Agent {
+public class BrokerAgent extends Agent implements Checkpointable {
     private List<AID> suppliers;
-    private Map<AID, List<PriceInformation>> aidPriceMap;
+    private Map<String, AID> suppliersByName;
+    private RfqAggregator rfqAggregator;
+    private SupplierQuoteCache quoteCache;
+    private MatchingEngine matchingEngine;
+    private MarketDataFeed marketData;
+    private long marketDataTickMillis;
+    private PriceHistory priceHistory;
+    private AdmissionController admissionController;
+    private Deque<ACLMessage> priorityMessages;
+    private Deque<ACLMessage> admittedPriceRequests;
+    private int mailboxDrainBatch;
+    private long rfqDeadlineMillis;
+    private long rfqTimerTickMillis;
+    private boolean collapsePriceRequests;
+    private long coalesceWindowMillis;
+    private TimerWheel<ACLMessage> heldFanOuts;
+    private int quoteTopK;
+    private long rfqCounter;
+    private long expiredRfqCount;
+    private long collapsedPriceRequestCount;
+    private Set<CarComponentType> ownedTypes;
+    private boolean sharded;
+    private int advertisedLoad;
+    private boolean verbose;
+    private TradeJournal journal;
+    private TrafficCapture capture;
+    private MarketMetrics metrics;
+    private LatencyHistogram cfpToFanOutLatency;
+    private LatencyHistogram fanOutToLastQuoteLatency;
+    private AgentCheckpoint checkpoint;
+    private int checkpointedSupplierCount;
+    private DispatchPool dispatchPool;
+    private int dispatchWindow;
+    private int dispatchesInFlight;
+    private List<ACLMessage> outbox;
 
     protected void setup() {
         System.out.println("Broker agent " + getLocalName() + " has started...");
-        this.suppliers = new ArrayList<>();
-        this.aidPriceMap = new HashMap<>();
+        initializeState(AgentArguments.of(this));
+        initializeCheckpoint(AgentArguments.of(this));
+        initializeCapture(AgentArguments.of(this).getString("capture", ""));
+        initializeDispatchPool(AgentArguments.of(this));
         SequentialBehaviour initializationBehaviour = new SequentialBehaviour();
         initializationBehaviour.addSubBehaviour(createDfServiceRegistrationBehaviour());
         initializationBehaviour.addSubBehaviour(createRequestHandlingBehaviour());
         addBehaviour(initializationBehaviour);
+        addBehaviour(createRfqExpiryBehaviour(rfqTimerTickMillis));
+        addBehaviour(createMarketDataBehaviour(marketDataTickMillis));
+
+        AgentArguments arguments = AgentArguments.of(this);
+        addBehaviour(createLoadAdvertisementBehaviour(arguments.getLong("loadAdvertisePeriod", 1000)));
+        if (arguments.getBoolean("jmx", false)) {
+            metrics.registerMBean();
+        }
+        String metricsDirectory = arguments.getString("metrics", "");
+        if (!metricsDirectory.isBlank()) {
+            addBehaviour(new MetricsSnapshotBehaviour(this, metrics, Path.of(metricsDirectory), arguments.getLong("metricsPeriod", 10000)));
+        }
+    }
+
+    /**
+     *  Creates the broker's trading state from its arguments. Kept apart from setup() so that benchmarks can
+     *  build a broker and feed it synthetic messages through handleRequest without starting a platform.
+     * **/
+    void initializeState(AgentArguments arguments) {
+        this.rfqDeadlineMillis = arguments.getLong("rfqDeadline", 1000);
+        this.rfqTimerTickMillis = arguments.getLong("rfqTimerTick", 50);
+        this.quoteTopK = arguments.getInt("quoteTopK", 5);
+        this.collapsePriceRequests = arguments.getBoolean("collapsePriceRequests", true);
+        this.coalesceWindowMillis = arguments.getLong("coalesceWindow", 0);
+        this.heldFanOuts = new TimerWheel<>(rfqTimerTickMillis, 64, System.currentTimeMillis());
+
+        this.suppliers = new ArrayList<>();
+        this.suppliersByName = new HashMap<>();
+        this.rfqAggregator = new RfqAggregator(rfqTimerTickMillis, 512, System.currentTimeMillis());
+        this.quoteCache = new SupplierQuoteCache(arguments.getLong("quoteTtl", 7500));
+        this.matchingEngine = new MatchingEngine(rfqTimerTickMillis, System.currentTimeMillis());
+        this.marketDataTickMillis = arguments.getLong("marketDataTick", 100);
+        this.marketData = new MarketDataFeed(marketDataTickMillis);
+        this.priceHistory = new PriceHistory(arguments.getInt("historyTicks", 16384),
+                PriceHistory.parseResolutions(arguments.getString("historyResolutions", "1000|60000|3600000")), arguments.getInt("historyBars", 1440));
+        this.admissionController = new AdmissionController(arguments.getInt("queueHighWatermark", 1000),
+                arguments.getDouble("consumerRequestRate", 5.0), arguments.getDouble("consumerRequestBurst", 10.0),
+                arguments.getLong("retryAfter", 1000));
+        this.priorityMessages = new ArrayDeque<>();
+        this.admittedPriceRequests = new ArrayDeque<>();
+        this.outbox = new ArrayList<>();
+        this.mailboxDrainBatch = arguments.getInt("mailboxDrainBatch", 256);
+        this.rfqCounter = 0;
+        this.verbose = arguments.getBoolean("verbose", false);
+        initializeOwnedTypes(arguments.getString("shardGroup", ""), arguments.getInt("shardReplicas", 1));
+        initializeJournal(arguments.getString("journal", ""), arguments.getLong("journalSegmentSize", 16L << 20));
+        initializeMetrics();
+    }
+
+    /**
+     *  The CFP leg runs from the moment a price request reached the mailbox to the moment the broker sent
+     *  the supplier fan-out, or the proposal when every quote came from the cache. The quote leg runs from
+     *  the fan-out to the last supplier reply, or to the deadline.
+     * **/
+    private void initializeMetrics() {
+        this.metrics = new MarketMetrics("BrokerAgent", getLocalName());
+        this.cfpToFanOutLatency = metrics.histogram("cfp-to-fanout");
+        this.fanOutToLastQuoteLatency = metrics.histogram("fanout-to-last-quote");
+        metrics.gauge("queue-depth", () -> getCurQueueSize() + priorityMessages.size() + admittedPriceRequests.size());
+        metrics.gauge("suppliers", () -> suppliers.size());
+        metrics.gauge("admission-senders", () -> admissionController.getSenderCount());
+        metrics.gauge("open-rfqs", () -> rfqAggregator.getOpenRequestCount());
+        metrics.gauge("resting-orders", () -> matchingEngine.getRestingOrderCount());
+        metrics.gauge("market-data-subscribers", () -> marketData.getSubscriberCount());
+        metrics.gauge("price-history-ticks", () -> priceHistory.getTickCount());
+        metrics.gauge("expired-rfqs", () -> expiredRfqCount);
+        metrics.gauge("admitted-price-requests", () -> admissionController.getAdmittedRequests());
+        metrics.gauge("rejected-price-requests", () -> admissionController.getRejectedRequests());
+        metrics.gauge("collapsed-price-requests", () -> collapsedPriceRequestCount);
+        metrics.gauge("dispatches-in-flight", () -> dispatchesInFlight);
+    }
+
+    /**
+     *  With dispatchThreads above zero, decoding incoming messages and encoding price proposals runs on a pool
+     *  of worker threads, virtual ones with dispatchThreadKind=virtual. The broker's state is still only
+     *  touched on the agent thread: the workers hand their results back through the object-to-agent queue,
+     *  which wakes the request handling behaviour the way a new message does. At most dispatchWindow messages
+     *  are out with the workers at a time, so that supplier traffic keeps its priority over price requests.
+     * **/
+    private void initializeDispatchPool(AgentArguments arguments) {
+        int threads = arguments.getInt("dispatchThreads", 0);
+        if (threads <= 0) {
+            return;
+        }
+        this.dispatchPool = new DispatchPool(getLocalName(), threads, "virtual".equals(arguments.getString("dispatchThreadKind", "platform")));
+        this.dispatchWindow = arguments.getInt("dispatchWindow", 64 * threads);
+        setEnabledO2ACommunication(true, 0);
+        System.out.println("Broker " + getLocalName() + " decodes messages on " + threads + (dispatchPool.isVirtualThreads() ? " virtual" : " platform") + " worker threads");
+    }
+
+    /**
+     *  Opens the trade journal in the given directory, or leaves the broker without one if the directory is
+     *  empty. A broker that cannot open its journal keeps trading without it.
+     * **/
+    private void initializeJournal(String directory, long segmentSize) {
+        if (directory.isBlank()) {
+            return;
+        }
+        try {
+            this.journal = new TradeJournal(Path.of(directory), getLocalName(), segmentSize);
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.out.println("Broker " + getLocalName() + " could not open its trade journal in " + directory + " and runs without it.");
+        }
+    }
+
+    /**
+     *  Records every message the broker receives to the given file for TrafficReplay, or nothing if the file
+     *  name is empty. A capture that fails is dropped and the broker keeps trading without it.
+     * **/
+    private void initializeCapture(String file) {
+        if (file.isBlank()) {
+            return;
+        }
+        try {
+            this.capture = new TrafficCapture(Path.of(file), getAID());
+            System.out.println("Broker " + getLocalName() + " captures its traffic to " + file);
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.out.println("Broker " + getLocalName() + " could not open its traffic capture " + file + " and runs without it.");
+        }
+    }
+
+    private void captureMessage(ACLMessage message) {
+        try {
+            capture.capture(message);
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.out.println("Broker " + getLocalName() + " stopped capturing its traffic after " + capture.getMessageCount() + " messages.");
+            closeCapture();
+        }
+    }
+
+    private void closeCapture() {
+        try {
+            capture.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        capture = null;
+    }
+
+    /**
+     *  Restores the supplier registry from the broker's latest checkpoint in the given directory, if it has
+     *  one, so that a restarted broker serves the suppliers it knew without waiting for them to subscribe
+     *  again. New registrations go to the checkpoint log every checkpointPeriod milliseconds. An empty
+     *  directory turns checkpoints off.
+     * **/
+    private void initializeCheckpoint(AgentArguments arguments) {
+        String directory = arguments.getString("checkpoint", "");
+        if (directory.isBlank()) {
+            return;
+        }
+        try {
+            long start = System.nanoTime();
+            this.checkpoint = new AgentCheckpoint(Path.of(directory), getLocalName());
+            AgentCheckpoint.Contents contents = checkpoint.restore();
+            if (contents != null) {
+                restoreCheckpoint(contents);
+                System.out.println("Broker " + getLocalName() + " warm-started from its checkpoint in " + (System.nanoTime() - start) / 1000 + " us with " + suppliers.size() + " suppliers");
+            }
+            addBehaviour(new CheckpointBehaviour(this, checkpoint, this, arguments.getLong("checkpointPeriod", 10000)));
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.out.println("Broker " + getLocalName() + " could not restore its checkpoint from " + directory + " and runs without checkpoints.");
+            this.checkpoint = null;
+        }
+    }
+
+    public void writeCheckpoint(BinaryWriter snapshot, BinaryWriter log) {
+        snapshot.writeLong(rfqCounter);
+        for (int i = checkpointedSupplierCount; i < suppliers.size(); ++i) {
+            log.writeAid(suppliers.get(i));
+        }
+        this.checkpointedSupplierCount = suppliers.size();
+    }
+
+    private void restoreCheckpoint(AgentCheckpoint.Contents contents) throws IOException {
+        long restoredRfqCounter = contents.snapshot().readLong();
+        List<AID> restoredSuppliers = new ArrayList<>();
+        while (contents.log().hasRemaining()) {
+            // Suppliers run on the broker's platform, whose name may have changed with the restart.
+            restoredSuppliers.add(new AID(contents.log().readAid().getLocalName(), AID.ISLOCALNAME));
+        }
+
+        this.rfqCounter = restoredRfqCounter;
+        restoredSuppliers.forEach(this::registerSupplier);
+        this.checkpointedSupplierCount = suppliers.size();
+    }
+
+    private void journal(byte kind, String conversationId, AID consumer, AID supplier, CarComponentType type, int quantity, Double price) throws IOException {
+        if (journal != null) {
+            journal.append(kind, conversationId, consumer, supplier, type, quantity, price);
+        }
+    }
+
+    /**
+     *  Brokers started with the same shardGroup argument split the component types between them over a
+     *  consistent-hash ring. The argument lists the local names of all brokers of the group, separated by
+     *  commas, or by '|' on the JADE command line where commas separate arguments. Each broker only serves
+     *  the types it owns and advertises them in the yellow pages. Without a shard group it serves every type.
+     *  A broker owns the types for which it is among the first shardReplicas brokers of the ring, so with
+     *  more than one replica the clients fail over to another owner when a broker leaves.
+     * **/
+    private void initializeOwnedTypes(String shardGroup, int replicas) {
+        this.ownedTypes = EnumSet.allOf(CarComponentType.class);
+        this.sharded = !shardGroup.isBlank();
+        if (!sharded) {
+            return;
+        }
+
+        this.ownedTypes = BrokerDirectory.getOwnedTypes(getLocalName(), shardGroup, replicas);
+        System.out.println("Broker " + getLocalName() + " owns the component types " + ownedTypes);
+    }
+
+    private DFAgentDescription createBrokershipDescription() {
+        DFAgentDescription dfd = new DFAgentDescription();
+        dfd.setName(getAID());
+        ServiceDescription sd = new ServiceDescription();
+        sd.setType(MarketOntology.BROKERSHIP_SERVICE_TYPE);
+        sd.setName("car-components-broker");
+        if (sharded) {
+            sd.addProperties(new Property(MarketOntology.COMPONENT_TYPES_PROPERTY, BrokerDirectory.formatComponentTypes(ownedTypes)));
+        }
+        sd.addProperties(new Property(MarketOntology.LOAD_PROPERTY, String.valueOf(advertisedLoad)));
+        dfd.addServices(sd);
+        return dfd;
+    }
+
+    private int getLoad() {
+        return getCurQueueSize() + priorityMessages.size() + admittedPriceRequests.size() + dispatchesInFlight + rfqAggregator.getOpenRequestCount();
+    }
+
+    /**
+     *  Advertises the broker's load, its queued messages and open RFQs, in its yellow pages entry. Every
+     *  change is pushed to all the subscribed clients, so the entry is only modified when the load moved by
+     *  a quarter of the advertised value, or by one when the broker was idle.
+     * **/
+    private Behaviour createLoadAdvertisementBehaviour(long period) {
+        return new TickerBehaviour(this, period) {
+            @Override
+            protected void onTick() {
+                int load = getLoad();
+                if (Math.abs(load - advertisedLoad) < Math.max(1, advertisedLoad / 4)) {
+                    return;
+                }
+                advertisedLoad = load;
+                // The update is sent without waiting for the DF, which may be busy with the subscriptions of
+                // thousands of clients; the broker drops its answer.
+                send(DFService.createRequestMessage(myAgent, getDefaultDF(), FIPAManagementVocabulary.MODIFY, createBrokershipDescription(), null));
+            }
+        };
     }
 
     private Behaviour createDfServiceRegistrationBehaviour() {
         return new OneShotBehaviour() {
             @Override
             public void action() {
-                DFAgentDescription dfd = new DFAgentDescription();
-                dfd.setName(getAID());
-                ServiceDescription sd = new ServiceDescription();
-                sd.setType("car-components-trading-brokership");
-                sd.setName("car-components-broker");
-                dfd.addServices(sd);
                 try {
-                    DFService.register(myAgent, dfd);
+                    DFService.register(myAgent, createBrokershipDescription());
                     System.out.println("Broker " + getLocalName() + " registered in the DfService yellow pages.");
+                    LaunchCoordinatorAgent.signalReady(myAgent);
                 } catch (FIPAException fe) {
                     fe.printStackTrace();
                     System.out.println("Broker " + getLocalName() + " failed to register in the DfService yellow pages.");
@@ -49,101 +332,861 @@ public class BrokerAgent extends Agent {
         };
     }
 
+    /**
+     *  Every registration is acknowledged with an AGREE, which tells the supplier the broker will route
+     *  requests to it from now on.
+     * **/
     private void handleSupplierSubscriptionRequest(ACLMessage request) {
-        suppliers.add(request.getSender());
+        // A supplier restored from the checkpoint subscribes again when it restarts as well.
+        registerSupplier(request.getSender());
+        ACLMessage agreement = request.createReply();
+        agreement.setPerformative(ACLMessage.AGREE);
+        post(agreement);
         System.out.println("Broker " + getLocalName() + " registered supplier " + request.getSender().getLocalName());
-        System.out.println("Broker " + getLocalName() + " received registrations from these suppliers:");
-        Stream.of(suppliers).forEach(System.out::println);
+        if (verbose) {
+            System.out.println("Broker " + getLocalName() + " received registrations from these suppliers:");
+            suppliers.forEach(System.out::println);
+        }
+    }
+
+    private void handleConsumerPriceRequest(ACLMessage request, List<BasketLine> lines) throws IOException {
+        if (MarketOntology.BASKET.equals(request.getOntology())) {
+            if (verbose) {
+                System.out.println("Broker " + getLocalName() + " got a call-for-proposal basket request from " + request.getSender().getLocalName() + " for " + lines + ".");
+            }
+            openRequestForQuote(request, lines, true);
+        } else {
+            if (verbose) {
+                System.out.println("Broker " + getLocalName() + " got a call-for-proposal price request from " + request.getSender().getLocalName() + " for a " + request.getContent() + " component.");
+            }
+            openRequestForQuote(request, lines, false);
+        }
+    }
+
+    /**
+     *  Answers a consumer price request from the quote cache where possible and asks every supplier with
+     *  stale quotes for the missing ones. A basket request sends each of these suppliers a single REQUEST
+     *  with all its missing types, which it answers with a single INFORM.
+     *
+     *  A single-type request that needs suppliers asked joins the fan-out already open for its type if that
+     *  fan-out asks all of them, and is answered with its replies, so the supplier traffic grows with the
+     *  number of types asked about rather than with the number of consumers asking. With coalesceWindow above
+     *  zero, the fan-out waits that long, rounded up to rfqTimerTick, for more requests to join it before it
+     *  goes out.
+     * **/
+    private void openRequestForQuote(ACLMessage request, List<BasketLine> lines, boolean basket) throws IOException {
+        for (BasketLine line : lines) {
+            if (!ownedTypes.contains(line.getType())) {
+                refuseConsumerPriceRequest(request, "not-owner-of-" + line.getType());
+                return;
+            }
+        }
+        if (suppliers.isEmpty()) {
+            refuseConsumerPriceRequest(request, "no-suppliers");
+            return;
+        }
+        for (BasketLine line : lines) {
+            journal(TradeJournal.REQUEST, request.getConversationId(), request.getSender(), null, line.getType(), line.getQuantity(), null);
+            metrics.countComponent(line.getType(), line.getQuantity());
+        }
+
+        long now = System.currentTimeMillis();
+        List<PriceInformation> cachedQuotes = new ArrayList<>();
+        Map<AID, List<PriceInformation>> staleQuotesBySupplier = new LinkedHashMap<>();
+        for (AID supplier : suppliers) {
+            for (BasketLine line : lines) {
+                if (quoteCache.isDepleted(line.getType(), supplier)) {
+                    continue;
+                }
+                PriceInformation cachedQuote = quoteCache.getFreshQuote(line.getType(), supplier, now);
+                if (cachedQuote != null) {
+                    cachedQuotes.add(cachedQuote);
+                } else {
+                    PriceInformation price = new PriceInformation(null, null, line.getType());
+                    price.setDestinationAid(request.getSender());
+                    staleQuotesBySupplier.computeIfAbsent(supplier, aid -> new ArrayList<>()).add(price);
+                }
+            }
+        }
+
+        String rfqId = getLocalName() + "-rfq-" + (++rfqCounter);
+        long heldMillis = basket ? 0 : coalesceWindowMillis;
+        RequestForQuote rfq = new RequestForQuote(rfqId, request.getSender(), request.getConversationId(), request.getReplyWith(),
+                lines, basket, staleQuotesBySupplier.keySet(), now + heldMillis + rfqDeadlineMillis);
+        rfq.addCachedQuotes(cachedQuotes);
+        if (staleQuotesBySupplier.isEmpty()) {
+            sendPriceProposal(rfq);
+            MarketMetrics.recordSincePosted(cfpToFanOutLatency, request);
+            return;
+        }
+        if (!basket && collapsePriceRequests) {
+            RequestForQuote fanOut = rfqAggregator.join(rfq);
+            if (fanOut != null) {
+                ++collapsedPriceRequestCount;
+                if (verbose) {
+                    System.out.println("Broker " + getLocalName() + " answers the price request of " + request.getSender().getLocalName() + " with the quotes of " + fanOut.getId() + ".");
+                }
+                MarketMetrics.recordSincePosted(cfpToFanOutLatency, request);
+                return;
+            }
+        }
+        rfqAggregator.open(rfq);
+
+        if (!basket) {
+            // Every stale supplier is asked the same single-type question, so one message reaches them all.
+            ACLMessage priceRequest = new ACLMessage(ACLMessage.REQUEST);
+            priceRequest.setConversationId(rfqId);
+            MessageCodecs.encode(staleQuotesBySupplier.values().iterator().next().get(0), priceRequest);
+            staleQuotesBySupplier.keySet().forEach(priceRequest::addReceiver);
+            if (heldMillis > 0) {
+                heldFanOuts.schedule(priceRequest, now + heldMillis);
+            } else {
+                post(priceRequest);
+            }
+            MarketMetrics.recordSincePosted(cfpToFanOutLatency, request);
+            return;
+        }
+
+        for (Map.Entry<AID, List<PriceInformation>> supplierRequest : staleQuotesBySupplier.entrySet()) {
+            ACLMessage priceRequest = new ACLMessage(ACLMessage.REQUEST);
+            priceRequest.setConversationId(rfqId);
+            priceRequest.setOntology(MarketOntology.BASKET);
+            priceRequest.addReceiver(supplierRequest.getKey());
+            MessageCodecs.encode(supplierRequest.getValue(), priceRequest);
+            post(priceRequest);
+        }
+        MarketMetrics.recordSincePosted(cfpToFanOutLatency, request);
+    }
+
+    private void refuseConsumerPriceRequest(ACLMessage request, String reason) {
+        refuseConsumerPriceRequest(request, reason, 0);
+    }
+
+    /**
+     *  A consumer's bid is matched against the standing asks of its type right away. Whatever is not filled
+     *  rests in the order book until asks come down to its limit or it expires.
+     * **/
+    private void handleBid(ACLMessage request, LimitOrder bid) throws IOException {
+        if (!ownedTypes.contains(bid.getType())) {
+            refuseConsumerPriceRequest(request, "not-owner-of-" + bid.getType());
+            return;
+        }
+        if (verbose) {
+            System.out.println("Broker " + getLocalName() + " got a bid for " + bid + " from " + request.getSender().getLocalName());
+        }
+        journal(TradeJournal.REQUEST, request.getConversationId(), request.getSender(), null, bid.getType(), bid.getQuantity(), bid.getPrice());
+        metrics.countComponent(bid.getType(), bid.getQuantity());
+
+        List<OrderBook.Fill> fills = new ArrayList<>();
+        matchingEngine.postBid(request.getConversationId(), request.getSender(), bid, fills::add);
+        settleFills(fills);
+    }
+
+    private void handleSupplierAsks(ACLMessage message, List<LimitOrder> asks) throws IOException {
+        if (!isRegisteredSupplier(message.getSender())) {
+            System.out.println("Broker " + getLocalName() + " ignored the asks of unregistered supplier " + message.getSender().getLocalName());
+            return;
+        }
+
+        List<OrderBook.Fill> fills = new ArrayList<>();
+        for (LimitOrder ask : asks) {
+            if (ownedTypes.contains(ask.getType())) {
+                priceHistory.recordQuote(ask.getType(), ask.getPrice(), System.currentTimeMillis());
+                matchingEngine.postAsk(message.getSender(), ask, fills::add);
+            }
+        }
+        settleFills(fills);
+    }
+
+    /**
+     *  Turns the fills of the order books into delivery instructions. Every supplier gets one basket
+     *  ACCEPT_PROPOSAL per bid with an offer for each unit it sold, which it delivers like any accepted basket,
+     *  and every consumer is told which units of its bid were filled and how many are still open.
+     * **/
+    private void settleFills(List<OrderBook.Fill> fills) throws IOException {
+        Map<BookOrder, Map<AID, List<PriceInformation>>> offersByBid = new LinkedHashMap<>();
+        for (OrderBook.Fill fill : fills) {
+            BookOrder bid = fill.bid();
+            AID supplier = fill.ask().getOwner();
+            journal(TradeJournal.ACCEPT, bid.getId(), bid.getOwner(), supplier, bid.getType(), fill.quantity(), fill.price());
+            recordTrade(bid.getType(), fill.quantity(), fill.price(), System.currentTimeMillis());
+            List<PriceInformation> offers = offersByBid.computeIfAbsent(bid, order -> new LinkedHashMap<>()).computeIfAbsent(supplier, aid -> new ArrayList<>());
+            for (int unit = 0; unit < fill.quantity(); ++unit) {
+                PriceInformation offer = new PriceInformation(supplier, fill.price(), bid.getType());
+                offer.setDestinationAid(bid.getOwner());
+                offers.add(offer);
+            }
+        }
+
+        for (Map.Entry<BookOrder, Map<AID, List<PriceInformation>>> bidOffers : offersByBid.entrySet()) {
+            List<PriceInformation> filledUnits = new ArrayList<>();
+            for (Map.Entry<AID, List<PriceInformation>> supplierOffers : bidOffers.getValue().entrySet()) {
+                ACLMessage deliveryInstruction = new ACLMessage(ACLMessage.ACCEPT_PROPOSAL);
+                deliveryInstruction.addReceiver(supplierOffers.getKey());
+                deliveryInstruction.setConversationId(bidOffers.getKey().getId());
+                deliveryInstruction.setOntology(MarketOntology.BASKET);
+                MessageCodecs.encode(supplierOffers.getValue(), deliveryInstruction);
+                post(deliveryInstruction);
+                filledUnits.addAll(supplierOffers.getValue());
+            }
+            reportBid(bidOffers.getKey(), filledUnits);
+        }
+    }
+
+    private void reportBid(BookOrder bid, List<PriceInformation> filledUnits) throws IOException {
+        ACLMessage report = new ACLMessage(ACLMessage.INFORM);
+        report.addReceiver(bid.getOwner());
+        report.setConversationId(bid.getId());
+        report.setOntology(MarketOntology.ORDER);
+        report.addUserDefinedParameter(MarketOntology.OPEN_QUANTITY_PARAMETER, Integer.toString(bid.isResting() ? bid.getQuantity() : 0));
+        MessageCodecs.encode(filledUnits, report);
+        post(report);
+        if (verbose && filledUnits.isEmpty()) {
+            System.out.println("Broker " + getLocalName() + " let the bid " + bid.getId() + " of " + bid.getOwner().getLocalName() + " expire with " + bid.getQuantity() + " units open");
+        }
+    }
+
+    private void refuseConsumerPriceRequest(ACLMessage request, String reason, long retryAfterMillis) {
+        ACLMessage refusal = request.createReply();
+        refusal.setPerformative(ACLMessage.REFUSE);
+        refusal.setContent(reason);
+        if (retryAfterMillis > 0) {
+            refusal.addUserDefinedParameter(MarketOntology.RETRY_AFTER_PARAMETER, Long.toString(retryAfterMillis));
+        }
+        post(refusal);
+        if (verbose) {
+            System.out.println("Broker " + getLocalName() + " refused the price request of " + request.getSender().getLocalName() + ": " + reason);
+        }
+    }
+
+    private void handleSupplierPriceInform(ACLMessage request, List<PriceInformation> supplierQuotes) throws IOException {
+        if (verbose) {
+            System.out.println("Broker " + getLocalName() + " received a supplier price inform message from " + request.getSender().getLocalName());
+        }
+
+        long now = System.currentTimeMillis();
+        for (PriceInformation quote : supplierQuotes) {
+            quoteCache.update(quote, now);
+            recordQuote(quote, now);
+            journal(TradeJournal.QUOTE, request.getConversationId(), quote.getDestinationAid(), quote.getSupplier(), quote.getType(), 1, quote.getPrice());
+        }
+        RequestForQuote completedRequest = rfqAggregator.addSupplierReply(request.getConversationId(), supplierQuotes);
+        if (completedRequest != null) {
+            fanOutToLastQuoteLatency.record(System.nanoTime() - completedRequest.getOpenedAtNanos());
+            sendPriceProposal(completedRequest);
+        }
+    }
+
+    private void handleSupplierQuoteUpdate(ACLMessage message, List<PriceInformation> updatedQuotes) throws IOException {
+        if (!isRegisteredSupplier(message.getSender())) {
+            System.out.println("Broker " + getLocalName() + " ignored a quote update from unregistered supplier " + message.getSender().getLocalName());
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        for (PriceInformation quote : updatedQuotes) {
+            quoteCache.update(quote, now);
+            recordQuote(quote, now);
+            journal(TradeJournal.QUOTE, null, null, quote.getSupplier(), quote.getType(), 1, quote.getPrice());
+        }
+    }
+
+    private void handleSupplierInform(ACLMessage message, List<PriceInformation> quotes) throws IOException {
+        if (MarketOntology.QUOTE_UPDATE.equals(message.getOntology())) {
+            handleSupplierQuoteUpdate(message, quotes);
+        } else if (MarketOntology.DELIVERY_RECEIPT.equals(message.getOntology())) {
+            handleDeliveryReceipt(message);
+        } else {
+            handleSupplierPriceInform(message, quotes);
+        }
     }
 
-    private void handleConsumerPriceRequest(ACLMessage request) throws IOException {
-        System.out.println("Broker " + getLocalName() + " got a call-for-proposal price request from " + request.getSender().getLocalName() + " for a " + request.getContent() + " component.");
-        ACLMessage priceRequest = new ACLMessage(ACLMessage.REQUEST);
-        String componentTypeAsString = request.getContent();
-        CarComponentType type = CarComponentType.valueOf(componentTypeAsString);
-        aidPriceMap.put(request.getSender(), new ArrayList<>());
+    private void sendPriceProposal(RequestForQuote request) throws IOException {
+        // The joined requests take the supplier replies before the quotes are pruned for this request's proposal.
+        Map<AID, List<PriceInformation>> reservationsBySupplier = new LinkedHashMap<>();
+        for (RequestForQuote joinedRequest : request.getJoinedRequests()) {
+            for (PriceInformation reply : joinedRequest.addFanOutReplies(request)) {
+                if (reply.getPrice() != null) {
+                    PriceInformation reservation = new PriceInformation(null, null, reply.getType());
+                    reservation.setDestinationAid(joinedRequest.getConsumer());
+                    reservationsBySupplier.computeIfAbsent(reply.getSupplier(), aid -> new ArrayList<>()).add(reservation);
+                }
+            }
+        }
+        requestReservations(request.getId(), reservationsBySupplier);
+        for (RequestForQuote joinedRequest : request.getJoinedRequests()) {
+            sendPriceProposal(joinedRequest);
+        }
+        if (dispatchPool == null) {
+            post(createPriceProposal(request));
+            return;
+        }
+        // The request is closed, so the worker is the only one left to touch its quotes.
+        runOnWorker(request.getConsumer(), () -> {
+            ACLMessage proposal = createPriceProposal(request);
+            return () -> post(proposal);
+        });
+    }
 
-        PriceInformation price = new PriceInformation(null, null, type);
-        price.setDestinationAid(request.getSender());
-        String serializedObjectString = Base64Serializer.serialize(price);
+    /**
+     *  Suppliers reserve the quoted unit only for the consumer whose request opened the fan-out, so every
+     *  supplier whose reply was handed to joined requests is asked once to hold a unit for each of their
+     *  consumers as well. The reservations are posted before the proposals, so they reach the supplier ahead
+     *  of any acceptance the broker passes on. A unit the supplier can no longer hold is sold from its free
+     *  stock on acceptance, as with an expired reservation.
+     * **/
+    private void requestReservations(String rfqId, Map<AID, List<PriceInformation>> reservationsBySupplier) throws IOException {
+        for (Map.Entry<AID, List<PriceInformation>> supplierReservations : reservationsBySupplier.entrySet()) {
+            ACLMessage reservationRequest = new ACLMessage(ACLMessage.REQUEST);
+            reservationRequest.setOntology(MarketOntology.RESERVATION);
+            reservationRequest.setConversationId(rfqId);
+            reservationRequest.addReceiver(supplierReservations.getKey());
+            MessageCodecs.encode(supplierReservations.getValue(), reservationRequest);
+            post(reservationRequest);
+        }
+    }
 
-        priceRequest.setContent(serializedObjectString);
-        suppliers.forEach(priceRequest::addReceiver);
-        send(priceRequest);
+    private ACLMessage createPriceProposal(RequestForQuote request) throws IOException {
+        // Suppliers leave out the types they cannot price, so an answered request may still hold no quotes.
+        request.getQuotes().removeIf(quote -> quote.getPrice() == null);
+        ACLMessage pricesToSendToConsumer = new ACLMessage(request.getQuotes().isEmpty() ? ACLMessage.REFUSE : ACLMessage.PROPOSE);
+        pricesToSendToConsumer.addReceiver(request.getConsumer());
+        pricesToSendToConsumer.setConversationId(request.getConsumerConversationId());
+        pricesToSendToConsumer.setInReplyTo(request.getConsumerReplyWith());
+        if (request.getQuotes().isEmpty()) {
+            pricesToSendToConsumer.setContent("no-quotes-before-deadline");
+        } else if (request.isBasket()) {
+            pricesToSendToConsumer.setOntology(MarketOntology.BASKET);
+            MessageCodecs.encode(SupplierQuoteCache.selectCheapestPerType(request.getQuotes(), quoteTopK), pricesToSendToConsumer);
+        } else {
+            MessageCodecs.encode(SupplierQuoteCache.selectCheapest(request.getQuotes(), quoteTopK), pricesToSendToConsumer);
+        }
+        return pricesToSendToConsumer;
     }
 
-    private void handleSupplierPriceInform(ACLMessage request) throws IOException, ClassNotFoundException {
-        System.out.println("Broker " + getLocalName() + " received the following serialized supplier price inform message from " + request.getSender().getLocalName());
-        System.out.println(request.getContent());
+    private Behaviour createRfqExpiryBehaviour(long tickMillis) {
+        return new TickerBehaviour(this, tickMillis) {
+            @Override
+            protected void onTick() {
+                long now = System.currentTimeMillis();
+                admissionController.evictIdleSenders(now);
+                heldFanOuts.advance(now, priceRequest -> post(priceRequest));
+                // Bids of the order books expire on the same timer.
+                matchingEngine.expire(now, bid -> {
+                    try {
+                        reportBid(bid, List.of());
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                        throw new RuntimeException(e);
+                    }
+                });
+                rfqAggregator.expire(now, request -> {
+                    fanOutToLastQuoteLatency.record(System.nanoTime() - request.getOpenedAtNanos());
+                    ++expiredRfqCount;
+                    if (verbose) {
+                        System.out.println("Broker " + getLocalName() + " reached the deadline of " + request.getId() + " with " + request.getReceivedQuotes() + "/" + request.getExpectedQuotes() + " supplier replies.");
+                    }
+                    try {
+                        sendPriceProposal(request);
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                        throw new RuntimeException(e);
+                    }
+                });
+                flushOutbox();
+            }
+        };
+    }
 
-        PriceInformation supplierPriceInformation = Base64Serializer.deserialize(request.getContent());
+    /**
+     *  Market data subscribers get the top of book and the last trade of every type the broker trades that
+     *  changed since their last update, at most once per interval they asked for. The interval defaults to a
+     *  second and cannot be shorter than marketDataTick.
+     * **/
+    private void handleMarketDataSubscription(ACLMessage request) {
+        String interval = request.getUserDefinedParameter(MarketOntology.INTERVAL_PARAMETER);
+        marketData.subscribe(request.getSender(), request.getConversationId(), interval != null ? Long.parseLong(interval) : 1000, System.currentTimeMillis());
+        if (verbose) {
+            System.out.println("Broker " + getLocalName() + " subscribed " + request.getSender().getLocalName() + " to market data");
+        }
+    }
 
-        List<PriceInformation> prices = aidPriceMap.get(supplierPriceInformation.getDestinationAid());
-        prices.add(supplierPriceInformation);
-        aidPriceMap.put(supplierPriceInformation.getDestinationAid(), prices);
+    private void handleMarketDataCancellation(ACLMessage request) {
+        if (marketData.unsubscribe(request.getSender()) && verbose) {
+            System.out.println("Broker " + getLocalName() + " cancelled the market data subscription of " + request.getSender().getLocalName());
+        }
+    }
 
-        if (prices.size() == suppliers.size()) {
-            ACLMessage pricesToSendToConsumer = new ACLMessage(ACLMessage.PROPOSE);
-            String serializedPrices = Base64Serializer.serialize(prices);
-            pricesToSendToConsumer.addReceiver(supplierPriceInformation.getDestinationAid());
-            pricesToSendToConsumer.setContent(serializedPrices);
-            send(pricesToSendToConsumer);
+    /**
+     *  Answers a QUERY_REF for the price history of the component type named in the content with the bars of
+     *  the resolution parameter, in milliseconds, that start between the from and to parameters. The series
+     *  parameter picks the trades, the default, or the supplier quotes. Missing bounds leave the range open.
+     * **/
+    private void handlePriceHistoryQuery(ACLMessage request) throws IOException {
+        ACLMessage reply = request.createReply();
+        List<PriceBar> bars = null;
+        try {
+            CarComponentType type = CarComponentType.valueOf(String.valueOf(request.getContent()));
+            PriceHistory.Series series = PriceHistory.Series.valueOf(getParameter(request, MarketOntology.SERIES_PARAMETER, "trades").toUpperCase());
+            bars = priceHistory.getBars(series, type, Long.parseLong(getParameter(request, MarketOntology.RESOLUTION_PARAMETER, "60000")),
+                    Long.parseLong(getParameter(request, MarketOntology.FROM_PARAMETER, Long.toString(Long.MIN_VALUE))),
+                    Long.parseLong(getParameter(request, MarketOntology.TO_PARAMETER, Long.toString(Long.MAX_VALUE))));
+        } catch (IllegalArgumentException e) {
+            // Unknown types, series and malformed numbers are refused below.
         }
+        if (bars == null) {
+            reply.setPerformative(ACLMessage.REFUSE);
+            reply.setContent("unknown-price-history; resolutions " + Arrays.toString(priceHistory.getResolutions()));
+        } else {
+            reply.setPerformative(ACLMessage.INFORM);
+            MessageCodecs.encode(bars, reply);
+        }
+        post(reply);
+    }
+
+    private static String getParameter(ACLMessage message, String name, String defaultValue) {
+        String value = message.getUserDefinedParameter(name);
+        return value != null ? value : defaultValue;
+    }
+
+    private Behaviour createMarketDataBehaviour(long tickMillis) {
+        return new TickerBehaviour(this, tickMillis) {
+            @Override
+            protected void onTick() {
+                if (!marketData.hasSubscribers()) {
+                    return;
+                }
+                long now = System.currentTimeMillis();
+                for (CarComponentType type : ownedTypes) {
+                    OrderBook book = matchingEngine.getBook(type);
+                    Double quotedAsk = quoteCache.getCheapestFreshPrice(type, now);
+                    Double standingAsk = book.getBestAsk();
+                    Double bestAsk = quotedAsk == null || (standingAsk != null && standingAsk < quotedAsk) ? standingAsk : quotedAsk;
+                    marketData.updateTopOfBook(type, book.getBestBid() != null ? book.getBestBid() : Double.NaN, bestAsk != null ? bestAsk : Double.NaN);
+                }
+                marketData.publish(now, (subscription, updates) -> {
+                    ACLMessage update = new ACLMessage(ACLMessage.INFORM);
+                    update.addReceiver(subscription.getSubscriber());
+                    update.setConversationId(subscription.getConversationId());
+                    update.setOntology(MarketOntology.MARKET_DATA);
+                    try {
+                        MessageCodecs.encode(updates, update);
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                        throw new RuntimeException(e);
+                    }
+                    post(update);
+                });
+                flushOutbox();
+            }
+        };
     }
 
-    private void handleAcceptedPriceProposal(ACLMessage request) throws IOException, ClassNotFoundException {
-        System.out.println("Broker " + getLocalName() + " received an accepted price proposal answer from " + request.getSender().getLocalName());
+    private void handleAcceptedPriceProposal(ACLMessage request, List<PriceInformation> acceptedOffers) throws IOException {
+        if (verbose) {
+            System.out.println("Broker " + getLocalName() + " received an accepted price proposal answer from " + request.getSender().getLocalName());
+        }
+        if (MarketOntology.BASKET.equals(request.getOntology())) {
+            handleAcceptedBasketProposal(request, acceptedOffers);
+            return;
+        }
 
-        PriceInformation priceProposalAcceptMessage = Base64Serializer.deserialize(request.getContent());
+        AID supplier;
+        if (acceptedOffers.isEmpty()) {
+            supplier = findSupplier(request.getUserDefinedParameter(MarketOntology.SUPPLIER_PARAMETER));
+            journalReceipt(TradeJournal.ACCEPT, request, request.getSender(), supplier);
+            recordReceiptTrades(request);
+        } else {
+            PriceInformation priceProposalAcceptMessage = acceptedOffers.get(0);
+            supplier = priceProposalAcceptMessage.getSupplier();
+            journal(TradeJournal.ACCEPT, request.getConversationId(), request.getSender(), supplier,
+                    priceProposalAcceptMessage.getType(), 1, priceProposalAcceptMessage.getPrice());
+            recordTrade(priceProposalAcceptMessage);
+        }
 
         ACLMessage productRetrievalRequestMessage = new ACLMessage(ACLMessage.ACCEPT_PROPOSAL);
-        productRetrievalRequestMessage.addReceiver(priceProposalAcceptMessage.getSupplier());
-        productRetrievalRequestMessage.setContent(request.getContent());
-        send(productRetrievalRequestMessage);
+        productRetrievalRequestMessage.addReceiver(supplier);
+        productRetrievalRequestMessage.setConversationId(request.getConversationId());
+        MessageCodecs.copyContent(request, productRetrievalRequestMessage);
+        post(productRetrievalRequestMessage);
+    }
+
+    /**
+     *  A basket accept holds one offer per bought unit, possibly from several suppliers. Every supplier
+     *  gets a single ACCEPT_PROPOSAL with all the units it sells.
+     * **/
+    private void handleAcceptedBasketProposal(ACLMessage request, List<PriceInformation> acceptedOffers) throws IOException {
+        Map<AID, List<PriceInformation>> acceptedOffersBySupplier = new LinkedHashMap<>();
+        for (PriceInformation offer : acceptedOffers) {
+            journal(TradeJournal.ACCEPT, request.getConversationId(), request.getSender(), offer.getSupplier(), offer.getType(), 1, offer.getPrice());
+            recordTrade(offer);
+            acceptedOffersBySupplier.computeIfAbsent(offer.getSupplier(), aid -> new ArrayList<>()).add(offer);
+        }
+
+        for (Map.Entry<AID, List<PriceInformation>> supplierOffers : acceptedOffersBySupplier.entrySet()) {
+            ACLMessage productRetrievalRequestMessage = new ACLMessage(ACLMessage.ACCEPT_PROPOSAL);
+            productRetrievalRequestMessage.addReceiver(supplierOffers.getKey());
+            productRetrievalRequestMessage.setConversationId(request.getConversationId());
+            productRetrievalRequestMessage.setOntology(MarketOntology.BASKET);
+            MessageCodecs.encode(supplierOffers.getValue(), productRetrievalRequestMessage);
+            post(productRetrievalRequestMessage);
+        }
     }
 
-    private void handleDeliveryUnitFromSupplier(ACLMessage message) throws IOException, ClassNotFoundException {
-        System.out.println("Broker " + getLocalName() + " received delivery unit from supplier " + message.getSender().getLocalName());
-        ComponentDeliveryUnit deliveryUnitMessage = Base64Serializer.deserialize(message.getContent());
+    private void recordQuote(PriceInformation quote, long now) {
+        if (quote.getType() != null && quote.getPrice() != null) {
+            priceHistory.recordQuote(quote.getType(), quote.getPrice(), now);
+        }
+    }
+
+    private void recordTrade(PriceInformation offer) {
+        if (offer.getType() != null && offer.getPrice() != null) {
+            recordTrade(offer.getType(), 1, offer.getPrice(), System.currentTimeMillis());
+        }
+    }
+
+    private void recordTrade(CarComponentType type, int quantity, double price, long now) {
+        marketData.recordTrade(type, quantity, price, now);
+        priceHistory.recordTrade(type, quantity, price, now);
+    }
+
+    private void recordReceiptTrades(ACLMessage message) {
+        String receipt = message.getUserDefinedParameter(MarketOntology.RECEIPT_PARAMETER);
+        if (receipt == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        for (TradeReceipt line : TradeReceipt.parse(receipt)) {
+            recordTrade(line.type(), line.quantity(), line.price(), now);
+        }
+    }
+
+    private void handleDeliveryUnitFromSupplier(ACLMessage message, List<ComponentDeliveryUnit> deliveryUnits) throws IOException {
+        if (verbose) {
+            System.out.println("Broker " + getLocalName() + " received delivery unit from supplier " + message.getSender().getLocalName());
+        }
+        if (deliveryUnits.isEmpty()) {
+            AID consumer = new AID(message.getUserDefinedParameter(MarketOntology.CONSUMER_PARAMETER), AID.ISGUID);
+            journalReceipt(TradeJournal.DELIVERY, message, consumer, message.getSender());
+            forwardDeliveryToConsumer(message, consumer);
+            return;
+        }
+        for (ComponentDeliveryUnit deliveryUnit : deliveryUnits) {
+            journal(TradeJournal.DELIVERY, message.getConversationId(), deliveryUnit.getDestination(), deliveryUnit.getSource(),
+                    deliveryUnit.getComponent().type(), 1, deliveryUnit.getComponent().price());
+        }
+        forwardDeliveryToConsumer(message, deliveryUnits.get(0).getDestination());
+    }
+
+    /**
+     *  A supplier started with directDelivery sends the components straight to the consumer and only tells
+     *  the broker what it delivered, so that the trade still settles in the broker's journal.
+     * **/
+    private void handleDeliveryReceipt(ACLMessage message) throws IOException {
+        AID consumer = new AID(message.getUserDefinedParameter(MarketOntology.CONSUMER_PARAMETER), AID.ISGUID);
+        journalReceipt(TradeJournal.DELIVERY, message, consumer, message.getSender());
+        if (verbose) {
+            System.out.println("Broker " + getLocalName() + " got a receipt for the delivery of order " + message.getConversationId() + " from supplier " + message.getSender().getLocalName() + " to consumer " + consumer.getLocalName());
+        }
+    }
+
+    private void journalReceipt(byte kind, ACLMessage message, AID consumer, AID supplier) throws IOException {
+        String receipt = message.getUserDefinedParameter(MarketOntology.RECEIPT_PARAMETER);
+        if (journal == null || receipt == null) {
+            return;
+        }
+        for (TradeReceipt line : TradeReceipt.parse(receipt)) {
+            journal(kind, message.getConversationId(), consumer, supplier, line.type(), line.quantity(), line.price());
+        }
+    }
+
+    /**
+     *  The registry keeps the suppliers in subscription order, which the fan-out and the checkpoint log
+     *  follow, and indexes them by name, so that a repeated SUBSCRIBE is recognised without a scan.
+     * **/
+    private boolean registerSupplier(AID supplier) {
+        if (suppliersByName.putIfAbsent(supplier.getName(), supplier) != null) {
+            return false;
+        }
+        suppliers.add(supplier);
+        return true;
+    }
+
+    private boolean isRegisteredSupplier(AID supplier) {
+        return suppliersByName.containsKey(supplier.getName());
+    }
+
+    private AID findSupplier(String name) {
+        AID supplier = suppliersByName.get(name);
+        return supplier != null ? supplier : new AID(name, AID.ISGUID);
+    }
+
+    /**
+     *  A supplier that could not deliver some accepted units reports them back as a FAILURE. The broker
+     *  stops asking it for these types until it quotes them again and passes the report on to the consumer.
+     * **/
+    private void handleSupplierStockOut(ACLMessage message, List<PriceInformation> unfilledOffers) throws IOException {
+        if (verbose) {
+            System.out.println("Broker " + getLocalName() + " got a stock-out report from supplier " + message.getSender().getLocalName() + " for " + unfilledOffers.size() + " accepted units");
+        }
+        if (unfilledOffers.isEmpty()) {
+            // The consumer is only known from the unfilled offers, so an empty report cannot be passed on.
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        for (PriceInformation offer : unfilledOffers) {
+            quoteCache.update(new PriceInformation(message.getSender(), null, offer.getType()), now);
+            journal(TradeJournal.STOCK_OUT, message.getConversationId(), offer.getDestinationAid(), message.getSender(), offer.getType(), 1, offer.getPrice());
+        }
+
+        AID consumer = unfilledOffers.get(0).getDestinationAid();
+        message.removeReceiver(this.getAID());
+        message.addReceiver(consumer);
+        post(message);
+    }
 
+    private void forwardDeliveryToConsumer(ACLMessage message, AID consumer) {
         message.removeReceiver(this.getAID());
-        message.addReceiver(deliveryUnitMessage.getDestination());
+        message.addReceiver(consumer);
         message.setPerformative(ACLMessage.AGREE);
-        send(message);
-        System.out.println("Broker " + getLocalName() + " sent delivery unit from supplier " + message.getSender().getLocalName() + " to consumer " + deliveryUnitMessage.getDestination().getLocalName());
+        post(message);
+        if (verbose) {
+            System.out.println("Broker " + getLocalName() + " sent delivery unit from supplier " + message.getSender().getLocalName() + " to consumer " + consumer.getLocalName());
+        }
     }
 
     private void handleUnknownRequestMessage(ACLMessage request) {
         System.out.println("Broker " + getLocalName() + " got an unknown message from " + request.getSender().getLocalName() + " with performative " + ACLMessage.getPerformative(request.getPerformative()));
         ACLMessage response = new ACLMessage(ACLMessage.NOT_UNDERSTOOD);
         response.addReceiver(request.getSender());
-        send(response);
+        post(response);
+    }
+
+    /**
+     *  Decodes and checks the content of a message without touching the broker's state, so that it can run
+     *  on a worker thread. Every kind of message decodes to a list, with a single element for messages that
+     *  are not about a basket. Deliveries and single accepts that name their destination in the envelope
+     *  are forwarded as they came and decode to an empty list, as do delivery receipts, which have no content.
+     * **/
+    static List<?> decodeContent(ACLMessage message) throws IOException, ClassNotFoundException {
+        boolean list = MarketOntology.BASKET.equals(message.getOntology()) || MarketOntology.QUOTE_UPDATE.equals(message.getOntology());
+        if (isRoutedByEnvelope(message)) {
+            return List.of();
+        }
+        if (MarketOntology.ORDER.equals(message.getOntology()) && message.getPerformative() == ACLMessage.CFP) {
+            return List.of(MessageCodecs.<LimitOrder>decode(message));
+        }
+        return switch (message.getPerformative()) {
+            case ACLMessage.CFP -> list ? MessageCodecs.<List<BasketLine>>decode(message)
+                    : List.of(new BasketLine(CarComponentType.valueOf(message.getContent()), 1));
+            case ACLMessage.PROPOSE -> MessageCodecs.<List<?>>decode(message);
+            case ACLMessage.INFORM, ACLMessage.ACCEPT_PROPOSAL, ACLMessage.AGREE -> list ? MessageCodecs.<List<?>>decode(message)
+                    : List.of(MessageCodecs.<Object>decode(message));
+            case ACLMessage.FAILURE -> MessageCodecs.<List<?>>decode(message);
+            default -> List.of();
+        };
+    }
+
+    private static boolean isRoutedByEnvelope(ACLMessage message) {
+        return switch (message.getPerformative()) {
+            case ACLMessage.AGREE -> message.getUserDefinedParameter(MarketOntology.CONSUMER_PARAMETER) != null;
+            case ACLMessage.ACCEPT_PROPOSAL -> !MarketOntology.BASKET.equals(message.getOntology())
+                    && message.getUserDefinedParameter(MarketOntology.SUPPLIER_PARAMETER) != null;
+            case ACLMessage.INFORM -> MarketOntology.DELIVERY_RECEIPT.equals(message.getOntology());
+            default -> false;
+        };
     }
 
-    private void handleRequest(ACLMessage request) throws IOException, ClassNotFoundException {
+    @SuppressWarnings("unchecked")
+    private void handleDecodedRequest(ACLMessage request, List<?> content) throws IOException {
+        metrics.countMessage(request.getPerformative());
         switch (request.getPerformative()) {
-            case ACLMessage.SUBSCRIBE -> handleSupplierSubscriptionRequest(request);
-            case ACLMessage.CFP -> handleConsumerPriceRequest(request);
-            case ACLMessage.INFORM -> handleSupplierPriceInform(request);
-            case ACLMessage.ACCEPT_PROPOSAL -> handleAcceptedPriceProposal(request);
-            case ACLMessage.AGREE -> handleDeliveryUnitFromSupplier(request);
+            case ACLMessage.SUBSCRIBE -> {
+                if (MarketOntology.MARKET_DATA.equals(request.getOntology())) {
+                    handleMarketDataSubscription(request);
+                } else {
+                    handleSupplierSubscriptionRequest(request);
+                }
+            }
+            case ACLMessage.QUERY_REF -> {
+                if (MarketOntology.PRICE_HISTORY.equals(request.getOntology())) {
+                    handlePriceHistoryQuery(request);
+                } else {
+                    handleUnknownRequestMessage(request);
+                }
+            }
+            case ACLMessage.CANCEL -> {
+                if (MarketOntology.MARKET_DATA.equals(request.getOntology())) {
+                    handleMarketDataCancellation(request);
+                } else {
+                    handleUnknownRequestMessage(request);
+                }
+            }
+            case ACLMessage.CFP -> {
+                if (MarketOntology.ORDER.equals(request.getOntology())) {
+                    handleBid(request, (LimitOrder) content.get(0));
+                } else {
+                    handleConsumerPriceRequest(request, (List<BasketLine>) content);
+                }
+            }
+            case ACLMessage.PROPOSE -> handleSupplierAsks(request, (List<LimitOrder>) content);
+            case ACLMessage.INFORM -> handleSupplierInform(request, (List<PriceInformation>) content);
+            case ACLMessage.ACCEPT_PROPOSAL -> handleAcceptedPriceProposal(request, (List<PriceInformation>) content);
+            case ACLMessage.AGREE -> handleDeliveryUnitFromSupplier(request, (List<ComponentDeliveryUnit>) content);
+            case ACLMessage.FAILURE -> handleSupplierStockOut(request, (List<PriceInformation>) content);
             default -> handleUnknownRequestMessage(request);
         }
     }
 
+    void handleRequest(ACLMessage request) throws IOException, ClassNotFoundException {
+        handleDecodedRequest(request, decodeContent(request));
+        flushOutbox();
+    }
+
+    /**
+     *  Replies and forwards are collected while the broker works through its queues and sent together at the
+     *  end of each pass of the request handling behaviour, or of the RFQ deadline timer.
+     * **/
+    private void post(ACLMessage message) {
+        outbox.add(message);
+    }
+
+    private void flushOutbox() {
+        for (ACLMessage message : outbox) {
+            send(message);
+        }
+        outbox.clear();
+    }
+
+    /**
+     *  Runs the work on the lane of the given peer. The work returns what has to be done with its result on
+     *  the agent thread, which is queued there and run by the request handling behaviour.
+     * **/
+    private void runOnWorker(AID peer, Callable<Runnable> work) {
+        dispatchPool.execute(peer, () -> {
+            Runnable completion;
+            try {
+                completion = work.call();
+            } catch (Exception e) {
+                completion = () -> {
+                    e.printStackTrace();
+                    throw new RuntimeException(e);
+                };
+            }
+            try {
+                putO2AObject(completion, AgentController.ASYNC);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+    }
+
+    private void dispatchToWorker(ACLMessage message) {
+        ++dispatchesInFlight;
+        runOnWorker(message.getSender(), () -> {
+            List<?> content = decodeContent(message);
+            return () -> {
+                --dispatchesInFlight;
+                try {
+                    handleDecodedRequest(message, content);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    throw new RuntimeException(e);
+                }
+            };
+        });
+    }
+
+    /**
+     *  Moves up to a batch of messages from the JADE mailbox into the broker's own queues. Supplier traffic
+     *  goes to the priority queue so that quotes and deliveries are never stuck behind new price requests.
+     *  Price requests go through admission control first, and the ones that are turned away are refused
+     *  right here with a retry-after hint instead of waiting in line.
+     * **/
+    private int drainMailbox() {
+        for (int drained = 0; drained < mailboxDrainBatch; ++drained) {
+            ACLMessage message = receive();
+            if (message == null) {
+                return drained;
+            }
+            if (capture != null) {
+                captureMessage(message);
+            }
+            if (getDefaultDF().equals(message.getSender())) {
+                continue;
+            }
+            if (getAMS().equals(message.getSender())) {
+                // The AMS reports messages it could not deliver, for instance to a consumer that has left.
+                if (verbose) {
+                    System.out.println("Broker " + getLocalName() + " could not deliver a message of conversation " + message.getConversationId() + ": " + message.getContent());
+                }
+                // A market data subscriber that is gone stops being published to.
+                marketData.unsubscribeConversation(message.getConversationId());
+                continue;
+            }
+
+            if (message.getPerformative() != ACLMessage.CFP) {
+                priorityMessages.add(message);
+                continue;
+            }
+
+            int queueDepth = getCurQueueSize() + admittedPriceRequests.size();
+            long retryAfterMillis = admissionController.admit(message.getSender(), queueDepth, System.currentTimeMillis());
+            if (retryAfterMillis == 0) {
+                admittedPriceRequests.add(message);
+            } else {
+                refuseConsumerPriceRequest(message, "broker-overloaded", retryAfterMillis);
+            }
+        }
+        return mailboxDrainBatch;
+    }
+
+    private ACLMessage pollNextMessage() {
+        return !priorityMessages.isEmpty() ? priorityMessages.poll() : admittedPriceRequests.poll();
+    }
+
+    private boolean handleNextMessage() {
+        ACLMessage message = pollNextMessage();
+        if (message == null) {
+            return false;
+        }
+        try {
+            handleRequest(message);
+        } catch (IOException | ClassNotFoundException e) {
+            e.printStackTrace();
+            throw new RuntimeException(e);
+        }
+        return true;
+    }
+
+    /**
+     *  Applies the messages the workers have decoded, in the order they were done, and hands the workers new
+     *  messages from the queues while fewer than dispatchWindow are out with them.
+     * **/
+    private boolean dispatchMessages() {
+        boolean busy = false;
+        Object completion;
+        while ((completion = getO2AObject()) != null) {
+            ((Runnable) completion).run();
+            busy = true;
+        }
+        ACLMessage message;
+        while (dispatchesInFlight < dispatchWindow && (message = pollNextMessage()) != null) {
+            dispatchToWorker(message);
+            busy = true;
+        }
+        return busy;
+    }
+
     private Behaviour createRequestHandlingBehaviour() {
         return new CyclicBehaviour() {
             @Override
             public void action() {
-                ACLMessage message = myAgent.receive();
-                if (message != null) {
-                    try {
-                        handleRequest(message);
-                    } catch (IOException | ClassNotFoundException e) {
-                        e.printStackTrace();
-                        throw new RuntimeException(e);
-                    }
-                } else {
+                boolean busy = drainMailbox() > 0;
+                busy |= dispatchPool == null ? handleNextMessage() : dispatchMessages();
+                flushOutbox();
+                if (!busy) {
                     block();
                 }
             }
@@ -156,6 +1199,27 @@ public class BrokerAgent extends Agent {
         } catch (FIPAException fe) {
             fe.printStackTrace();
         }
+        metrics.unregisterMBean();
+        if (dispatchPool != null) {
+            dispatchPool.shutdown();
+        }
+        if (checkpoint != null) {
+            try {
+                checkpoint.checkpoint(this);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        if (capture != null) {
+            closeCapture();
+        }
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
 
         System.out.println("Broker " + getAID().getName() + " has terminated.");
     }
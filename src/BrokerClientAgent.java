@@ -1,15 +1,64 @@
 import jade.core.AID;
 import jade.core.Agent;
+import jade.domain.DFService;
+import jade.domain.FIPAAgentManagement.DFAgentDescription;
+import jade.domain.FIPAException;
 import jade.lang.acl.ACLMessage;
 
 import java.io.IOException;
 
 public abstract class BrokerClientAgent extends Agent {
-    protected AID[] brokerAgents;
+    protected BrokerDirectory brokerDirectory = new BrokerDirectory();
+    private ACLMessage brokerSubscription;
 
-    public void setBrokerAgents(AID[] brokerAgents) {
-        this.brokerAgents = brokerAgents;
+    public void setBrokerDirectory(BrokerDirectory brokerDirectory) {
+        this.brokerDirectory = brokerDirectory;
+    }
+
+    public void subscribeToBrokers(DFAgentDescription template) {
+        brokerSubscription = DFService.createSubscriptionMessage(this, getDefaultDF(), template, null);
+        send(brokerSubscription);
+    }
+
+    /**
+     *  The DF keeps a subscription, and notifies it, until it is cancelled, even once the subscriber has left
+     *  the platform. Clients therefore cancel theirs when they terminate, or every consumer that comes and
+     *  goes would stay in the DF for good.
+     * **/
+    protected void cancelBrokerSubscription() {
+        if (brokerSubscription != null) {
+            send(DFService.createCancelMessage(this, getDefaultDF(), brokerSubscription));
+            brokerSubscription = null;
+        }
     }
 
     protected abstract void handleRequest(ACLMessage request) throws IOException, ClassNotFoundException;
+
+    /**
+     *  Applies a DF notification of the brokership subscription to the broker directory: brokers that
+     *  registered or advertised a new load are updated, brokers that deregistered are dropped, so the next
+     *  requests fail over to the remaining ones.
+     * **/
+    protected void handleBrokerNotification(ACLMessage notification) {
+        if (notification.getPerformative() != ACLMessage.INFORM) {
+            return;
+        }
+        try {
+            for (DFAgentDescription description : DFService.decodeNotification(notification.getContent())) {
+                AID broker = description.getName();
+                boolean known = brokerDirectory.getBrokers().contains(broker);
+                if (brokerDirectory.updateBroker(description)) {
+                    System.out.println("Agent " + getLocalName() + " found the new broker " + broker.getLocalName());
+                    onBrokerJoined(broker);
+                } else if (known && !brokerDirectory.getBrokers().contains(broker)) {
+                    System.out.println("Agent " + getLocalName() + " lost the broker " + broker.getLocalName() + " and fails over to " + brokerDirectory.getBrokers().stream().map(AID::getLocalName).toList());
+                }
+            }
+        } catch (FIPAException fe) {
+            fe.printStackTrace();
+        }
+    }
+
+    protected void onBrokerJoined(AID broker) {
+    }
 }
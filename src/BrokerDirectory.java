@@ -0,0 +1,185 @@
+import jade.core.AID;
+import jade.domain.FIPAAgentManagement.DFAgentDescription;
+import jade.domain.FIPAAgentManagement.Property;
+import jade.domain.FIPAAgentManagement.ServiceDescription;
+import jade.util.leap.Iterator;
+
+import java.util.*;
+
+/**
+ *  Which broker serves which component types, as advertised in the yellow pages. A broker lists the types
+ *  it owns in the component-types property of its brokership service; a broker without that property is
+ *  an unsharded broker and serves every type. Brokers also advertise their load, and the directory is
+ *  kept up to date by the DF notifications of the client's brokership subscription.
+ *
+ *  When several brokers serve a type, a request goes to the less loaded of two of them picked at random.
+ *  Advertised loads lag behind, and always picking the least loaded broker would send every client to the
+ *  same one until its next advertisement; two random choices keep most of the benefit without the herding.
+ * **/
+public class BrokerDirectory {
+    private final List<AID> brokers;
+    private final Map<CarComponentType, List<AID>> brokersByType;
+    private final Map<AID, Integer> loads;
+    private final SplittableRandom random;
+
+    public BrokerDirectory() {
+        this.brokers = new ArrayList<>();
+        this.brokersByType = new EnumMap<>(CarComponentType.class);
+        for (CarComponentType type : CarComponentType.values()) {
+            brokersByType.put(type, new ArrayList<>());
+        }
+        this.loads = new HashMap<>();
+        this.random = new SplittableRandom();
+    }
+
+    public static BrokerDirectory fromSearchResult(DFAgentDescription[] result) {
+        BrokerDirectory directory = new BrokerDirectory();
+        for (DFAgentDescription description : result) {
+            directory.updateBroker(description);
+        }
+        return directory;
+    }
+
+    /**
+     *  Builds the directory of a known set of brokers without asking the yellow pages, for clients started
+     *  by a MarketLauncher. A single broker serves every type, and the brokers of a larger group split the
+     *  types between them the way BrokerAgent does for its shardGroup argument.
+     * **/
+    public static BrokerDirectory fromShardGroup(String shardGroup, int replicas) {
+        BrokerDirectory directory = new BrokerDirectory();
+        String[] brokerNames = shardGroup.split("[,|]");
+        for (String brokerName : brokerNames) {
+            AID broker = new AID(brokerName.trim(), AID.ISLOCALNAME);
+            directory.addBroker(broker, brokerNames.length == 1 ? EnumSet.allOf(CarComponentType.class) : getOwnedTypes(brokerName.trim(), shardGroup, replicas));
+        }
+        return directory;
+    }
+
+    /**
+     *  The component types a broker of a shard group owns: every broker name goes on a consistent hash ring,
+     *  and a type belongs to the replicas brokers that follow it on the ring.
+     * **/
+    public static Set<CarComponentType> getOwnedTypes(String brokerName, String shardGroup, int replicas) {
+        ConsistentHashRing<String> ring = new ConsistentHashRing<>(64);
+        for (String name : shardGroup.split("[,|]")) {
+            ring.add(name.trim(), name.trim());
+        }
+        Set<CarComponentType> ownedTypes = EnumSet.allOf(CarComponentType.class);
+        ownedTypes.removeIf(type -> !ring.ownersOf(type.name(), replicas).contains(brokerName));
+        return ownedTypes;
+    }
+
+    private static ServiceDescription findBrokershipService(DFAgentDescription description) {
+        Iterator services = description.getAllServices();
+        while (services.hasNext()) {
+            ServiceDescription service = (ServiceDescription) services.next();
+            if (MarketOntology.BROKERSHIP_SERVICE_TYPE.equals(service.getType())) {
+                return service;
+            }
+        }
+        return null;
+    }
+
+    private static String findProperty(ServiceDescription service, String name) {
+        Iterator properties = service.getAllProperties();
+        while (properties.hasNext()) {
+            Property property = (Property) properties.next();
+            if (name.equals(property.getName())) {
+                return String.valueOf(property.getValue()).replace("\"", "");
+            }
+        }
+        return null;
+    }
+
+    public static List<CarComponentType> parseComponentTypes(String componentTypes) {
+        List<CarComponentType> types = new ArrayList<>();
+        for (String type : componentTypes.replace("\"", "").split(",")) {
+            if (!type.isBlank()) {
+                types.add(CarComponentType.valueOf(type.trim()));
+            }
+        }
+        return types;
+    }
+
+    public static String formatComponentTypes(Collection<CarComponentType> componentTypes) {
+        StringJoiner joiner = new StringJoiner(",");
+        componentTypes.forEach(type -> joiner.add(type.name()));
+        return joiner.toString();
+    }
+
+    /**
+     *  Adds a broker from its yellow pages description, or updates its types and load if it is already
+     *  known. A description without the brokership service means that the broker left. Returns true if
+     *  the broker was not known before.
+     * **/
+    public boolean updateBroker(DFAgentDescription description) {
+        ServiceDescription service = findBrokershipService(description);
+        if (service == null) {
+            removeBroker(description.getName());
+            return false;
+        }
+
+        String componentTypes = findProperty(service, MarketOntology.COMPONENT_TYPES_PROPERTY);
+        String load = findProperty(service, MarketOntology.LOAD_PROPERTY);
+        boolean added = !brokers.contains(description.getName());
+        removeBroker(description.getName());
+        addBroker(description.getName(), componentTypes == null ? EnumSet.allOf(CarComponentType.class) : parseComponentTypes(componentTypes));
+        loads.put(description.getName(), load == null ? 0 : Integer.parseInt(load));
+        return added;
+    }
+
+    public void addBroker(AID broker, Collection<CarComponentType> ownedTypes) {
+        brokers.add(broker);
+        ownedTypes.forEach(type -> brokersByType.get(type).add(broker));
+    }
+
+    public boolean removeBroker(AID broker) {
+        brokersByType.values().forEach(owners -> owners.remove(broker));
+        loads.remove(broker);
+        return brokers.remove(broker);
+    }
+
+    public List<AID> getBrokers() {
+        return brokers;
+    }
+
+    public boolean isEmpty() {
+        return brokers.isEmpty();
+    }
+
+    public int getLoad(AID broker) {
+        return loads.getOrDefault(broker, 0);
+    }
+
+    public List<AID> getOwnersOf(CarComponentType type) {
+        return brokersByType.get(type);
+    }
+
+    public AID getBrokerFor(CarComponentType type) {
+        List<AID> owners = brokersByType.get(type);
+        if (owners.size() <= 1) {
+            return owners.isEmpty() ? null : owners.get(0);
+        }
+
+        int first = random.nextInt(owners.size());
+        int second = random.nextInt(owners.size() - 1);
+        if (second >= first) {
+            ++second;
+        }
+        return getLoad(owners.get(first)) <= getLoad(owners.get(second)) ? owners.get(first) : owners.get(second);
+    }
+
+    /**
+     *  Every broker that serves at least one of the types, which is where a supplier of these types has
+     *  to register and push its quotes.
+     * **/
+    public Set<AID> getBrokersFor(Collection<CarComponentType> types) {
+        Set<AID> owners = new LinkedHashSet<>();
+        types.forEach(type -> owners.addAll(brokersByType.get(type)));
+        return owners;
+    }
+
+    public boolean isServedBy(CarComponentType type, AID broker) {
+        return brokersByType.get(type).contains(broker);
+    }
+}
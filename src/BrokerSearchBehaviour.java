@@ -1,12 +1,15 @@
-import jade.core.AID;
 import jade.core.behaviours.WakerBehaviour;
 import jade.domain.DFService;
 import jade.domain.FIPAAgentManagement.DFAgentDescription;
 import jade.domain.FIPAAgentManagement.ServiceDescription;
 import jade.domain.FIPAException;
 
-import java.util.stream.Stream;
-
+/**
+ *  Looks the brokers up in the yellow pages once the platform had the time to start them, or takes them from
+ *  the brokers argument when the agent was started knowing them, and then subscribes to the brokership
+ *  service so that the DF notifies the client of every broker that registers, deregisters or advertises a
+ *  new load. The notifications are handled by the client's RequestHandlingBehaviour.
+ * **/
 public class BrokerSearchBehaviour extends WakerBehaviour {
 
     public BrokerSearchBehaviour(BrokerClientAgent a, long timeout) {
@@ -17,19 +20,18 @@ public class BrokerSearchBehaviour extends WakerBehaviour {
     protected void onWake() {
         DFAgentDescription template = new DFAgentDescription();
         ServiceDescription serviceDescription = new ServiceDescription();
-        serviceDescription.setType("car-components-trading-brokership");
+        serviceDescription.setType(MarketOntology.BROKERSHIP_SERVICE_TYPE);
         template.addServices(serviceDescription);
+        AgentArguments arguments = AgentArguments.of(myAgent);
+        String brokers = arguments.getString("brokers", "");
         try {
-            DFAgentDescription[] result = DFService.search(myAgent, template);
-            AID[] brokerAgents = new AID[result.length];
-            for (int i = 0; i < result.length; ++i) {
-                brokerAgents[i] = result[i].getName();
-            }
-            ((BrokerClientAgent) myAgent).setBrokerAgents(brokerAgents);
-            System.out.println("Agents detected by " + myAgent.getLocalName() + ":");
-            Stream.of(brokerAgents).forEach(System.out::println);
+            BrokerDirectory brokerDirectory = brokers.isBlank() ? BrokerDirectory.fromSearchResult(DFService.search(myAgent, template))
+                    : BrokerDirectory.fromShardGroup(brokers, arguments.getInt("shardReplicas", 1));
+            ((BrokerClientAgent) myAgent).setBrokerDirectory(brokerDirectory);
+            System.out.println("Brokers detected by " + myAgent.getLocalName() + ": " + brokerDirectory.getBrokers().stream().map(aid -> aid.getLocalName()).toList());
         } catch (FIPAException fe) {
             fe.printStackTrace();
         }
+        ((BrokerClientAgent) myAgent).subscribeToBrokers(template);
     }
 }
@@ -1,3 +1,6 @@
+import java.util.HashMap;
+import java.util.Map;
+
 public enum CarComponentType {
     ROTOR,
     BELT_TENSIONER,
@@ -10,5 +13,25 @@ public enum CarComponentType {
     WATER_PUMP,
     THERMOSTAT,
     INTAKE_MANIFOLD,
-    OIL_FILTER
+    OIL_FILTER;
+
+    /**
+     *  The component types the suppliers trade, with the price each is quoted around. Kept here rather than
+     *  on SupplierAgent so that the offline tools can use it without JADE on the classpath.
+     * **/
+    public static Map<CarComponentType, Double> initializeReferencePrices() {
+        Map<CarComponentType, Double> prices = new HashMap<>();
+        prices.put(CAMSHAFT, 60.0);
+        prices.put(CLUTCH_PLATE, 80.0);
+        prices.put(ALTERNATOR, 250.0);
+        return prices;
+    }
+
+    public static Map<CarComponentType, Integer> initializeStock(int unitsPerType) {
+        Map<CarComponentType, Integer> stock = new HashMap<>();
+        stock.put(CAMSHAFT, unitsPerType);
+        stock.put(CLUTCH_PLATE, unitsPerType);
+        stock.put(ALTERNATOR, unitsPerType);
+        return stock;
+    }
 }
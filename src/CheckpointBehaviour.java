@@ -0,0 +1,26 @@
+import jade.core.Agent;
+import jade.core.behaviours.TickerBehaviour;
+
+import java.io.IOException;
+
+public class CheckpointBehaviour extends TickerBehaviour {
+    private final AgentCheckpoint checkpoint;
+    private final Checkpointable state;
+
+    public CheckpointBehaviour(Agent agent, AgentCheckpoint checkpoint, Checkpointable state, long period) {
+        super(agent, period);
+        this.checkpoint = checkpoint;
+        this.state = state;
+    }
+
+    @Override
+    protected void onTick() {
+        try {
+            checkpoint.checkpoint(state);
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.out.println("Agent " + myAgent.getLocalName() + " stops writing checkpoints.");
+            stop();
+        }
+    }
+}
@@ -0,0 +1,7 @@
+/**
+ *  State of an agent that an AgentCheckpoint can save. The snapshot is written in full on every checkpoint,
+ *  the log only receives what was added since the previous one.
+ * **/
+public interface Checkpointable {
+    void writeCheckpoint(BinaryWriter snapshot, BinaryWriter log);
+}
@@ -0,0 +1,39 @@
+import java.util.Arrays;
+import java.util.List;
+import java.util.random.RandomGenerator;
+
+/**
+ *  Picks component types with a Zipf-like skew: the i-th type of the list is drawn with a weight of
+ *  1 / (i + 1)^skew. A skew of zero gives a uniform mix, and the larger the skew, the more the first types
+ *  of the list dominate.
+ * **/
+public class ComponentTypeMix {
+    private final CarComponentType[] types;
+    private final double[] cumulativeWeights;
+
+    public ComponentTypeMix(List<CarComponentType> types, double skew) {
+        this.types = types.toArray(new CarComponentType[0]);
+        this.cumulativeWeights = new double[this.types.length];
+        double total = 0.0;
+        for (int i = 0; i < this.types.length; ++i) {
+            total += 1.0 / Math.pow(i + 1, skew);
+            cumulativeWeights[i] = total;
+        }
+        for (int i = 0; i < cumulativeWeights.length; ++i) {
+            cumulativeWeights[i] /= total;
+        }
+    }
+
+    public CarComponentType next(RandomGenerator random) {
+        int index = Arrays.binarySearch(cumulativeWeights, random.nextDouble());
+        return types[Math.min(index >= 0 ? index : -index - 1, types.length - 1)];
+    }
+
+    public double getShare(int index) {
+        return cumulativeWeights[index] - (index > 0 ? cumulativeWeights[index - 1] : 0.0);
+    }
+
+    public CarComponentType[] getTypes() {
+        return types;
+    }
+}
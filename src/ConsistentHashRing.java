@@ -0,0 +1,75 @@
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ *  Consistent-hash ring that assigns keys to nodes. Every node is placed on the ring many times under
+ *  virtual keys, so keys spread evenly and adding or removing a node only moves the keys next to its
+ *  positions. The hash is a fixed FNV-1a variant, so every agent that builds a ring from the same node
+ *  keys computes the same assignment.
+ * **/
+public class ConsistentHashRing<T> {
+    private final int virtualNodesPerNode;
+    private final TreeMap<Long, T> ring;
+
+    public ConsistentHashRing(int virtualNodesPerNode) {
+        this.virtualNodesPerNode = virtualNodesPerNode;
+        this.ring = new TreeMap<>();
+    }
+
+    public void add(T node, String nodeKey) {
+        for (int i = 0; i < virtualNodesPerNode; ++i) {
+            ring.put(hash(nodeKey + "#" + i), node);
+        }
+    }
+
+    public boolean isEmpty() {
+        return ring.isEmpty();
+    }
+
+    public T ownerOf(String key) {
+        List<T> owners = ownersOf(key, 1);
+        return owners.isEmpty() ? null : owners.get(0);
+    }
+
+    /**
+     *  Returns up to count distinct nodes found walking the ring clockwise from the key, primary owner first.
+     * **/
+    public List<T> ownersOf(String key, int count) {
+        List<T> owners = new ArrayList<>(count);
+        if (ring.isEmpty()) {
+            return owners;
+        }
+
+        long keyHash = hash(key);
+        for (T node : ring.tailMap(keyHash, true).values()) {
+            if (owners.size() == count) {
+                return owners;
+            }
+            if (!owners.contains(node)) {
+                owners.add(node);
+            }
+        }
+        for (T node : ring.headMap(keyHash, false).values()) {
+            if (owners.size() == count) {
+                return owners;
+            }
+            if (!owners.contains(node)) {
+                owners.add(node);
+            }
+        }
+        return owners;
+    }
+
+    private static long hash(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xFF;
+            hash *= 0x100000001b3L;
+        }
+        // FNV-1a alone clusters short, similar keys such as "broker-1#3", so the bits are mixed once more.
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
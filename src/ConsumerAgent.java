@@ -1,40 +1,283 @@
+import jade.core.AID;
 import jade.core.behaviours.*;
 import jade.lang.acl.ACLMessage;
-import jade.lang.acl.MessageTemplate;
 
 import java.io.*;
+import java.nio.file.Path;
 import java.util.*;
 
-public class ConsumerAgent extends BrokerClientAgent {
+public class ConsumerAgent extends BrokerClientAgent implements Checkpointable {
     private String[] buyableComponents;
     private Double balance;
-    private List<CarComponent> ownedCarComponents;
+    private int[] ownedComponentCounts;
+    private double[] ownedComponentValues;
+    private long priceRequestCounter;
+    private long nextPriceRequestTime;
+    private Map<String, PurchaseOrder> openOrders;
+    private TimerWheel<PurchaseOrder> orderTimeouts;
+    private long orderTimeoutMillis;
+    private long requestPeriodMillis;
+    private int basketSize;
+    private int basketQuantity;
+    private boolean verbose;
+    private boolean orderBook;
+    private Map<CarComponentType, Double> referencePrices;
+    private double bidMarkup;
+    private long bidTtlMillis;
+    private boolean marketData;
+    private long marketDataIntervalMillis;
+    private Map<CarComponentType, MarketDataUpdate> marketPrices;
+    private Set<AID> marketDataBrokers;
+    private long skippedPriceRequestCount;
+    private boolean awaitingStart;
+    private MarketMetrics metrics;
+    private LatencyHistogram cfpToProposeLatency;
+    private LatencyHistogram proposeToAcceptLatency;
+    private LatencyHistogram acceptToDeliveryLatency;
+    private LatencyHistogram bidToFillLatency;
+    private AgentCheckpoint checkpoint;
 
     protected void setup() {
         System.out.println("Consumer agent " + getLocalName() + " has started...");
         this.balance = 10000.0;
-        this.buyableComponents = new String[]{CarComponentType.ALTERNATOR.name(),
-                                              CarComponentType.CAMSHAFT.name(),
-                                              CarComponentType.CLUTCH_PLATE.name()};
-        this.ownedCarComponents = new ArrayList<>();
+        this.buyableComponents = initializeBuyableComponents();
+        this.ownedComponentCounts = new int[CarComponentType.values().length];
+        this.ownedComponentValues = new double[CarComponentType.values().length];
+        this.priceRequestCounter = 0;
+        this.nextPriceRequestTime = 0;
+        this.openOrders = new HashMap<>();
+        AgentArguments arguments = AgentArguments.of(this);
+        this.orderTimeoutMillis = arguments.getLong("orderTimeout", 5000);
+        this.requestPeriodMillis = arguments.getLong("requestPeriod", 5000);
+        this.orderTimeouts = new TimerWheel<>(arguments.getLong("orderTimerTick", 100), 128, System.currentTimeMillis());
+        this.basketSize = Math.min(arguments.getInt("basketSize", 1), buyableComponents.length);
+        this.basketQuantity = arguments.getInt("basketQuantity", 1);
+        this.verbose = arguments.getBoolean("verbose", false);
+        this.orderBook = "orderbook".equals(arguments.getString("tradingMode", "rfq"));
+        this.referencePrices = CarComponentType.initializeReferencePrices();
+        this.bidMarkup = arguments.getDouble("bidMarkup", 1.2);
+        this.bidTtlMillis = arguments.getLong("bidTtl", 5000);
+        this.marketData = arguments.getBoolean("marketData", false);
+        this.marketDataIntervalMillis = arguments.getLong("marketDataInterval", 1000);
+        this.marketPrices = new EnumMap<>(CarComponentType.class);
+        this.marketDataBrokers = new LinkedHashSet<>();
+        this.awaitingStart = !arguments.getString("readiness", "").isBlank();
+        initializeCheckpoint(arguments);
+        initializeMetrics(arguments);
 
         ParallelBehaviour priceRequestAndRequestHandlerBehaviour = new ParallelBehaviour();
         priceRequestAndRequestHandlerBehaviour.addSubBehaviour(createConsumerPriceRequestAndRespondBehaviour());
         priceRequestAndRequestHandlerBehaviour.addSubBehaviour(createRequestHandler());
+        if (!awaitingStart) {
+            // Waiting for the barrier there are no orders to time out, so thousands of waiting consumers do not
+            // each wake up every tick.
+            priceRequestAndRequestHandlerBehaviour.addSubBehaviour(createOrderTimeoutBehaviour());
+        }
 
         SequentialBehaviour initializationBehaviour = new SequentialBehaviour();
-        initializationBehaviour.addSubBehaviour(createBrokerSearchBehaviour());
+        initializationBehaviour.addSubBehaviour(createBrokerSearchBehaviour(arguments.getLong("brokerSearchDelay", 2000)));
         initializationBehaviour.addSubBehaviour(priceRequestAndRequestHandlerBehaviour);
 
         addBehaviour(initializationBehaviour);
     }
 
+    /**
+     *  The consumer measures the legs it sees both ends of: from its CFP to the proposal, from the proposal
+     *  reaching its mailbox to its accept, and from its accept to the last delivered unit of the order.
+     * **/
+    private void initializeMetrics(AgentArguments arguments) {
+        this.metrics = new MarketMetrics("ConsumerAgent", getLocalName());
+        this.cfpToProposeLatency = metrics.histogram("cfp-to-propose");
+        this.proposeToAcceptLatency = metrics.histogram("propose-to-accept");
+        this.acceptToDeliveryLatency = metrics.histogram("accept-to-delivery");
+        this.bidToFillLatency = metrics.histogram("bid-to-fill");
+        metrics.gauge("open-orders", () -> openOrders.size());
+        metrics.gauge("owned-components", () -> getOwnedComponentCount());
+        metrics.gauge("skipped-price-requests", () -> skippedPriceRequestCount);
+        if (arguments.getBoolean("jmx", false)) {
+            metrics.registerMBean();
+        }
+        String metricsDirectory = arguments.getString("metrics", "");
+        if (!metricsDirectory.isBlank()) {
+            addBehaviour(new MetricsSnapshotBehaviour(this, metrics, Path.of(metricsDirectory), arguments.getLong("metricsPeriod", 10000)));
+        }
+    }
+
+    /**
+     *  Warm-starts the consumer from its latest checkpoint in the given directory, if it has one, and then
+     *  checkpoints it every checkpointPeriod milliseconds. The snapshot holds the balance, the request
+     *  counter and the number and value of the owned components of every type. Open orders do not
+     *  survive a restart, so the money paid for their undelivered units is checkpointed as refunded.
+     *  An empty directory turns checkpoints off.
+     * **/
+    private void initializeCheckpoint(AgentArguments arguments) {
+        String directory = arguments.getString("checkpoint", "");
+        if (directory.isBlank()) {
+            return;
+        }
+        try {
+            long start = System.nanoTime();
+            this.checkpoint = new AgentCheckpoint(Path.of(directory), getLocalName());
+            AgentCheckpoint.Contents contents = checkpoint.restore();
+            if (contents != null) {
+                restoreCheckpoint(contents);
+                System.out.println("Consumer " + getLocalName() + " warm-started from its checkpoint in " + (System.nanoTime() - start) / 1000 + " us with a balance of " + balance + " and " + getOwnedComponentCount() + " components");
+            }
+            addBehaviour(new CheckpointBehaviour(this, checkpoint, this, arguments.getLong("checkpointPeriod", 10000)));
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.out.println("Consumer " + getLocalName() + " could not restore its checkpoint from " + directory + " and runs without checkpoints.");
+            this.checkpoint = null;
+        }
+    }
+
+    public void writeCheckpoint(BinaryWriter snapshot, BinaryWriter log) {
+        double paidForUndeliveredUnits = 0.0;
+        for (PurchaseOrder order : openOrders.values()) {
+            if (order.getState() == PurchaseOrderState.ACCEPTED) {
+                paidForUndeliveredUnits += order.getUndeliveredAmount();
+            }
+        }
+        snapshot.writeDouble(balance + paidForUndeliveredUnits);
+        snapshot.writeLong(priceRequestCounter);
+        for (int i = 0; i < ownedComponentCounts.length; ++i) {
+            snapshot.writeVarInt(ownedComponentCounts[i]);
+            snapshot.writeDouble(ownedComponentValues[i]);
+        }
+    }
+
+    private void restoreCheckpoint(AgentCheckpoint.Contents contents) throws IOException {
+        double restoredBalance = contents.snapshot().readDouble();
+        long restoredPriceRequestCounter = contents.snapshot().readLong();
+        int[] restoredCounts = new int[ownedComponentCounts.length];
+        double[] restoredValues = new double[ownedComponentValues.length];
+        for (int i = 0; i < restoredCounts.length; ++i) {
+            restoredCounts[i] = contents.snapshot().readVarInt();
+            restoredValues[i] = contents.snapshot().readDouble();
+        }
+
+        this.balance = restoredBalance;
+        this.priceRequestCounter = restoredPriceRequestCounter;
+        this.ownedComponentCounts = restoredCounts;
+        this.ownedComponentValues = restoredValues;
+    }
+
+    /**
+     *  Holdings are kept as a count and a total value per component type rather than one record per
+     *  bought unit, so that a consumer trading for days keeps a constant footprint.
+     * **/
+    private void addOwnedComponent(CarComponent component) {
+        ++ownedComponentCounts[component.type().ordinal()];
+        ownedComponentValues[component.type().ordinal()] += component.price();
+    }
+
+    public int getOwnedComponentCount() {
+        int count = 0;
+        for (int ownedComponentCount : ownedComponentCounts) {
+            count += ownedComponentCount;
+        }
+        return count;
+    }
+
+    public static String[] initializeBuyableComponents() {
+        return new String[]{CarComponentType.ALTERNATOR.name(),
+                            CarComponentType.CAMSHAFT.name(),
+                            CarComponentType.CLUTCH_PLATE.name()};
+    }
+
+    public static Optional<PriceInformation> selectCheapestQuote(List<PriceInformation> quotes) {
+        return quotes.stream().min(Comparator.comparingDouble(PriceInformation::getPrice));
+    }
+
     private void payMoney(Double price) {
         this.balance -= price;
     }
 
-    private Behaviour createBrokerSearchBehaviour() {
-        return new BrokerSearchBehaviour(this, 2000);
+    private void refundMoney(Double price) {
+        this.balance += price;
+    }
+
+    private Behaviour createBrokerSearchBehaviour(long delayMillis) {
+        return new BrokerSearchBehaviour(this, delayMillis);
+    }
+
+    @Override
+    public void setBrokerDirectory(BrokerDirectory brokerDirectory) {
+        super.setBrokerDirectory(brokerDirectory);
+        if (marketData) {
+            brokerDirectory.getBrokers().forEach(this::subscribeToMarketData);
+        }
+        LaunchCoordinatorAgent.signalReady(this);
+    }
+
+    /**
+     *  A consumer started with a readiness agent holds its requests until that agent tells it that the whole
+     *  market is ready, and then sends its first request right away instead of a request period later.
+     * **/
+    private void handleReadinessMessage(ACLMessage message) {
+        if ("start-trading".equals(message.getContent()) && awaitingStart) {
+            awaitingStart = false;
+            addBehaviour(createOrderTimeoutBehaviour());
+            requestPrices();
+        }
+    }
+
+    @Override
+    protected void onBrokerJoined(AID broker) {
+        if (marketData) {
+            subscribeToMarketData(broker);
+        }
+    }
+
+    /**
+     *  With marketData=true the consumer follows the best asks and last trades of every broker it knows of,
+     *  conflated by the broker to one update per marketDataInterval milliseconds at most.
+     * **/
+    private void subscribeToMarketData(AID broker) {
+        if (!marketDataBrokers.add(broker)) {
+            return;
+        }
+        ACLMessage subscription = new ACLMessage(ACLMessage.SUBSCRIBE);
+        subscription.addReceiver(broker);
+        subscription.setOntology(MarketOntology.MARKET_DATA);
+        subscription.setConversationId(getLocalName() + "-market-data");
+        subscription.addUserDefinedParameter(MarketOntology.INTERVAL_PARAMETER, Long.toString(marketDataIntervalMillis));
+        send(subscription);
+    }
+
+    private void cancelMarketDataSubscriptions() {
+        if (marketDataBrokers.isEmpty()) {
+            return;
+        }
+        ACLMessage cancellation = new ACLMessage(ACLMessage.CANCEL);
+        marketDataBrokers.forEach(cancellation::addReceiver);
+        cancellation.setOntology(MarketOntology.MARKET_DATA);
+        cancellation.setConversationId(getLocalName() + "-market-data");
+        send(cancellation);
+        marketDataBrokers.clear();
+    }
+
+    private void receiveMarketData(ACLMessage message) throws IOException, ClassNotFoundException {
+        List<MarketDataUpdate> updates = MessageCodecs.decode(message);
+        for (MarketDataUpdate update : updates) {
+            marketPrices.put(update.getType(), update);
+        }
+    }
+
+    /**
+     *  A type is worth a request unless the market data shows its best ask above the most the consumer pays,
+     *  bidMarkup times the reference price. Without market data every type is worth asking for.
+     * **/
+    private boolean isWorthAsking(CarComponentType type) {
+        MarketDataUpdate update = marketPrices.get(type);
+        if (update == null || update.getBestAsk() == null || update.getBestAsk() <= referencePrices.get(type) * bidMarkup) {
+            return true;
+        }
+        ++skippedPriceRequestCount;
+        if (verbose) {
+            System.out.println("Consumer " + getLocalName() + " skips " + type + " while its best ask of " + update.getBestAsk() + " is above its limit.");
+        }
+        return false;
     }
 
     private String pickRandomComponentType() {
@@ -44,54 +287,338 @@ public class ConsumerAgent extends BrokerClientAgent {
         return this.buyableComponents[(int)(Math.random() * range) + minimum];
     }
 
+    private List<BasketLine> pickRandomBasket() {
+        List<String> componentTypes = new ArrayList<>(Arrays.asList(buyableComponents));
+        Collections.shuffle(componentTypes);
+        List<BasketLine> basket = new ArrayList<>(basketSize);
+        for (int i = 0; i < basketSize; ++i) {
+            basket.add(new BasketLine(CarComponentType.valueOf(componentTypes.get(i)), basketQuantity));
+        }
+        return basket;
+    }
+
+    private PurchaseOrder openOrder(List<BasketLine> lines) {
+        return openOrder(lines, System.currentTimeMillis() + orderTimeoutMillis);
+    }
+
+    private PurchaseOrder openOrder(List<BasketLine> lines, long deadline) {
+        String conversationId = getLocalName() + "-cfp-" + (++priceRequestCounter);
+        PurchaseOrder order = new PurchaseOrder(conversationId, lines, deadline);
+        openOrders.put(order.getId(), order);
+        orderTimeouts.schedule(order, order.getDeadline());
+        return order;
+    }
+
+    private void sendPriceRequest(AID broker, PurchaseOrder order, boolean basket) {
+        ACLMessage priceRequest = new ACLMessage(ACLMessage.CFP);
+        priceRequest.setConversationId(order.getId());
+        priceRequest.setReplyWith(order.getId());
+        priceRequest.addReceiver(broker);
+        if (basket) {
+            priceRequest.setOntology(MarketOntology.BASKET);
+            try {
+                MessageCodecs.encode(order.getLines(), priceRequest);
+            } catch (IOException e) {
+                e.printStackTrace();
+                throw new RuntimeException(e);
+            }
+        } else {
+            priceRequest.setContent(order.getLines().get(0).getType().name());
+        }
+        send(priceRequest);
+    }
+
+    /**
+     *  Posts a bid for one basket line to the order book of a broker that serves its type, limited to
+     *  bidMarkup times the reference price and valid for bidTtl milliseconds. Every bid is an order of its own.
+     * **/
+    private void sendBid(BasketLine line) {
+        AID broker = brokerDirectory.getBrokerFor(line.getType());
+        if (broker == null) {
+            System.out.println("Consumer " + getLocalName() + " found no broker for " + line.getType() + ".");
+            return;
+        }
+
+        long expiresAt = System.currentTimeMillis() + bidTtlMillis;
+        PurchaseOrder order = openOrder(List.of(line), expiresAt + orderTimeoutMillis);
+        LimitOrder bid = new LimitOrder(line.getType(), line.getQuantity(), referencePrices.get(line.getType()) * bidMarkup, expiresAt);
+        ACLMessage bidMessage = new ACLMessage(ACLMessage.CFP);
+        bidMessage.setConversationId(order.getId());
+        bidMessage.setReplyWith(order.getId());
+        bidMessage.setOntology(MarketOntology.ORDER);
+        bidMessage.addReceiver(broker);
+        try {
+            MessageCodecs.encode(bid, bidMessage);
+        } catch (IOException e) {
+            e.printStackTrace();
+            throw new RuntimeException(e);
+        }
+        send(bidMessage);
+        if (verbose) {
+            System.out.println("Consumer " + getLocalName() + " posted a bid for " + bid + " to broker " + broker.getLocalName() + ".");
+        }
+    }
+
     private Behaviour createConsumerPriceRequestAndRespondBehaviour() {
-        return new TickerBehaviour(this, 5000) {
+        return new TickerBehaviour(this, requestPeriodMillis) {
             @Override
             protected void onTick() {
-                String componentTypeAsString = pickRandomComponentType();
-                ACLMessage priceRequest = new ACLMessage(ACLMessage.CFP);
-                priceRequest.addReceiver(brokerAgents[0]);
-                priceRequest.setContent(componentTypeAsString);
-                send(priceRequest);
-                System.out.println("Consumer " + getLocalName() + " sent a call-for-proposal price request for " + componentTypeAsString + " to the broker.");
+                if (!awaitingStart) {
+                    requestPrices();
+                }
             }
         };
     }
 
+    /**
+     *  Asks for the prices of a single random component type, or of a whole basket of them when the
+     *  consumer was started with a basketSize above one. A basket goes out as one CFP per broker that
+     *  serves some of its types, which is a single CFP unless the brokers are sharded.
+     * **/
+    private void requestPrices() {
+        if (System.currentTimeMillis() < nextPriceRequestTime) {
+            if (verbose) {
+                System.out.println("Consumer " + getLocalName() + " skips a price request while the broker asked to back off.");
+            }
+            return;
+        }
+
+        if (orderBook) {
+            List<BasketLine> lines = basketSize <= 1 ? List.of(new BasketLine(CarComponentType.valueOf(pickRandomComponentType()), basketQuantity)) : pickRandomBasket();
+            lines.stream().filter(line -> isWorthAsking(line.getType())).forEach(line -> sendBid(line));
+            return;
+        }
+        if (basketSize <= 1) {
+            String componentTypeAsString = pickRandomComponentType();
+            if (!isWorthAsking(CarComponentType.valueOf(componentTypeAsString))) {
+                return;
+            }
+            AID broker = brokerDirectory.getBrokerFor(CarComponentType.valueOf(componentTypeAsString));
+            if (broker == null) {
+                System.out.println("Consumer " + getLocalName() + " found no broker for " + componentTypeAsString + ".");
+                return;
+            }
+            sendPriceRequest(broker, openOrder(List.of(new BasketLine(CarComponentType.valueOf(componentTypeAsString), 1))), false);
+            if (verbose) {
+                System.out.println("Consumer " + getLocalName() + " sent a call-for-proposal price request for " + componentTypeAsString + " to the broker.");
+            }
+            return;
+        }
+
+        Map<AID, List<BasketLine>> linesByBroker = new LinkedHashMap<>();
+        for (BasketLine line : pickRandomBasket()) {
+            if (!isWorthAsking(line.getType())) {
+                continue;
+            }
+            // Lines stay with a broker already picked for the basket if it serves them too.
+            AID broker = linesByBroker.keySet().stream().filter(picked -> brokerDirectory.isServedBy(line.getType(), picked)).findFirst()
+                    .orElseGet(() -> brokerDirectory.getBrokerFor(line.getType()));
+            if (broker == null) {
+                System.out.println("Consumer " + getLocalName() + " found no broker for " + line.getType() + " and leaves it out of the basket.");
+            } else {
+                linesByBroker.computeIfAbsent(broker, aid -> new ArrayList<>()).add(line);
+            }
+        }
+        linesByBroker.forEach((broker, lines) -> {
+            sendPriceRequest(broker, openOrder(lines), true);
+            if (verbose) {
+                System.out.println("Consumer " + getLocalName() + " sent a call-for-proposal basket request for " + lines + " to broker " + broker.getLocalName() + ".");
+            }
+        });
+    }
+
     private void receiveBrokerPrices(ACLMessage message) throws IOException, ClassNotFoundException {
-        List<PriceInformation> deserializedListOfPrices = Base64Serializer.deserialize(message.getContent());
-        String componentTypeAsString = deserializedListOfPrices.get(0).getType().name();
+        List<PriceInformation> deserializedListOfPrices = MessageCodecs.decode(message);
+        PurchaseOrder order = openOrders.get(message.getConversationId());
+        if (order == null || order.getState() != PurchaseOrderState.REQUESTED) {
+            if (verbose) {
+                System.out.println("Consumer " + getLocalName() + " ignored late price proposals for " + message.getConversationId() + ".");
+            }
+            return;
+        }
+        if (verbose) {
+            System.out.println("Consumer " + getLocalName() + " received " + order.getLines() + " price proposals from the broker.");
+        }
 
-        System.out.println("Consumer " + getLocalName() + " received " + componentTypeAsString + " price proposals from the broker.");
+        long now = System.currentTimeMillis();
+        order.quote(now + orderTimeoutMillis);
+        cfpToProposeLatency.record(System.nanoTime() - order.getRequestedAtNanos());
 
-        try {
-            Optional<PriceInformation> minimumPriceOptional = deserializedListOfPrices.stream()
-                    .min(Comparator.comparingDouble(PriceInformation::getPrice));
-            PriceInformation minimumPrice = minimumPriceOptional.get();
-            payMoney(minimumPrice.getPrice());
-            System.out.println("Consumer " + getLocalName() + " pays for the " + componentTypeAsString + ".");
+        // One accepted offer per unit, taken from the cheapest supplier of each line's type.
+        List<PriceInformation> acceptedOffers = new ArrayList<>();
+        for (BasketLine line : order.getLines()) {
+            List<PriceInformation> quotesOfType = deserializedListOfPrices.stream().filter(quote -> quote.getType() == line.getType()).toList();
+            Optional<PriceInformation> minimumPrice = selectCheapestQuote(quotesOfType);
+            if (minimumPrice.isEmpty()) {
+                if (verbose) {
+                    System.out.println("Consumer " + getLocalName() + " got no " + line.getType() + " proposals and leaves it out of order " + order.getId());
+                }
+                continue;
+            }
+            for (int unit = 0; unit < line.getQuantity(); ++unit) {
+                PriceInformation offerAcceptPriceInformation = new PriceInformation(minimumPrice.get().getSupplier(), minimumPrice.get().getPrice(), minimumPrice.get().getType());
+                offerAcceptPriceInformation.setDestinationAid(this.getAID());
+                acceptedOffers.add(offerAcceptPriceInformation);
+            }
+        }
+        if (acceptedOffers.isEmpty()) {
+            failOrder(order, "no acceptable price proposals");
+            return;
+        }
 
-            PriceInformation offerAcceptPriceInformation = new PriceInformation(minimumPrice.getSupplier(), minimumPrice.getPrice(), minimumPrice.getType());
-            offerAcceptPriceInformation.setDestinationAid(this.getAID());
-            String serializedAcceptedOffer = Base64Serializer.serialize(offerAcceptPriceInformation);
+        ACLMessage componentRequest = new ACLMessage(ACLMessage.ACCEPT_PROPOSAL);
+        componentRequest.addReceiver(message.getSender());
+        componentRequest.setConversationId(order.getId());
+        if (MarketOntology.BASKET.equals(message.getOntology())) {
+            componentRequest.setOntology(MarketOntology.BASKET);
+            MessageCodecs.encode(acceptedOffers, componentRequest);
+        } else {
+            // The broker forwards a single accept to the supplier named in the envelope without decoding it.
+            componentRequest.addUserDefinedParameter(MarketOntology.SUPPLIER_PARAMETER, acceptedOffers.get(0).getSupplier().getName());
+            componentRequest.addUserDefinedParameter(MarketOntology.RECEIPT_PARAMETER, TradeReceipt.formatOffers(acceptedOffers));
+            MessageCodecs.encode(acceptedOffers.get(0), componentRequest);
+        }
+        send(componentRequest);
+        MarketMetrics.recordSincePosted(proposeToAcceptLatency, message);
 
-            ACLMessage componentRequest = new ACLMessage(ACLMessage.ACCEPT_PROPOSAL);
-            componentRequest.addReceiver(brokerAgents[0]);
-            componentRequest.setContent(serializedAcceptedOffer);
-            send(componentRequest);
+        order.accept(acceptedOffers, now + orderTimeoutMillis);
+        orderTimeouts.schedule(order, order.getDeadline());
+        payMoney(order.getUndeliveredAmount());
+        if (verbose) {
+            System.out.println("Consumer " + getLocalName() + " pays for the " + order.getLines() + " and sent the offer accept message of order " + order.getId() + " to broker " + message.getSender().getLocalName());
+        }
+    }
 
-            System.out.println("Consumer " + getLocalName() + " sent " + componentTypeAsString + " offer accept message to broker " + brokerAgents[0].getLocalName());
+    private void receiveBoughtComponent(ACLMessage message) throws IOException, ClassNotFoundException {
+        if (MarketOntology.BASKET.equals(message.getOntology())) {
+            List<ComponentDeliveryUnit> deliveryUnits = MessageCodecs.decode(message);
+            for (ComponentDeliveryUnit deliveryUnit : deliveryUnits) {
+                receiveDeliveryUnit(message.getConversationId(), deliveryUnit);
+            }
+        } else {
+            receiveDeliveryUnit(message.getConversationId(), MessageCodecs.decode(message));
+        }
+    }
 
-            MessageTemplate template = MessageTemplate.MatchPerformative(ACLMessage.AGREE);
-            ACLMessage boughtProductAsAclMessage = blockingReceive(template);
-            ComponentDeliveryUnit deliveryUnitMessage = Base64Serializer.deserialize(boughtProductAsAclMessage.getContent());
+    private void receiveDeliveryUnit(String orderId, ComponentDeliveryUnit deliveryUnitMessage) {
+        addOwnedComponent(deliveryUnitMessage.getComponent());
+        metrics.countComponent(deliveryUnitMessage.getComponent().type(), 1);
 
-            ownedCarComponents.add(deliveryUnitMessage.getComponent());
-            System.out.println("Consumer " + getLocalName() + " received bought " + deliveryUnitMessage.getComponent().type() + " sent by " + deliveryUnitMessage.getSource().getLocalName() + " through broker " + brokerAgents[0].getLocalName());
+        PurchaseOrder order = openOrders.get(orderId);
+        if (order == null || order.getState() != PurchaseOrderState.ACCEPTED) {
+            // The order already timed out and was refunded, so the late delivery is paid for again.
+            payMoney(deliveryUnitMessage.getComponent().price());
+            System.out.println("Consumer " + getLocalName() + " received a late delivery for order " + orderId + " and paid for it again.");
+        } else {
+            order.deliver(deliveryUnitMessage.getComponent());
+            if (order.isFinished()) {
+                openOrders.remove(orderId);
+                acceptToDeliveryLatency.record(System.nanoTime() - order.getAcceptedAtNanos());
+            }
+        }
+        if (verbose) {
+            System.out.println("Consumer " + getLocalName() + " received bought " + deliveryUnitMessage.getComponent().type() + " sent by " + deliveryUnitMessage.getSource().getLocalName() + " for order " + orderId);
             System.out.println(deliveryUnitMessage.getComponent());
-        } catch (IOException e) {
-            e.printStackTrace();
-            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     *  The broker reports the units of a bid as they are filled, and once more when the bid leaves the book,
+     *  with the number of units still open in the open-quantity parameter.
+     * **/
+    private void receiveBidReport(ACLMessage message) throws IOException, ClassNotFoundException {
+        List<PriceInformation> filledUnits = MessageCodecs.decode(message);
+        PurchaseOrder order = openOrders.get(message.getConversationId());
+        if (order == null || order.isFinished()) {
+            // Units filled after the order timed out are paid for when they are delivered.
+            return;
+        }
+
+        if (!filledUnits.isEmpty() && order.getState() == PurchaseOrderState.REQUESTED) {
+            bidToFillLatency.record(System.nanoTime() - order.getRequestedAtNanos());
+        }
+        int openUnits = Integer.parseInt(message.getUserDefinedParameter(MarketOntology.OPEN_QUANTITY_PARAMETER));
+        order.fill(filledUnits, openUnits, Math.max(order.getDeadline(), System.currentTimeMillis() + orderTimeoutMillis));
+        orderTimeouts.schedule(order, order.getDeadline());
+        payMoney(filledUnits.stream().mapToDouble(PriceInformation::getPrice).sum());
+        if (verbose && !filledUnits.isEmpty()) {
+            System.out.println("Consumer " + getLocalName() + " pays for " + filledUnits.size() + " filled units of bid " + order.getId() + ", " + openUnits + " still open");
+        }
+        if (order.isFinished()) {
+            openOrders.remove(order.getId());
+            if (order.getState() == PurchaseOrderState.FAILED) {
+                System.out.println("Consumer " + getLocalName() + " gave up on order " + order.getId() + " for " + order.getLines() + ": the bid expired unfilled");
+            }
+        }
+    }
+
+    private void failOrder(PurchaseOrder order, String reason) {
+        openOrders.remove(order.getId());
+        if (order.getState() == PurchaseOrderState.ACCEPTED) {
+            refundMoney(order.getUndeliveredAmount());
+        }
+        order.fail();
+        System.out.println("Consumer " + getLocalName() + " gave up on order " + order.getId() + " for " + order.getLines() + ": " + reason);
+    }
+
+    private void handleFailedOrder(ACLMessage message) throws IOException, ClassNotFoundException {
+        if (MarketOntology.STOCK_OUT.equals(message.getOntology())) {
+            handleStockOut(message);
+            return;
+        }
+        PurchaseOrder order = openOrders.get(message.getConversationId());
+        if (order != null) {
+            failOrder(order, message.getContent());
+        }
+    }
+
+    /**
+     *  A supplier could not deliver some of the accepted units. They are dropped from the order and refunded,
+     *  the rest of the order is still expected.
+     * **/
+    private void handleStockOut(ACLMessage message) throws IOException, ClassNotFoundException {
+        List<PriceInformation> unfilledOffers = MessageCodecs.decode(message);
+        PurchaseOrder order = openOrders.get(message.getConversationId());
+        if (unfilledOffers.isEmpty() || order == null || order.getState() != PurchaseOrderState.ACCEPTED) {
+            return;
+        }
+
+        for (PriceInformation unfilledOffer : unfilledOffers) {
+            order.cancel(unfilledOffer);
+            refundMoney(unfilledOffer.getPrice());
+        }
+        if (order.isFinished()) {
+            openOrders.remove(order.getId());
+        }
+        System.out.println("Consumer " + getLocalName() + " got " + unfilledOffers.size() + " units of order " + order.getId() + " refunded after a stock-out at " + unfilledOffers.get(0).getSupplier().getLocalName());
+    }
+
+    private Behaviour createOrderTimeoutBehaviour() {
+        return new TickerBehaviour(this, orderTimeouts.getTickMillis()) {
+            @Override
+            protected void onTick() {
+                long now = System.currentTimeMillis();
+                orderTimeouts.advance(now, order -> {
+                    // Deadlines of earlier states stay in the wheel, only the current one counts.
+                    if (!order.isFinished() && order.getDeadline() <= now) {
+                        failOrder(order, "no answer in the " + order.getState() + " state before the deadline");
+                    }
+                });
+            }
+        };
+    }
+
+    private void handleRefusedPriceRequest(ACLMessage message) {
+        String retryAfter = message.getUserDefinedParameter(MarketOntology.RETRY_AFTER_PARAMETER);
+        if (retryAfter != null) {
+            nextPriceRequestTime = Math.max(nextPriceRequestTime, System.currentTimeMillis() + Long.parseLong(retryAfter));
+        }
+        if (verbose) {
+            System.out.println("Consumer " + getLocalName() + " got no price proposals for " + message.getConversationId() + " from broker " + message.getSender().getLocalName() + ": " + message.getContent());
+        }
+        PurchaseOrder order = openOrders.get(message.getConversationId());
+        if (order != null) {
+            failOrder(order, "price request refused");
         }
     }
 
@@ -103,8 +630,21 @@ public class ConsumerAgent extends BrokerClientAgent {
     }
 
     protected void handleRequest(ACLMessage request) throws IOException, ClassNotFoundException {
+        metrics.countMessage(request.getPerformative());
         switch (request.getPerformative()) {
             case ACLMessage.PROPOSE -> receiveBrokerPrices(request);
+            case ACLMessage.REFUSE -> handleRefusedPriceRequest(request);
+            case ACLMessage.AGREE -> receiveBoughtComponent(request);
+            case ACLMessage.FAILURE -> handleFailedOrder(request);
+            case ACLMessage.INFORM -> {
+                if (MarketOntology.MARKET_DATA.equals(request.getOntology())) {
+                    receiveMarketData(request);
+                } else if (MarketOntology.READINESS.equals(request.getOntology())) {
+                    handleReadinessMessage(request);
+                } else {
+                    receiveBidReport(request);
+                }
+            }
             default -> handleUnknownMessage(request);
         }
     }
@@ -114,6 +654,16 @@ public class ConsumerAgent extends BrokerClientAgent {
     }
 
     protected void takeDown() {
+        cancelBrokerSubscription();
+        cancelMarketDataSubscriptions();
+        metrics.unregisterMBean();
+        if (checkpoint != null) {
+            try {
+                checkpoint.checkpoint(this);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
         System.out.println("Consumer " + getAID().getName() + " has terminated.");
     }
 }
@@ -0,0 +1,72 @@
+import jade.core.AID;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ *  A fixed set of worker lanes for the codec work of an agent. Each lane is a single thread and the work
+ *  for one peer always goes to the same lane, so the messages of a peer are decoded in the order they
+ *  arrived while different peers are decoded in parallel.
+ *
+ *  The lanes run on platform threads, or on virtual threads when asked for and the JVM has them.
+ * **/
+public class DispatchPool {
+    private final ExecutorService[] lanes;
+    private final boolean virtualThreads;
+
+    public DispatchPool(String name, int threads, boolean virtualThreads) {
+        ThreadFactory threadFactory = virtualThreads ? createVirtualThreadFactory() : null;
+        this.virtualThreads = threadFactory != null;
+        if (threadFactory == null) {
+            threadFactory = createPlatformThreadFactory(name);
+        }
+
+        this.lanes = new ExecutorService[threads];
+        for (int i = 0; i < threads; ++i) {
+            lanes[i] = Executors.newSingleThreadExecutor(threadFactory);
+        }
+    }
+
+    public int getThreadCount() {
+        return lanes.length;
+    }
+
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    public void execute(AID peer, Runnable task) {
+        lanes[Math.floorMod(peer.hashCode(), lanes.length)].execute(task);
+    }
+
+    public void shutdown() {
+        for (ExecutorService lane : lanes) {
+            lane.shutdown();
+        }
+    }
+
+    private static ThreadFactory createPlatformThreadFactory(String name) {
+        AtomicInteger threadCounter = new AtomicInteger();
+        return task -> {
+            Thread thread = new Thread(task, name + "-worker-" + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     *  The simulation builds for Java 17, so virtual threads are looked up at run time and used only on a
+     *  JVM that has them.
+     * **/
+    private static ThreadFactory createVirtualThreadFactory() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            return (ThreadFactory) Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            System.out.println("Virtual threads are not available on Java " + Runtime.version().feature() + ", using platform threads.");
+            return null;
+        }
+    }
+}
@@ -0,0 +1,126 @@
+import java.util.Arrays;
+
+/**
+ *  Priority queue of timestamped simulation events kept as a binary heap over primitive arrays, so
+ *  scheduling and dispatching an event allocates nothing. An event is just a kind and the index of the
+ *  actor it belongs to. Events with the same timestamp are dispatched in the order they were scheduled,
+ *  which keeps a seeded run deterministic.
+ * **/
+public class EventScheduler {
+    private long[] times;
+    private long[] sequences;
+    private int[] kinds;
+    private int[] actors;
+    private int size;
+    private long nextSequence;
+    private long currentTime;
+    private int currentKind;
+    private int currentActor;
+
+    public EventScheduler(int initialCapacity) {
+        this.times = new long[initialCapacity];
+        this.sequences = new long[initialCapacity];
+        this.kinds = new int[initialCapacity];
+        this.actors = new int[initialCapacity];
+        this.size = 0;
+        this.nextSequence = 0;
+        this.currentTime = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long getCurrentTime() {
+        return currentTime;
+    }
+
+    public int getCurrentKind() {
+        return currentKind;
+    }
+
+    public int getCurrentActor() {
+        return currentActor;
+    }
+
+    public void schedule(long time, int kind, int actor) {
+        if (time < currentTime) {
+            throw new IllegalArgumentException("Cannot schedule an event at " + time + " before the current time " + currentTime + ".");
+        }
+        if (size == times.length) {
+            int capacity = Math.max(16, size * 2);
+            times = Arrays.copyOf(times, capacity);
+            sequences = Arrays.copyOf(sequences, capacity);
+            kinds = Arrays.copyOf(kinds, capacity);
+            actors = Arrays.copyOf(actors, capacity);
+        }
+
+        long sequence = nextSequence++;
+        int index = size++;
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (times[parent] < time || (times[parent] == time && sequences[parent] < sequence)) {
+                break;
+            }
+            move(parent, index);
+            index = parent;
+        }
+        times[index] = time;
+        sequences[index] = sequence;
+        kinds[index] = kind;
+        actors[index] = actor;
+    }
+
+    /**
+     *  Removes the earliest event that is due no later than the given time and makes it the current event.
+     *  Returns false, without advancing the clock, if there is no such event.
+     * **/
+    public boolean next(long untilTime) {
+        if (size == 0 || times[0] > untilTime) {
+            return false;
+        }
+
+        currentTime = times[0];
+        currentKind = kinds[0];
+        currentActor = actors[0];
+        --size;
+        if (size > 0) {
+            siftDownLast();
+        }
+        return true;
+    }
+
+    private boolean isBefore(int left, int right) {
+        return times[left] < times[right] || (times[left] == times[right] && sequences[left] < sequences[right]);
+    }
+
+    /**
+     *  Moves the last event into the hole left at the root, shifting smaller children up instead of swapping.
+     * **/
+    private void siftDownLast() {
+        int last = size;
+        int index = 0;
+        while (true) {
+            int child = 2 * index + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && isBefore(child + 1, child)) {
+                ++child;
+            }
+            if (!isBefore(child, last)) {
+                break;
+            }
+            move(child, index);
+            index = child;
+        }
+        move(last, index);
+    }
+
+    private void move(int from, int to) {
+        times[to] = times[from];
+        sequences[to] = sequences[from];
+        kinds[to] = kinds[from];
+        actors[to] = actors[from];
+    }
+}
@@ -0,0 +1,136 @@
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ *  Stock of a supplier that can be used from several threads without locks. The units that can still be
+ *  promised are kept per component type ordinal in an atomic array. A reservation takes units out of it
+ *  when a quote is made and is then either committed by a sale, released, or released automatically once
+ *  its time-to-live passes, so a quote never promises a unit that was already sold to someone else.
+ *
+ *  Every reservation is removed from the reservation map exactly once, by whichever of commit, release
+ *  or expiry gets to it first, which is what keeps the counters consistent without a lock.
+ * **/
+public class Inventory {
+    private final AtomicIntegerArray availableUnits;
+    private final Set<CarComponentType> stockedTypes;
+    private final long reservationTtlMillis;
+    private final Map<String, Reservation> reservations;
+    private final ConcurrentLinkedQueue<Reservation> reservationsByDeadline;
+
+    private record Reservation(String id, CarComponentType type, int quantity, long deadline) {}
+
+    public Inventory(Map<CarComponentType, Integer> initialStock, long reservationTtlMillis) {
+        this.availableUnits = new AtomicIntegerArray(CarComponentType.values().length);
+        this.stockedTypes = EnumSet.noneOf(CarComponentType.class);
+        initialStock.forEach((type, quantity) -> {
+            availableUnits.set(type.ordinal(), quantity);
+            stockedTypes.add(type);
+        });
+        this.reservationTtlMillis = reservationTtlMillis;
+        this.reservations = new ConcurrentHashMap<>();
+        this.reservationsByDeadline = new ConcurrentLinkedQueue<>();
+    }
+
+    public Set<CarComponentType> getStockedTypes() {
+        return stockedTypes;
+    }
+
+    public int getAvailableUnits(CarComponentType type) {
+        return availableUnits.get(type.ordinal());
+    }
+
+    public boolean isInStock(CarComponentType type) {
+        return getAvailableUnits(type) > 0;
+    }
+
+    /**
+     *  Takes units out of the available stock, or returns false and leaves the stock untouched if there
+     *  are not enough of them.
+     * **/
+    public boolean take(CarComponentType type, int quantity) {
+        int ordinal = type.ordinal();
+        while (true) {
+            int available = availableUnits.get(ordinal);
+            if (available < quantity) {
+                return false;
+            }
+            if (availableUnits.compareAndSet(ordinal, available, available - quantity)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     *  Reserves units under the given id until the reservation time-to-live passes. An earlier reservation
+     *  with the same id is released first. Returns false if there are not enough units left.
+     * **/
+    public boolean reserve(String reservationId, CarComponentType type, int quantity, long now) {
+        release(reservationId);
+        if (!take(type, quantity)) {
+            return false;
+        }
+
+        Reservation reservation = new Reservation(reservationId, type, quantity, now + reservationTtlMillis);
+        reservations.put(reservationId, reservation);
+        reservationsByDeadline.add(reservation);
+        return true;
+    }
+
+    /**
+     *  Turns a reservation into a sale. Returns false if there is no such reservation, e.g. because it
+     *  already expired, in which case nothing changes.
+     * **/
+    public boolean commit(String reservationId) {
+        return reservations.remove(reservationId) != null;
+    }
+
+    public void release(String reservationId) {
+        Reservation reservation = reservations.remove(reservationId);
+        if (reservation != null) {
+            availableUnits.addAndGet(reservation.type().ordinal(), reservation.quantity());
+        }
+    }
+
+    /**
+     *  Releases the reservations whose time-to-live passed. They all share the same time-to-live, so they
+     *  expire in the order they were made and only the head of the queue needs to be checked.
+     * **/
+    public void expire(long now) {
+        Reservation reservation;
+        while ((reservation = reservationsByDeadline.peek()) != null && reservation.deadline() <= now) {
+            if (reservationsByDeadline.remove(reservation) && reservations.remove(reservation.id(), reservation)) {
+                availableUnits.addAndGet(reservation.type().ordinal(), reservation.quantity());
+            }
+        }
+    }
+
+    public int getReservationCount() {
+        return reservations.size();
+    }
+
+    /**
+     *  Units of a type the supplier still holds, whether they are free or reserved.
+     * **/
+    public int getUnitsOnHand(CarComponentType type) {
+        int units = getAvailableUnits(type);
+        for (Reservation reservation : reservations.values()) {
+            if (reservation.type() == type) {
+                units += reservation.quantity();
+            }
+        }
+        return units;
+    }
+
+    /**
+     *  Replaces the free units of a type, e.g. with the stock of a checkpoint. Only meant to be used before
+     *  any reservation is made.
+     * **/
+    public void restoreUnits(CarComponentType type, int units) {
+        availableUnits.set(type.ordinal(), units);
+        stockedTypes.add(type);
+    }
+}
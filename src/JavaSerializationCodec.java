@@ -0,0 +1,23 @@
+import jade.lang.acl.ACLMessage;
+
+import java.io.IOException;
+
+public class JavaSerializationCodec implements MessageCodec {
+    public static final String LANGUAGE = "java-serialization-base64";
+
+    @Override
+    public String getLanguage() {
+        return LANGUAGE;
+    }
+
+    @Override
+    public <T> void encode(T entity, ACLMessage message) throws IOException {
+        message.setLanguage(LANGUAGE);
+        message.setContent(Base64Serializer.serialize(entity));
+    }
+
+    @Override
+    public <T> T decode(ACLMessage message) throws IOException, ClassNotFoundException {
+        return Base64Serializer.deserialize(message.getContent());
+    }
+}
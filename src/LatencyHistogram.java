@@ -0,0 +1,91 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ *  Lock-free histogram of durations in nanoseconds with log-linear buckets: every power of two is split
+ *  into 16 buckets, so a percentile is accurate to about 6% of its value for anything from one nanosecond
+ *  to about an hour. Recording is a couple of atomic increments and can happen from any thread, while
+ *  readers get a slightly fuzzy but never torn view.
+ * **/
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int SUB_BUCKET_HALF = SUB_BUCKET_COUNT / 2;
+    private static final int MAXIMUM_SHIFT = 38;
+    private static final long MAXIMUM_VALUE = (1L << (MAXIMUM_SHIFT + SUB_BUCKET_BITS - 1)) - 1;
+
+    private final AtomicLongArray buckets;
+    private final AtomicLong count;
+    private final AtomicLong sum;
+    private final AtomicLong maximum;
+
+    public LatencyHistogram() {
+        this.buckets = new AtomicLongArray(SUB_BUCKET_COUNT + MAXIMUM_SHIFT * SUB_BUCKET_HALF);
+        this.count = new AtomicLong();
+        this.sum = new AtomicLong();
+        this.maximum = new AtomicLong();
+    }
+
+    private static int bucketIndex(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS - 1);
+        int mantissa = (int) (value >>> shift);
+        return SUB_BUCKET_COUNT + (shift - 1) * SUB_BUCKET_HALF + (mantissa - SUB_BUCKET_HALF);
+    }
+
+    private static long bucketUpperBound(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_HALF + 1;
+        long mantissa = (index - SUB_BUCKET_COUNT) % SUB_BUCKET_HALF + SUB_BUCKET_HALF;
+        return ((mantissa + 1) << shift) - 1;
+    }
+
+    public void record(long nanos) {
+        long value = Math.min(Math.max(nanos, 0), MAXIMUM_VALUE);
+        buckets.incrementAndGet(bucketIndex(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        long currentMaximum;
+        while (value > (currentMaximum = maximum.get()) && !maximum.compareAndSet(currentMaximum, value)) {
+            // Another thread raised the maximum in between, check against its value.
+        }
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public double getMean() {
+        long samples = count.get();
+        return samples == 0 ? 0.0 : (double) sum.get() / samples;
+    }
+
+    public long getMaximum() {
+        return maximum.get();
+    }
+
+    /**
+     *  Returns the smallest bucket bound that at least the given fraction of the samples do not exceed,
+     *  e.g. getPercentile(0.99) for the 99th percentile, or 0 when nothing was recorded.
+     * **/
+    public long getPercentile(double fraction) {
+        long samples = count.get();
+        if (samples == 0) {
+            return 0;
+        }
+
+        long target = Math.max(1, (long) Math.ceil(fraction * samples));
+        long seen = 0;
+        for (int index = 0; index < buckets.length(); ++index) {
+            seen += buckets.get(index);
+            if (seen >= target) {
+                return Math.min(bucketUpperBound(index), maximum.get());
+            }
+        }
+        return maximum.get();
+    }
+}
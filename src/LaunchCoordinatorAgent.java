@@ -0,0 +1,95 @@
+import jade.core.AID;
+import jade.core.Agent;
+import jade.core.behaviours.CyclicBehaviour;
+import jade.lang.acl.ACLMessage;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ *  The agent side of a MarketLauncher. The market's agents are started with readiness set to this agent's
+ *  name and tell it when they are ready, which it passes on to the launcher. When the launcher opens the
+ *  barrier, it subscribes to the market data of the brokers, whose last-trade times tell the launcher when
+ *  the first trade happened, and tells every consumer to start trading. The launcher hands it work through
+ *  the object-to-agent queue, so that all its messages go out on its own thread.
+ * **/
+public class LaunchCoordinatorAgent extends Agent {
+    private final MarketLauncher launcher;
+
+    public LaunchCoordinatorAgent(MarketLauncher launcher) {
+        this.launcher = launcher;
+    }
+
+    protected void setup() {
+        setEnabledO2ACommunication(true, 0);
+        addBehaviour(new CyclicBehaviour() {
+            @Override
+            public void action() {
+                Object work;
+                while ((work = getO2AObject()) != null) {
+                    ((Runnable) work).run();
+                }
+                ACLMessage message = receive();
+                if (message == null) {
+                    block();
+                    return;
+                }
+                try {
+                    handleMessage(message);
+                } catch (IOException | ClassNotFoundException e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+    }
+
+    /**
+     *  Tells the agent named by the readiness argument of the given agent that it is ready to trade. Agents
+     *  started without one, i.e. outside a MarketLauncher, skip the signal.
+     * **/
+    public static void signalReady(Agent agent) {
+        String readinessAgent = AgentArguments.of(agent).getString("readiness", "");
+        if (readinessAgent.isBlank()) {
+            return;
+        }
+        ACLMessage ready = new ACLMessage(ACLMessage.INFORM);
+        ready.addReceiver(new AID(readinessAgent, AID.ISLOCALNAME));
+        ready.setOntology(MarketOntology.READINESS);
+        ready.setContent("ready");
+        agent.send(ready);
+    }
+
+    private void handleMessage(ACLMessage message) throws IOException, ClassNotFoundException {
+        if (message.getPerformative() != ACLMessage.INFORM) {
+            return;
+        }
+        if (MarketOntology.READINESS.equals(message.getOntology())) {
+            launcher.recordReady(message.getSender().getLocalName());
+        } else if (MarketOntology.MARKET_DATA.equals(message.getOntology())) {
+            List<MarketDataUpdate> updates = MessageCodecs.decode(message);
+            for (MarketDataUpdate update : updates) {
+                if (update.getLastTradeAt() > 0) {
+                    launcher.recordTrade(update.getLastTradeAt());
+                }
+            }
+        }
+    }
+
+    /**
+     *  The market data subscription asks for the shortest interval, which the brokers raise to their tick.
+     * **/
+    public void openBarrier(List<String> brokerNames, List<String> consumerNames) {
+        ACLMessage subscription = new ACLMessage(ACLMessage.SUBSCRIBE);
+        brokerNames.forEach(name -> subscription.addReceiver(new AID(name, AID.ISLOCALNAME)));
+        subscription.setOntology(MarketOntology.MARKET_DATA);
+        subscription.setConversationId(getLocalName() + "-market-data");
+        subscription.addUserDefinedParameter(MarketOntology.INTERVAL_PARAMETER, "0");
+        send(subscription);
+
+        ACLMessage start = new ACLMessage(ACLMessage.INFORM);
+        consumerNames.forEach(name -> start.addReceiver(new AID(name, AID.ISLOCALNAME)));
+        start.setOntology(MarketOntology.READINESS);
+        start.setContent("start-trading");
+        send(start);
+    }
+}
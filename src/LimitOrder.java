@@ -0,0 +1,57 @@
+import java.io.Serializable;
+
+/**
+ *  An order for a broker's order book: a supplier's standing ask or a consumer's bid for quantity units of
+ *  a type at price or better. Bids expire at expiresAt, in epoch milliseconds. Asks have no expiry and
+ *  stand until the supplier posts the next one for the type.
+ * **/
+public class LimitOrder implements Serializable {
+    private CarComponentType type;
+    private int quantity;
+    private double price;
+    private long expiresAt;
+
+    public LimitOrder(CarComponentType type, int quantity, double price, long expiresAt) {
+        this.type = type;
+        this.quantity = quantity;
+        this.price = price;
+        this.expiresAt = expiresAt;
+    }
+
+    public CarComponentType getType() {
+        return type;
+    }
+
+    public void setType(CarComponentType type) {
+        this.type = type;
+    }
+
+    public int getQuantity() {
+        return quantity;
+    }
+
+    public void setQuantity(int quantity) {
+        this.quantity = quantity;
+    }
+
+    public double getPrice() {
+        return price;
+    }
+
+    public void setPrice(double price) {
+        this.price = price;
+    }
+
+    public long getExpiresAt() {
+        return expiresAt;
+    }
+
+    public void setExpiresAt(long expiresAt) {
+        this.expiresAt = expiresAt;
+    }
+
+    @Override
+    public String toString() {
+        return quantity + "x " + type + " @ " + price;
+    }
+}
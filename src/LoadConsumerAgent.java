@@ -0,0 +1,192 @@
+import jade.core.AID;
+import jade.core.behaviours.*;
+import jade.lang.acl.ACLMessage;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.SplittableRandom;
+
+/**
+ *  Open-loop consumer driven by a LoadGenerator. It sends CFPs on the schedule of the generator's arrival
+ *  process whether or not earlier trades finished, accepts the cheapest proposal of every one of them and
+ *  reports how each trade ended to the step of the schedule it was sent in. Unlike ConsumerAgent it does
+ *  not keep a balance or back off when the broker refuses, since its job is to find out how the broker
+ *  copes with the offered load. In the order book trading mode it posts a bid for one unit instead of each
+ *  CFP, which the broker fills from the standing asks without asking the suppliers.
+ * **/
+public class LoadConsumerAgent extends BrokerClientAgent {
+    private static final long RATE_POLL_MILLIS = 50;
+    private static final Map<CarComponentType, Double> REFERENCE_PRICES = CarComponentType.initializeReferencePrices();
+
+    private final LoadGenerator load;
+    private final SplittableRandom random;
+    private final Map<String, PendingTrade> pendingTrades;
+    private TimerWheel<PendingTrade> tradeTimeouts;
+    private long nextRequestNanos;
+    private double scheduledRate;
+    private long requestCounter;
+
+    private record PendingTrade(String id, LoadStep step, long scheduledNanos, long deadline) {}
+
+    public LoadConsumerAgent(LoadGenerator load, long seed) {
+        this.load = load;
+        this.random = new SplittableRandom(seed);
+        this.pendingTrades = new HashMap<>();
+    }
+
+    protected void setup() {
+        this.tradeTimeouts = new TimerWheel<>(50, 256, System.currentTimeMillis());
+        this.nextRequestNanos = 0;
+        this.scheduledRate = 0.0;
+        this.requestCounter = 0;
+
+        ParallelBehaviour loadAndRequestHandlingBehaviour = new ParallelBehaviour();
+        loadAndRequestHandlingBehaviour.addSubBehaviour(new RequestHandlingBehaviour());
+        loadAndRequestHandlingBehaviour.addSubBehaviour(createLoadBehaviour());
+
+        SequentialBehaviour initializationBehaviour = new SequentialBehaviour();
+        initializationBehaviour.addSubBehaviour(new BrokerSearchBehaviour(this, 2000));
+        initializationBehaviour.addSubBehaviour(loadAndRequestHandlingBehaviour);
+        addBehaviour(initializationBehaviour);
+    }
+
+    private Behaviour createLoadBehaviour() {
+        return new CyclicBehaviour() {
+            @Override
+            public void action() {
+                expireTrades();
+                long now = System.nanoTime();
+                LoadStep step = load.getCurrentStep();
+                double rate = load.getRatePerConsumer();
+                if (step == null || rate <= 0) {
+                    nextRequestNanos = now;
+                    scheduledRate = 0.0;
+                    block(RATE_POLL_MILLIS);
+                    return;
+                }
+                if (rate != scheduledRate) {
+                    // The gap to the next request was drawn at the old rate, so it is stretched to the new one.
+                    if (scheduledRate > 0 && nextRequestNanos > now) {
+                        nextRequestNanos = now + (long) ((nextRequestNanos - now) * scheduledRate / rate);
+                    }
+                    scheduledRate = rate;
+                }
+
+                // Requests that are due go out right away, even if the agent fell behind the schedule.
+                while (nextRequestNanos <= now) {
+                    sendPriceRequest(step, nextRequestNanos);
+                    nextRequestNanos += load.getArrivalProcess().nextGapNanos(rate, load.getBurstSize(), random);
+                }
+                // Never sleeps past the next poll, so a rate change during a ramp is seen in time.
+                block(Math.max(1, Math.min((nextRequestNanos - now) / 1_000_000, RATE_POLL_MILLIS)));
+            }
+        };
+    }
+
+    private void sendPriceRequest(LoadStep step, long scheduledNanos) {
+        step.recordSent();
+        CarComponentType type = load.getComponentTypeMix().next(random);
+        AID broker = brokerDirectory.getBrokerFor(type);
+        if (broker == null) {
+            step.recordFailed();
+            return;
+        }
+
+        PendingTrade trade = new PendingTrade(getLocalName() + "-load-" + (++requestCounter), step, scheduledNanos, System.currentTimeMillis() + load.getTimeoutMillis());
+        pendingTrades.put(trade.id(), trade);
+        tradeTimeouts.schedule(trade, trade.deadline());
+
+        ACLMessage priceRequest = new ACLMessage(ACLMessage.CFP);
+        priceRequest.setConversationId(trade.id());
+        priceRequest.setReplyWith(trade.id());
+        priceRequest.addReceiver(broker);
+        if (load.isOrderBook()) {
+            // Bids are limited far enough above the reference price to cross any ask of the price models.
+            priceRequest.setOntology(MarketOntology.ORDER);
+            try {
+                MessageCodecs.encode(new LimitOrder(type, 1, 2 * REFERENCE_PRICES.get(type), trade.deadline()), priceRequest);
+            } catch (IOException e) {
+                e.printStackTrace();
+                throw new RuntimeException(e);
+            }
+        } else {
+            priceRequest.setContent(type.name());
+        }
+        send(priceRequest);
+    }
+
+    private void expireTrades() {
+        tradeTimeouts.advance(System.currentTimeMillis(), trade -> {
+            if (pendingTrades.remove(trade.id(), trade)) {
+                trade.step().recordTimedOut();
+            }
+        });
+    }
+
+    private void acceptCheapestQuote(ACLMessage message) throws IOException, ClassNotFoundException {
+        PendingTrade trade = pendingTrades.get(message.getConversationId());
+        if (trade == null) {
+            return;
+        }
+        trade.step().recordQuoted(System.nanoTime() - trade.scheduledNanos());
+
+        List<PriceInformation> quotes = MessageCodecs.decode(message);
+        Optional<PriceInformation> cheapestQuote = ConsumerAgent.selectCheapestQuote(quotes);
+        if (cheapestQuote.isEmpty()) {
+            pendingTrades.remove(trade.id());
+            trade.step().recordFailed();
+            return;
+        }
+
+        PriceInformation acceptedOffer = new PriceInformation(cheapestQuote.get().getSupplier(), cheapestQuote.get().getPrice(), cheapestQuote.get().getType());
+        acceptedOffer.setDestinationAid(getAID());
+        ACLMessage acceptedProposal = new ACLMessage(ACLMessage.ACCEPT_PROPOSAL);
+        acceptedProposal.addReceiver(message.getSender());
+        acceptedProposal.setConversationId(trade.id());
+        acceptedProposal.addUserDefinedParameter(MarketOntology.SUPPLIER_PARAMETER, acceptedOffer.getSupplier().getName());
+        acceptedProposal.addUserDefinedParameter(MarketOntology.RECEIPT_PARAMETER, TradeReceipt.formatOffers(List.of(acceptedOffer)));
+        MessageCodecs.encode(acceptedOffer, acceptedProposal);
+        send(acceptedProposal);
+    }
+
+    /**
+     *  A fill of a bid counts as its quote. A bid that leaves the book without one failed.
+     * **/
+    private void handleBidReport(ACLMessage message) throws IOException, ClassNotFoundException {
+        PendingTrade trade = pendingTrades.get(message.getConversationId());
+        if (trade == null) {
+            return;
+        }
+        List<PriceInformation> filledUnits = MessageCodecs.decode(message);
+        if (!filledUnits.isEmpty()) {
+            trade.step().recordQuoted(System.nanoTime() - trade.scheduledNanos());
+        } else if ("0".equals(message.getUserDefinedParameter(MarketOntology.OPEN_QUANTITY_PARAMETER))) {
+            pendingTrades.remove(trade.id());
+            trade.step().recordFailed();
+        }
+    }
+
+    private void finishTrade(ACLMessage message) {
+        PendingTrade trade = pendingTrades.remove(message.getConversationId());
+        if (trade == null) {
+            return;
+        }
+        switch (message.getPerformative()) {
+            case ACLMessage.AGREE -> trade.step().recordCompleted(System.nanoTime() - trade.scheduledNanos());
+            case ACLMessage.REFUSE -> trade.step().recordRefused();
+            default -> trade.step().recordFailed();
+        }
+    }
+
+    protected void handleRequest(ACLMessage request) throws IOException, ClassNotFoundException {
+        switch (request.getPerformative()) {
+            case ACLMessage.PROPOSE -> acceptCheapestQuote(request);
+            case ACLMessage.INFORM -> handleBidReport(request);
+            case ACLMessage.AGREE, ACLMessage.REFUSE, ACLMessage.FAILURE -> finishTrade(request);
+            default -> { }
+        }
+    }
+}
@@ -0,0 +1,196 @@
+import jade.core.Profile;
+import jade.core.ProfileImpl;
+import jade.core.Runtime;
+import jade.wrapper.ContainerController;
+
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ *  Open-loop load generator. It boots an in-process market with the given number of brokers, suppliers
+ *  and load consumers, and steps the total request rate of the consumers through a schedule. The consumers
+ *  keep sending at the scheduled rate whether or not the market keeps up, so the report shows where
+ *  throughput stops following the offered load and latency and timeouts take off.
+ *
+ *  Every step starts with an unmeasured linear ramp from the previous rate, so that the market is not hit
+ *  by a step change. Rates are in requests per second for the whole market. Usage:
+ *      java LoadGenerator consumers=20 suppliers=5 arrival=poisson rates=50|100|200|400 stepDuration=10
+ * **/
+public class LoadGenerator {
+    private static final long STARTUP_MILLIS = 5000;
+    private static final long RAMP_TICK_MILLIS = 100;
+
+    private final int consumerCount;
+    private final int supplierCount;
+    private final int brokerCount;
+    private final double[] rates;
+    private final long stepDurationMillis;
+    private final long rampUpMillis;
+    private final long timeoutMillis;
+    private final long seed;
+    private final ArrivalProcess arrivalProcess;
+    private final int burstSize;
+    private final ComponentTypeMix componentTypeMix;
+    private final boolean orderBook;
+    private final List<LoadStep> steps;
+    private volatile LoadStep currentStep;
+    private volatile double ratePerConsumer;
+
+    public LoadGenerator(AgentArguments arguments) {
+        this.consumerCount = arguments.getInt("consumers", 10);
+        this.supplierCount = arguments.getInt("suppliers", 5);
+        this.brokerCount = arguments.getInt("brokers", 1);
+        this.rates = Arrays.stream(arguments.getString("rates", "50|100|200").split("\\|")).mapToDouble(Double::parseDouble).toArray();
+        this.stepDurationMillis = arguments.getLong("stepDuration", 10) * 1000;
+        this.rampUpMillis = arguments.getLong("rampUp", 5) * 1000;
+        this.timeoutMillis = arguments.getLong("timeout", 5000);
+        this.seed = arguments.getLong("seed", 42);
+        this.arrivalProcess = ArrivalProcess.valueOf(arguments.getString("arrival", "poisson").toUpperCase());
+        this.burstSize = arguments.getInt("burstSize", 10);
+        String defaultTypes = String.join("|", ConsumerAgent.initializeBuyableComponents());
+        this.componentTypeMix = new ComponentTypeMix(BrokerDirectory.parseComponentTypes(arguments.getString("types", defaultTypes).replace('|', ',')), arguments.getDouble("skew", 1.0));
+        this.orderBook = "orderbook".equals(arguments.getString("tradingMode", "rfq"));
+        this.steps = new ArrayList<>();
+    }
+
+    public LoadStep getCurrentStep() {
+        return currentStep;
+    }
+
+    public double getRatePerConsumer() {
+        return ratePerConsumer;
+    }
+
+    public ArrivalProcess getArrivalProcess() {
+        return arrivalProcess;
+    }
+
+    public int getBurstSize() {
+        return burstSize;
+    }
+
+    public ComponentTypeMix getComponentTypeMix() {
+        return componentTypeMix;
+    }
+
+    public long getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+    public boolean isOrderBook() {
+        return orderBook;
+    }
+
+    public void run() throws Exception {
+        Profile profile = new ProfileImpl(null, findFreePort(), null);
+        profile.setParameter(Profile.GUI, "false");
+        ContainerController container = Runtime.instance().createMainContainer(profile);
+        try {
+            startMarket(container);
+            Thread.sleep(STARTUP_MILLIS);
+
+            double previousRate = 0.0;
+            for (double rate : rates) {
+                ramp(previousRate, rate);
+                LoadStep step = new LoadStep(rate, true);
+                step.start();
+                setLoad(step, rate);
+                Thread.sleep(stepDurationMillis);
+                step.end();
+                steps.add(step);
+                previousRate = rate;
+            }
+            setLoad(null, 0.0);
+            // Requests of the last step get the time to complete or time out before the report.
+            Thread.sleep(timeoutMillis + 500);
+            printReport();
+        } finally {
+            container.kill();
+        }
+    }
+
+    private void startMarket(ContainerController container) throws Exception {
+        List<String> brokerNames = brokerCount == 1 ? List.of("broker")
+                : IntStream.rangeClosed(1, brokerCount).mapToObj(i -> "broker-" + i).toList();
+        String shardGroup = "shardGroup=" + String.join("|", brokerNames);
+        for (String brokerName : brokerNames) {
+            Object[] brokerArguments = brokerCount == 1 ? new Object[0] : new Object[]{shardGroup};
+            container.createNewAgent(brokerName, BrokerAgent.class.getName(), brokerArguments).start();
+        }
+        for (int i = 0; i < supplierCount; ++i) {
+            // Enough stock that a stock-out never shows up as an error of the market.
+            container.createNewAgent("supplier-" + i, SupplierAgent.class.getName(), new Object[]{"stock=1000000000", "tradingMode=" + (orderBook ? "orderbook" : "rfq")}).start();
+        }
+        for (int i = 0; i < consumerCount; ++i) {
+            container.acceptNewAgent("load-" + i, new LoadConsumerAgent(this, seed + i)).start();
+        }
+    }
+
+    private void ramp(double fromRate, double toRate) throws InterruptedException {
+        if (rampUpMillis <= 0) {
+            return;
+        }
+        LoadStep rampStep = new LoadStep(toRate, false);
+        long rampStart = System.currentTimeMillis();
+        long elapsed;
+        while ((elapsed = System.currentTimeMillis() - rampStart) < rampUpMillis) {
+            setLoad(rampStep, fromRate + (toRate - fromRate) * elapsed / rampUpMillis);
+            Thread.sleep(RAMP_TICK_MILLIS);
+        }
+    }
+
+    private void setLoad(LoadStep step, double totalRate) {
+        this.ratePerConsumer = totalRate / consumerCount;
+        this.currentStep = step;
+    }
+
+    private void printReport() {
+        System.out.printf("%d load consumers, %d suppliers, %d broker(s), %s arrivals, %s, type mix %s.%n", consumerCount, supplierCount, brokerCount,
+                arrivalProcess.name().toLowerCase(), orderBook ? "order book bids" : "RFQs", describeTypeMix());
+        System.out.printf("%10s %10s %10s %9s %9s %9s %10s %10s %10s %10s %10s %10s%n", "target/s", "sent/s", "trades/s", "refused%", "failed%", "timeout%",
+                "quote p50", "quote p99", "trade p50", "trade p90", "trade p99", "trade max");
+        LoadStep knee = null;
+        for (LoadStep step : steps) {
+            double seconds = step.getDurationSeconds();
+            long sent = Math.max(step.getSent(), 1);
+            LatencyHistogram quotes = step.getQuoteLatency();
+            LatencyHistogram trades = step.getTradeLatency();
+            System.out.printf("%10.1f %10.1f %10.1f %9.2f %9.2f %9.2f %10.2f %10.2f %10.2f %10.2f %10.2f %10.2f%n", step.getTargetRate(), step.getSent() / seconds,
+                    step.getCompleted() / seconds, 100.0 * step.getRefused() / sent, 100.0 * step.getFailed() / sent, 100.0 * step.getTimedOut() / sent,
+                    toMillis(quotes.getPercentile(0.5)), toMillis(quotes.getPercentile(0.99)), toMillis(trades.getPercentile(0.5)),
+                    toMillis(trades.getPercentile(0.9)), toMillis(trades.getPercentile(0.99)), toMillis(trades.getMaximum()));
+            if (knee == null || step.getCompleted() / seconds > knee.getCompleted() / knee.getDurationSeconds()) {
+                knee = step;
+            }
+        }
+        System.out.println("Latencies are in milliseconds, measured from the instant each request was scheduled. With order book bids, quotes are first fills.");
+        if (knee != null) {
+            System.out.printf("Throughput peaked at %.1f trades/s for an offered load of %.1f requests/s.%n", knee.getCompleted() / knee.getDurationSeconds(), knee.getTargetRate());
+        }
+    }
+
+    private String describeTypeMix() {
+        CarComponentType[] types = componentTypeMix.getTypes();
+        return IntStream.range(0, types.length).mapToObj(i -> String.format("%s %.0f%%", types[i], 100 * componentTypeMix.getShare(i)))
+                .collect(Collectors.joining(", "));
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / 1e6;
+    }
+
+    private static int findFreePort() throws Exception {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        new LoadGenerator(AgentArguments.of(args)).run();
+        System.exit(0);
+    }
+}
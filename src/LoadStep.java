@@ -0,0 +1,106 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ *  Outcome of the requests a load generator sent during one step of its schedule. Every request is
+ *  counted in the step it was sent in, even if it completes during the next one. Trade latencies run
+ *  from the instant the request was scheduled, not sent, so that a generator that falls behind does not
+ *  hide the queueing it ran into.
+ * **/
+public class LoadStep {
+    private final double targetRate;
+    private final boolean measured;
+    private final AtomicLong sent;
+    private final AtomicLong completed;
+    private final AtomicLong refused;
+    private final AtomicLong failed;
+    private final AtomicLong timedOut;
+    private final LatencyHistogram quoteLatency;
+    private final LatencyHistogram tradeLatency;
+    private volatile long startNanos;
+    private volatile long endNanos;
+
+    public LoadStep(double targetRate, boolean measured) {
+        this.targetRate = targetRate;
+        this.measured = measured;
+        this.sent = new AtomicLong();
+        this.completed = new AtomicLong();
+        this.refused = new AtomicLong();
+        this.failed = new AtomicLong();
+        this.timedOut = new AtomicLong();
+        this.quoteLatency = new LatencyHistogram();
+        this.tradeLatency = new LatencyHistogram();
+    }
+
+    public double getTargetRate() {
+        return targetRate;
+    }
+
+    public boolean isMeasured() {
+        return measured;
+    }
+
+    public void start() {
+        this.startNanos = System.nanoTime();
+    }
+
+    public void end() {
+        this.endNanos = System.nanoTime();
+    }
+
+    public double getDurationSeconds() {
+        return (endNanos - startNanos) / 1e9;
+    }
+
+    public void recordSent() {
+        sent.incrementAndGet();
+    }
+
+    public void recordQuoted(long latencyNanos) {
+        quoteLatency.record(latencyNanos);
+    }
+
+    public void recordCompleted(long latencyNanos) {
+        completed.incrementAndGet();
+        tradeLatency.record(latencyNanos);
+    }
+
+    public void recordRefused() {
+        refused.incrementAndGet();
+    }
+
+    public void recordFailed() {
+        failed.incrementAndGet();
+    }
+
+    public void recordTimedOut() {
+        timedOut.incrementAndGet();
+    }
+
+    public long getSent() {
+        return sent.get();
+    }
+
+    public long getCompleted() {
+        return completed.get();
+    }
+
+    public long getRefused() {
+        return refused.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    public long getTimedOut() {
+        return timedOut.get();
+    }
+
+    public LatencyHistogram getQuoteLatency() {
+        return quoteLatency;
+    }
+
+    public LatencyHistogram getTradeLatency() {
+        return tradeLatency;
+    }
+}
@@ -0,0 +1,164 @@
+import jade.core.AID;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ *  Market data a broker publishes to its subscribers: top of book and last trade per component type. The
+ *  feed keeps only the latest value of every type along with a version that moves when the value changes,
+ *  and every subscription remembers the versions it was last sent. Publishing sends a subscriber the types
+ *  whose version moved since, at most once per interval of the subscription. A slow subscriber therefore
+ *  gets fewer, conflated updates with the latest values instead of a backlog of every change, and an
+ *  update costs the same whatever the number of subscribers. The feed is used on the broker's agent thread
+ *  only.
+ * **/
+public class MarketDataFeed {
+    private static final CarComponentType[] COMPONENT_TYPES = CarComponentType.values();
+
+    private final long minimumIntervalMillis;
+    private final double[] bestBids;
+    private final double[] bestAsks;
+    private final double[] lastPrices;
+    private final int[] lastQuantities;
+    private final long[] lastTradeTimes;
+    private final long[] versions;
+    private final Map<AID, Subscription> subscriptions;
+    private final Map<String, AID> subscribersByConversation;
+
+    public static final class Subscription {
+        private final AID subscriber;
+        private final String conversationId;
+        private final long intervalMillis;
+        private final long[] sentVersions;
+        private long nextPublishAt;
+
+        private Subscription(AID subscriber, String conversationId, long intervalMillis, long now) {
+            this.subscriber = subscriber;
+            this.conversationId = conversationId;
+            this.intervalMillis = intervalMillis;
+            this.sentVersions = new long[COMPONENT_TYPES.length];
+            // Every type starts out unsent, so the first update is a full snapshot.
+            Arrays.fill(sentVersions, -1);
+            this.nextPublishAt = now;
+        }
+
+        public AID getSubscriber() {
+            return subscriber;
+        }
+
+        public String getConversationId() {
+            return conversationId;
+        }
+    }
+
+    public MarketDataFeed(long minimumIntervalMillis) {
+        this.minimumIntervalMillis = minimumIntervalMillis;
+        this.bestBids = new double[COMPONENT_TYPES.length];
+        this.bestAsks = new double[COMPONENT_TYPES.length];
+        this.lastPrices = new double[COMPONENT_TYPES.length];
+        Arrays.fill(bestBids, Double.NaN);
+        Arrays.fill(bestAsks, Double.NaN);
+        Arrays.fill(lastPrices, Double.NaN);
+        this.lastQuantities = new int[COMPONENT_TYPES.length];
+        this.lastTradeTimes = new long[COMPONENT_TYPES.length];
+        this.versions = new long[COMPONENT_TYPES.length];
+        this.subscriptions = new LinkedHashMap<>();
+        this.subscribersByConversation = new HashMap<>();
+    }
+
+    /**
+     *  Subscribes an agent, or renews its subscription with a new conversation and interval. The interval is
+     *  raised to the minimum interval of the feed.
+     * **/
+    public void subscribe(AID subscriber, String conversationId, long intervalMillis, long now) {
+        unsubscribe(subscriber);
+        subscriptions.put(subscriber, new Subscription(subscriber, conversationId, Math.max(minimumIntervalMillis, intervalMillis), now));
+        if (conversationId != null) {
+            subscribersByConversation.put(conversationId, subscriber);
+        }
+    }
+
+    public boolean unsubscribe(AID subscriber) {
+        Subscription subscription = subscriptions.remove(subscriber);
+        if (subscription == null) {
+            return false;
+        }
+        if (subscription.conversationId != null) {
+            subscribersByConversation.remove(subscription.conversationId);
+        }
+        return true;
+    }
+
+    public boolean unsubscribeConversation(String conversationId) {
+        AID subscriber = conversationId != null ? subscribersByConversation.get(conversationId) : null;
+        return subscriber != null && unsubscribe(subscriber);
+    }
+
+    public boolean hasSubscribers() {
+        return !subscriptions.isEmpty();
+    }
+
+    public int getSubscriberCount() {
+        return subscriptions.size();
+    }
+
+    /**
+     *  Sets the best bid and ask of a type, NaN standing for none. Only a change moves the version.
+     * **/
+    public void updateTopOfBook(CarComponentType type, double bestBid, double bestAsk) {
+        int ordinal = type.ordinal();
+        if (Double.compare(bestBids[ordinal], bestBid) != 0 || Double.compare(bestAsks[ordinal], bestAsk) != 0) {
+            bestBids[ordinal] = bestBid;
+            bestAsks[ordinal] = bestAsk;
+            ++versions[ordinal];
+        }
+    }
+
+    public void recordTrade(CarComponentType type, int quantity, double price, long now) {
+        int ordinal = type.ordinal();
+        lastPrices[ordinal] = price;
+        lastQuantities[ordinal] = quantity;
+        lastTradeTimes[ordinal] = now;
+        ++versions[ordinal];
+    }
+
+    public MarketDataUpdate getUpdate(CarComponentType type) {
+        int ordinal = type.ordinal();
+        return new MarketDataUpdate(type, toPrice(bestBids[ordinal]), toPrice(bestAsks[ordinal]), toPrice(lastPrices[ordinal]),
+                lastQuantities[ordinal], lastTradeTimes[ordinal]);
+    }
+
+    private static Double toPrice(double price) {
+        return Double.isNaN(price) ? null : price;
+    }
+
+    /**
+     *  Hands every subscription that is due the types that changed since it was last sent, if any.
+     * **/
+    public void publish(long now, BiConsumer<Subscription, List<MarketDataUpdate>> send) {
+        for (Subscription subscription : subscriptions.values()) {
+            if (now < subscription.nextPublishAt) {
+                continue;
+            }
+            List<MarketDataUpdate> updates = null;
+            for (int ordinal = 0; ordinal < COMPONENT_TYPES.length; ++ordinal) {
+                if (subscription.sentVersions[ordinal] != versions[ordinal]) {
+                    subscription.sentVersions[ordinal] = versions[ordinal];
+                    if (updates == null) {
+                        updates = new ArrayList<>();
+                    }
+                    updates.add(getUpdate(COMPONENT_TYPES[ordinal]));
+                }
+            }
+            if (updates != null) {
+                subscription.nextPublishAt = now + subscription.intervalMillis;
+                send.accept(subscription, updates);
+            }
+        }
+    }
+}
@@ -0,0 +1,77 @@
+import java.io.Serializable;
+
+/**
+ *  The market data of one component type as a broker publishes it: the best bid and ask it knows of and the
+ *  last trade it saw. Prices are null while there is none. The best ask is the cheapest fresh supplier quote
+ *  or standing ask, and the best bid the highest bid resting in the order book.
+ * **/
+public class MarketDataUpdate implements Serializable {
+    private CarComponentType type;
+    private Double bestBid;
+    private Double bestAsk;
+    private Double lastPrice;
+    private int lastQuantity;
+    private long lastTradeAt;
+
+    public MarketDataUpdate(CarComponentType type, Double bestBid, Double bestAsk, Double lastPrice, int lastQuantity, long lastTradeAt) {
+        this.type = type;
+        this.bestBid = bestBid;
+        this.bestAsk = bestAsk;
+        this.lastPrice = lastPrice;
+        this.lastQuantity = lastQuantity;
+        this.lastTradeAt = lastTradeAt;
+    }
+
+    public CarComponentType getType() {
+        return type;
+    }
+
+    public void setType(CarComponentType type) {
+        this.type = type;
+    }
+
+    public Double getBestBid() {
+        return bestBid;
+    }
+
+    public void setBestBid(Double bestBid) {
+        this.bestBid = bestBid;
+    }
+
+    public Double getBestAsk() {
+        return bestAsk;
+    }
+
+    public void setBestAsk(Double bestAsk) {
+        this.bestAsk = bestAsk;
+    }
+
+    public Double getLastPrice() {
+        return lastPrice;
+    }
+
+    public void setLastPrice(Double lastPrice) {
+        this.lastPrice = lastPrice;
+    }
+
+    public int getLastQuantity() {
+        return lastQuantity;
+    }
+
+    public void setLastQuantity(int lastQuantity) {
+        this.lastQuantity = lastQuantity;
+    }
+
+    public long getLastTradeAt() {
+        return lastTradeAt;
+    }
+
+    public void setLastTradeAt(long lastTradeAt) {
+        this.lastTradeAt = lastTradeAt;
+    }
+
+    @Override
+    public String toString() {
+        return type + " bid " + bestBid + " ask " + bestAsk + " last " + (lastPrice == null ? "none" : lastQuantity + " @ " + lastPrice);
+    }
+}
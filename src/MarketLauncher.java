@@ -0,0 +1,185 @@
+import jade.core.Profile;
+import jade.core.ProfileImpl;
+import jade.core.Runtime;
+import jade.wrapper.AgentController;
+import jade.wrapper.ContainerController;
+
+import java.lang.management.ManagementFactory;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+/**
+ *  Boots a market in-process from a topology given on the command line, without the fixed start-up waits
+ *  of agents started through jade.Boot. The brokers are started first, then the suppliers once every
+ *  broker is in the yellow pages, then the consumers once every supplier got the AGREE of each broker it
+ *  registered with. Each agent tells the launcher's LaunchCoordinatorAgent when it is ready, and the next
+ *  kind of agents is only started when all of the previous kind are. Consumers that are ready wait for the
+ *  barrier, which opens once the last of them is, and then send their first request right away.
+ *
+ *  Arguments prefixed with broker., supplier. or consumer. are passed on to every agent of that kind, e.g.
+ *  consumer.requestPeriod=500. The launcher prints how long every stage took and when the first trade
+ *  happened, and keeps the market running for duration seconds, or until it is stopped with duration=0.
+ *  At most startWindow agents are started but not ready at a time: a new JADE agent spins until the
+ *  platform has taken it in, and thousands of them spinning at once slow the platform down.
+ *  Usage:
+ *      java MarketLauncher brokers=2 suppliers=50 consumers=2000 consumer.requestPeriod=1000 duration=60
+ * **/
+public class MarketLauncher {
+    private static final String COORDINATOR_NAME = "launcher";
+    private static final String[] AGENT_KINDS = {"broker", "supplier", "consumer"};
+
+    private final int brokerCount;
+    private final int supplierCount;
+    private final int consumerCount;
+    private final long readyTimeoutMillis;
+    private final long durationMillis;
+    private final Semaphore startingAgents;
+    private final Map<String, List<String>> agentArguments;
+    private final Map<String, CountDownLatch> pendingAgents;
+    private final CountDownLatch firstTradeLatch;
+    private volatile long firstTradeAt;
+    private long launchedAt;
+
+    public MarketLauncher(String[] args) {
+        AgentArguments arguments = AgentArguments.of(args);
+        this.brokerCount = arguments.getInt("brokers", 1);
+        this.supplierCount = arguments.getInt("suppliers", 5);
+        this.consumerCount = arguments.getInt("consumers", 20);
+        this.readyTimeoutMillis = arguments.getLong("readyTimeout", 60) * 1000;
+        this.durationMillis = arguments.getLong("duration", 0) * 1000;
+        this.startingAgents = new Semaphore(arguments.getInt("startWindow", 64));
+        this.agentArguments = new HashMap<>();
+        this.pendingAgents = new ConcurrentHashMap<>();
+        this.firstTradeLatch = new CountDownLatch(1);
+        initializeAgentArguments(args, arguments.getInt("shardReplicas", 1));
+    }
+
+    /**
+     *  Every agent reports to the coordinator. Suppliers and consumers are given the brokers instead of
+     *  searching the yellow pages, where thousands of searches would queue up behind each other, and start
+     *  straight away, since the launcher only starts them once the brokers are registered.
+     * **/
+    private void initializeAgentArguments(String[] args, int shardReplicas) {
+        String brokers = String.join("|", getAgentNames("broker", brokerCount));
+        for (String kind : AGENT_KINDS) {
+            List<String> kindArguments = new ArrayList<>(List.of("readiness=" + COORDINATOR_NAME, "brokerSearchDelay=0", "registrationDelay=0",
+                    "shardReplicas=" + shardReplicas));
+            if (kind.equals("broker") && brokerCount > 1) {
+                kindArguments.add("shardGroup=" + brokers);
+            } else if (!kind.equals("broker")) {
+                kindArguments.add("brokers=" + brokers);
+            }
+            for (String argument : args) {
+                if (argument.startsWith(kind + ".")) {
+                    kindArguments.add(argument.substring(kind.length() + 1));
+                }
+            }
+            agentArguments.put(kind, kindArguments);
+        }
+    }
+
+    private static List<String> getAgentNames(String kind, int count) {
+        return IntStream.range(0, count).mapToObj(i -> kind + "-" + i).toList();
+    }
+
+    public void recordReady(String agentName) {
+        CountDownLatch stage = pendingAgents.remove(agentName);
+        if (stage != null) {
+            startingAgents.release();
+            stage.countDown();
+        }
+    }
+
+    public void recordTrade(long tradedAt) {
+        if (firstTradeLatch.getCount() > 0) {
+            firstTradeAt = tradedAt;
+            firstTradeLatch.countDown();
+        }
+    }
+
+    public boolean run() throws Exception {
+        launchedAt = System.currentTimeMillis();
+        Profile profile = new ProfileImpl(null, findFreePort(), null);
+        profile.setParameter(Profile.GUI, "false");
+        ContainerController container = Runtime.instance().createMainContainer(profile);
+        try {
+            LaunchCoordinatorAgent coordinator = new LaunchCoordinatorAgent(this);
+            AgentController coordinatorController = container.acceptNewAgent(COORDINATOR_NAME, coordinator);
+            coordinatorController.start();
+            printStage("Platform up");
+
+            List<String> brokerNames = getAgentNames("broker", brokerCount);
+            List<String> consumerNames = getAgentNames("consumer", consumerCount);
+            if (!startAgents(container, "broker", brokerNames, BrokerAgent.class)
+                    || !startAgents(container, "supplier", getAgentNames("supplier", supplierCount), SupplierAgent.class)
+                    || !startAgents(container, "consumer", consumerNames, ConsumerAgent.class)) {
+                return false;
+            }
+
+            coordinatorController.putO2AObject((Runnable) () -> coordinator.openBarrier(brokerNames, consumerNames), AgentController.ASYNC);
+            printStage("Barrier open");
+            if (!firstTradeLatch.await(readyTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                System.out.println("No trade within " + readyTimeoutMillis / 1000 + " s of opening the barrier.");
+                return false;
+            }
+            System.out.printf("%-40s %8d ms (%d ms since the JVM started)%n", "First trade", firstTradeAt - launchedAt,
+                    firstTradeAt - ManagementFactory.getRuntimeMXBean().getStartTime());
+
+            if (durationMillis > 0) {
+                Thread.sleep(durationMillis);
+            } else {
+                Thread.currentThread().join();
+            }
+            return true;
+        } finally {
+            container.kill();
+        }
+    }
+
+    /**
+     *  Starts every agent of a kind and waits until all of them said they are ready, or reports the ones
+     *  that did not within readyTimeout seconds.
+     * **/
+    private boolean startAgents(ContainerController container, String kind, List<String> names, Class<?> agentClass) throws Exception {
+        CountDownLatch stage = new CountDownLatch(names.size());
+        names.forEach(name -> pendingAgents.put(name, stage));
+        Object[] arguments = agentArguments.get(kind).toArray();
+        for (String name : names) {
+            if (!startingAgents.tryAcquire(readyTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                break;
+            }
+            container.createNewAgent(name, agentClass.getName(), arguments).start();
+        }
+        if (!stage.await(readyTimeoutMillis, TimeUnit.MILLISECONDS)) {
+            List<String> missing = names.stream().filter(pendingAgents::containsKey).toList();
+            System.out.println(missing.size() + " " + kind + "s were not ready within " + readyTimeoutMillis / 1000 + " s, among them "
+                    + missing.subList(0, Math.min(10, missing.size())));
+            return false;
+        }
+        printStage(names.size() + " " + kind + "s ready");
+        return true;
+    }
+
+    private void printStage(String stage) {
+        System.out.printf("%-40s %8d ms%n", stage, System.currentTimeMillis() - launchedAt);
+    }
+
+    private static int findFreePort() throws Exception {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        boolean started = new MarketLauncher(args).run();
+        System.exit(started ? 0 : 1);
+    }
+}
@@ -0,0 +1,174 @@
+import jade.lang.acl.ACLMessage;
+
+import javax.management.*;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.LongSupplier;
+
+/**
+ *  Metrics of one agent: message counters per ACL performative, counters per component type, latency
+ *  histograms for the legs of the trading protocol and gauges that are read when a snapshot is taken.
+ *  Counters and histograms are lock-free, so recording from the agent thread never waits on a reader.
+ *  Histograms and gauges are registered while the agent sets up and the registry does not change after.
+ *
+ *  The metrics are published as a JMX MBean under carmarket:type=<agent type>,name=<agent name> and can
+ *  be appended as one JSON object per line to a snapshot file, so that runs can be compared afterwards.
+ *  Durations are reported in microseconds.
+ * **/
+public class MarketMetrics implements DynamicMBean {
+    private static final String[] PERFORMATIVES = ACLMessage.getAllPerformativeNames();
+    private static final CarComponentType[] COMPONENT_TYPES = CarComponentType.values();
+    private static final double[] PERCENTILES = {0.5, 0.9, 0.99, 0.999};
+    private static final String[] PERCENTILE_NAMES = {"p50", "p90", "p99", "p999"};
+
+    private final String agentType;
+    private final String agentName;
+    private final AtomicLongArray messagesByPerformative;
+    private final AtomicLongArray componentsByType;
+    private final Map<String, LatencyHistogram> histograms;
+    private final Map<String, LongSupplier> gauges;
+    private ObjectName objectName;
+
+    public MarketMetrics(String agentType, String agentName) {
+        this.agentType = agentType;
+        this.agentName = agentName;
+        this.messagesByPerformative = new AtomicLongArray(PERFORMATIVES.length);
+        this.componentsByType = new AtomicLongArray(COMPONENT_TYPES.length);
+        this.histograms = new LinkedHashMap<>();
+        this.gauges = new LinkedHashMap<>();
+    }
+
+    public LatencyHistogram histogram(String name) {
+        return histograms.computeIfAbsent(name, key -> new LatencyHistogram());
+    }
+
+    public void gauge(String name, LongSupplier gauge) {
+        gauges.put(name, gauge);
+    }
+
+    public void countMessage(int performative) {
+        if (performative >= 0 && performative < PERFORMATIVES.length) {
+            messagesByPerformative.incrementAndGet(performative);
+        }
+    }
+
+    public void countComponent(CarComponentType type, int count) {
+        componentsByType.addAndGet(type.ordinal(), count);
+    }
+
+    /**
+     *  Records the time since a message arrived in the agent's mailbox, which JADE stamps with millisecond
+     *  resolution. Messages that never went through a mailbox have no stamp and are skipped.
+     * **/
+    public static void recordSincePosted(LatencyHistogram histogram, ACLMessage message) {
+        long postTimeStamp = message.getPostTimeStamp();
+        if (postTimeStamp > 0) {
+            histogram.record((System.currentTimeMillis() - postTimeStamp) * 1_000_000);
+        }
+    }
+
+    public Map<String, Number> snapshot() {
+        Map<String, Number> snapshot = new LinkedHashMap<>();
+        for (int performative = 0; performative < PERFORMATIVES.length; ++performative) {
+            snapshot.put("messages." + PERFORMATIVES[performative], messagesByPerformative.get(performative));
+        }
+        for (CarComponentType type : COMPONENT_TYPES) {
+            snapshot.put("components." + type, componentsByType.get(type.ordinal()));
+        }
+        histograms.forEach((name, histogram) -> {
+            snapshot.put(name + ".count", histogram.getCount());
+            snapshot.put(name + ".mean", histogram.getMean() / 1000.0);
+            for (int i = 0; i < PERCENTILES.length; ++i) {
+                snapshot.put(name + "." + PERCENTILE_NAMES[i], histogram.getPercentile(PERCENTILES[i]) / 1000.0);
+            }
+            snapshot.put(name + ".max", histogram.getMaximum() / 1000.0);
+        });
+        gauges.forEach((name, gauge) -> snapshot.put(name, gauge.getAsLong()));
+        return snapshot;
+    }
+
+    public void appendSnapshot(Path file) throws IOException {
+        StringBuilder line = new StringBuilder(4096);
+        line.append("{\"timestamp\":").append(System.currentTimeMillis()).append(",\"agent\":\"").append(agentName).append('"');
+        snapshot().forEach((name, value) -> line.append(",\"").append(name).append("\":").append(value));
+        line.append("}\n");
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        Files.writeString(file, line, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    public void registerMBean() {
+        try {
+            objectName = new ObjectName("carmarket:type=" + agentType + ",name=" + ObjectName.quote(agentName));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        } catch (JMException e) {
+            objectName = null;
+            System.out.println("Metrics of " + agentName + " could not be registered over JMX: " + e.getMessage());
+        }
+    }
+
+    public void unregisterMBean() {
+        if (objectName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (JMException e) {
+            e.printStackTrace();
+        }
+        objectName = null;
+    }
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        Number value = snapshot().get(attribute);
+        if (value == null) {
+            throw new AttributeNotFoundException(attribute);
+        }
+        return value;
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        Map<String, Number> snapshot = snapshot();
+        AttributeList attributeList = new AttributeList();
+        for (String attribute : attributes) {
+            if (snapshot.containsKey(attribute)) {
+                attributeList.add(new Attribute(attribute, snapshot.get(attribute)));
+            }
+        }
+        return attributeList;
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("Market metrics are read-only.");
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+        throw new ReflectionException(new NoSuchMethodException(actionName));
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        Map<String, Number> snapshot = snapshot();
+        MBeanAttributeInfo[] attributes = new MBeanAttributeInfo[snapshot.size()];
+        int i = 0;
+        for (Map.Entry<String, Number> entry : snapshot.entrySet()) {
+            attributes[i++] = new MBeanAttributeInfo(entry.getKey(), entry.getValue().getClass().getName(), entry.getKey(), true, false, false);
+        }
+        return new MBeanInfo(getClass().getName(), "Market metrics of " + agentName, attributes, null, null, null);
+    }
+}
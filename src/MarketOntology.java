@@ -0,0 +1,32 @@
+/**
+ *  Names shared by the agents of the market protocol. Ontologies tell apart messages that share a
+ *  performative, messages of the original protocol leave the ontology slot empty. Parameters are ACL
+ *  user-defined parameters that carry protocol metadata next to the content. Service types and properties
+ *  are what brokers advertise in the yellow pages.
+ * **/
+public class MarketOntology {
+    public static final String QUOTE_UPDATE = "car-market-quote-update";
+    public static final String BASKET = "car-market-basket";
+    public static final String STOCK_OUT = "car-market-stock-out";
+    public static final String DELIVERY_RECEIPT = "car-market-delivery-receipt";
+    public static final String ORDER = "car-market-order";
+    public static final String MARKET_DATA = "car-market-data";
+    public static final String PRICE_HISTORY = "car-market-price-history";
+    public static final String READINESS = "car-market-readiness";
+    public static final String RESERVATION = "car-market-reservation";
+
+    public static final String BROKERSHIP_SERVICE_TYPE = "car-components-trading-brokership";
+    public static final String COMPONENT_TYPES_PROPERTY = "component-types";
+    public static final String LOAD_PROPERTY = "load";
+
+    public static final String RETRY_AFTER_PARAMETER = "retry-after";
+    public static final String CONSUMER_PARAMETER = "consumer";
+    public static final String SUPPLIER_PARAMETER = "supplier";
+    public static final String RECEIPT_PARAMETER = "receipt";
+    public static final String OPEN_QUANTITY_PARAMETER = "open-quantity";
+    public static final String INTERVAL_PARAMETER = "interval";
+    public static final String SERIES_PARAMETER = "series";
+    public static final String RESOLUTION_PARAMETER = "resolution";
+    public static final String FROM_PARAMETER = "from";
+    public static final String TO_PARAMETER = "to";
+}
@@ -0,0 +1,225 @@
+import java.util.Arrays;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+/**
+ *  Headless discrete-event version of the market. Consumers, suppliers and the broker are plain array
+ *  slots instead of JADE agents and their timers are events on an EventScheduler, so a run does not
+ *  depend on wall-clock time, containers or ACL messaging. The decision logic is the one the agents use:
+ *  suppliers reprice with the same PriceModel, consumers pick one of the buyable components
+ *  at random and buy the cheapest quote, and balances and stock are updated like in the agents.
+ *
+ *  A price request is settled at the simulated instant it is made, since the protocol hops add no
+ *  decisions of their own. Every random draw comes from one seeded generator, so two runs with the same
+ *  arguments produce the same market. Usage:
+ *      java MarketSimulation consumers=100000 suppliers=2000 duration=86400 seed=42
+ * **/
+public class MarketSimulation {
+    private static final int SUPPLIER_REPRICE = 0;
+    private static final int CONSUMER_PRICE_REQUEST = 1;
+
+    private final int consumerCount;
+    private final int supplierCount;
+    private final int typeCount;
+    private final long consumerPeriodMillis;
+    private final long supplierPeriodMillis;
+    private final PriceModel priceModel;
+    private final SplittableRandom random;
+    private final EventScheduler scheduler;
+
+    private final double[] referencePrices;
+    private final CarComponentType[] buyableTypes;
+    private final double[] supplierPrices;
+    private final int[] supplierStock;
+    private final double[] supplierBalances;
+    private final double[] consumerBalances;
+    private final int[] consumerHoldings;
+    private final int[] cheapestSupplierByType;
+    private final int[] inStockSupplierCountByType;
+
+    private long trades;
+    private long events;
+    private long soldOutAt;
+    private final long[] tradesByType;
+    private final double[] volumeByType;
+
+    public MarketSimulation(int consumerCount, int supplierCount, long consumerPeriodMillis, long supplierPeriodMillis, PriceModel priceModel, long seed) {
+        this.consumerCount = consumerCount;
+        this.supplierCount = supplierCount;
+        this.typeCount = CarComponentType.values().length;
+        this.consumerPeriodMillis = consumerPeriodMillis;
+        this.supplierPeriodMillis = supplierPeriodMillis;
+        this.priceModel = priceModel;
+        this.random = new SplittableRandom(seed);
+        this.scheduler = new EventScheduler(consumerCount + supplierCount);
+
+        this.referencePrices = toPriceArray(CarComponentType.initializeReferencePrices());
+        this.buyableTypes = Arrays.stream(ConsumerAgent.initializeBuyableComponents()).map(CarComponentType::valueOf).toArray(CarComponentType[]::new);
+        this.supplierPrices = new double[supplierCount * typeCount];
+        this.supplierStock = new int[supplierCount * typeCount];
+        this.supplierBalances = new double[supplierCount];
+        this.consumerBalances = new double[consumerCount];
+        this.consumerHoldings = new int[consumerCount * typeCount];
+        this.cheapestSupplierByType = new int[typeCount];
+        this.inStockSupplierCountByType = new int[typeCount];
+        this.tradesByType = new long[typeCount];
+        this.volumeByType = new double[typeCount];
+
+        Map<CarComponentType, Integer> initialStock = CarComponentType.initializeStock(100);
+        for (int supplier = 0; supplier < supplierCount; ++supplier) {
+            System.arraycopy(referencePrices, 0, supplierPrices, supplier * typeCount, typeCount);
+            for (Map.Entry<CarComponentType, Integer> stockEntry : initialStock.entrySet()) {
+                int type = stockEntry.getKey().ordinal();
+                supplierStock[supplier * typeCount + type] = stockEntry.getValue();
+                if (stockEntry.getValue() > 0 && !Double.isNaN(referencePrices[type])) {
+                    ++inStockSupplierCountByType[type];
+                }
+            }
+            scheduler.schedule(random.nextLong(supplierPeriodMillis), SUPPLIER_REPRICE, supplier);
+        }
+        Arrays.fill(consumerBalances, 10000.0);
+        for (int consumer = 0; consumer < consumerCount; ++consumer) {
+            scheduler.schedule(random.nextLong(consumerPeriodMillis), CONSUMER_PRICE_REQUEST, consumer);
+        }
+        Arrays.fill(cheapestSupplierByType, -1);
+        this.soldOutAt = -1;
+    }
+
+    private double[] toPriceArray(Map<CarComponentType, Double> prices) {
+        double[] priceArray = new double[typeCount];
+        Arrays.fill(priceArray, Double.NaN);
+        prices.forEach((type, price) -> priceArray[type.ordinal()] = price);
+        return priceArray;
+    }
+
+    /**
+     *  Runs the market until the given time, or until no supplier has any buyable type left: stock is never
+     *  replenished, so the events after that could not change the market and are not simulated.
+     * **/
+    public void run(long durationMillis) {
+        while (soldOutAt < 0 && scheduler.next(durationMillis)) {
+            ++events;
+            int actor = scheduler.getCurrentActor();
+            switch (scheduler.getCurrentKind()) {
+                case SUPPLIER_REPRICE -> repriceSupplier(actor);
+                case CONSUMER_PRICE_REQUEST -> handleConsumerPriceRequest(actor);
+                default -> throw new IllegalStateException("Unknown event kind " + scheduler.getCurrentKind());
+            }
+        }
+    }
+
+    private void repriceSupplier(int supplier) {
+        for (int type = 0; type < typeCount; ++type) {
+            double referencePrice = referencePrices[type];
+            if (!Double.isNaN(referencePrice) && supplierStock[supplier * typeCount + type] > 0) {
+                double price = priceModel.nextPrice(referencePrice, supplierPrices[supplier * typeCount + type], random);
+                updateCheapestSupplier(type, supplier, price);
+                supplierPrices[supplier * typeCount + type] = price;
+            }
+        }
+        scheduler.schedule(scheduler.getCurrentTime() + supplierPeriodMillis, SUPPLIER_REPRICE, supplier);
+    }
+
+    private void handleConsumerPriceRequest(int consumer) {
+        int type = buyableTypes[random.nextInt(buyableTypes.length)].ordinal();
+        int supplier = findCheapestSupplier(type);
+        if (supplier >= 0) {
+            double price = supplierPrices[supplier * typeCount + type];
+            consumerBalances[consumer] -= price;
+            consumerHoldings[consumer * typeCount + type] += 1;
+            supplierBalances[supplier] += price;
+            if (--supplierStock[supplier * typeCount + type] == 0) {
+                // Like the agents, a sold-out supplier stops quoting the type.
+                supplierPrices[supplier * typeCount + type] = Double.NaN;
+                cheapestSupplierByType[type] = -1;
+                if (--inStockSupplierCountByType[type] == 0 && isSoldOut()) {
+                    soldOutAt = scheduler.getCurrentTime();
+                }
+            }
+            ++trades;
+            ++tradesByType[type];
+            volumeByType[type] += price;
+        }
+        scheduler.schedule(scheduler.getCurrentTime() + consumerPeriodMillis, CONSUMER_PRICE_REQUEST, consumer);
+    }
+
+    private boolean isSoldOut() {
+        for (CarComponentType buyableType : buyableTypes) {
+            if (inStockSupplierCountByType[buyableType.ordinal()] > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     *  Keeps the cheapest supplier of a type up to date before a reprice is stored. A cheaper price simply takes over,
+     *  and only a price increase of the current cheapest supplier forces a full scan on the next request.
+     * **/
+    private void updateCheapestSupplier(int type, int supplier, double price) {
+        int cheapestSupplier = cheapestSupplierByType[type];
+        if (cheapestSupplier < 0) {
+            return;
+        }
+
+        double cheapestPrice = supplierPrices[cheapestSupplier * typeCount + type];
+        if (supplier == cheapestSupplier) {
+            if (price > cheapestPrice) {
+                cheapestSupplierByType[type] = -1;
+            }
+        } else if (price < cheapestPrice || (price == cheapestPrice && supplier < cheapestSupplier)) {
+            cheapestSupplierByType[type] = supplier;
+        }
+    }
+
+    /**
+     *  Index of the supplier with the lowest price for a type, or -1 once no supplier has it in stock, which is
+     *  known without a scan. Ties go to the supplier with the lowest index.
+     * **/
+    private int findCheapestSupplier(int type) {
+        if (inStockSupplierCountByType[type] == 0) {
+            return -1;
+        }
+        if (cheapestSupplierByType[type] < 0 && !Double.isNaN(referencePrices[type])) {
+            int cheapestSupplier = -1;
+            double cheapestPrice = Double.MAX_VALUE;
+            for (int supplier = 0; supplier < supplierCount; ++supplier) {
+                double price = supplierPrices[supplier * typeCount + type];
+                if (price < cheapestPrice) {
+                    cheapestPrice = price;
+                    cheapestSupplier = supplier;
+                }
+            }
+            cheapestSupplierByType[type] = cheapestSupplier;
+        }
+        return cheapestSupplierByType[type];
+    }
+
+    public void printSummary(long wallClockNanos) {
+        double supplierRevenue = Arrays.stream(supplierBalances).sum();
+        double consumerSpending = consumerCount * 10000.0 - Arrays.stream(consumerBalances).sum();
+        System.out.printf("Simulated %d consumers and %d suppliers up to %.1f s of market time.%n", consumerCount, supplierCount, scheduler.getCurrentTime() / 1000.0);
+        if (soldOutAt >= 0) {
+            System.out.printf("Every buyable component type sold out at %.1f s of market time, where the run stopped.%n", soldOutAt / 1000.0);
+        }
+        System.out.printf("Processed %d events and %d trades in %.3f s (%.0f events/s).%n", events, trades, wallClockNanos / 1e9, events / (wallClockNanos / 1e9));
+        for (int type = 0; type < typeCount; ++type) {
+            if (tradesByType[type] > 0) {
+                System.out.printf("  %-16s %12d trades, volume %16.2f, average price %10.2f%n", CarComponentType.values()[type],
+                        tradesByType[type], volumeByType[type], volumeByType[type] / tradesByType[type]);
+            }
+        }
+        System.out.printf("Supplier revenue %.2f, consumer spending %.2f.%n", supplierRevenue, consumerSpending);
+    }
+
+    public static void main(String[] args) {
+        AgentArguments arguments = AgentArguments.of(args);
+        MarketSimulation simulation = new MarketSimulation(arguments.getInt("consumers", 100000), arguments.getInt("suppliers", 2000),
+                arguments.getLong("consumerPeriod", 5000), arguments.getLong("supplierPeriod", 5000),
+                PriceModel.valueOf(arguments.getString("priceModel", "random_walk").toUpperCase()), arguments.getLong("seed", 42));
+
+        long start = System.nanoTime();
+        simulation.run(arguments.getLong("duration", 86400) * 1000);
+        simulation.printSummary(System.nanoTime() - start);
+    }
+}
@@ -0,0 +1,185 @@
+import jade.core.Profile;
+import jade.core.ProfileImpl;
+import jade.core.Runtime;
+import jade.wrapper.AgentController;
+import jade.wrapper.ContainerController;
+import jade.wrapper.ControllerException;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ *  Soak test of the market's memory use. It runs a broker, suppliers and consumers in-process for duration
+ *  seconds, with consumers requesting every requestPeriod milliseconds instead of every 5 seconds, so that
+ *  an hour of soak covers more than a day of trading at the default pace. Every churn seconds the consumers
+ *  are replaced by a new generation under new names and the first supplier restarts and subscribes again,
+ *  so that state kept per consumer or per subscription shows up as growth.
+ *
+ *  Every sample seconds it collects garbage and prints the heap in use along with the sizes the agents
+ *  report. At the end it fits a line through the samples of the second half of the run, after warm-up, and
+ *  fails with exit code 1 if the heap grew faster than maxHeapGrowth kilobytes per minute. Usage:
+ *      java MarketSoak duration=3600 sample=60 consumers=20 suppliers=5 churn=300 requestPeriod=250
+ * **/
+public class MarketSoak {
+    private static final long STARTUP_MILLIS = 5000;
+    private static final long DEFAULT_REQUEST_PERIOD_MILLIS = 5000;
+
+    private final long durationMillis;
+    private final long sampleMillis;
+    private final long churnMillis;
+    private final int consumerCount;
+    private final int supplierCount;
+    private final long requestPeriodMillis;
+    private final double maxHeapGrowthKilobytesPerMinute;
+    private final MBeanServer mBeanServer;
+    private final List<AgentController> consumers;
+    private final List<double[]> heapSamples;
+    private int generation;
+
+    public MarketSoak(AgentArguments arguments) {
+        this.durationMillis = arguments.getLong("duration", 600) * 1000;
+        this.sampleMillis = arguments.getLong("sample", 30) * 1000;
+        this.churnMillis = arguments.getLong("churn", 60) * 1000;
+        this.consumerCount = arguments.getInt("consumers", 20);
+        this.supplierCount = arguments.getInt("suppliers", 5);
+        this.requestPeriodMillis = arguments.getLong("requestPeriod", 250);
+        this.maxHeapGrowthKilobytesPerMinute = arguments.getDouble("maxHeapGrowth", 256);
+        this.mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        this.consumers = new ArrayList<>();
+        this.heapSamples = new ArrayList<>();
+        this.generation = 0;
+    }
+
+    public boolean run() throws Exception {
+        Profile profile = new ProfileImpl(null, findFreePort(), null);
+        profile.setParameter(Profile.GUI, "false");
+        ContainerController container = Runtime.instance().createMainContainer(profile);
+        try {
+            container.createNewAgent("broker", BrokerAgent.class.getName(), new Object[]{"journal=", "capture=", "jmx=true"}).start();
+            for (int i = 0; i < supplierCount; ++i) {
+                startSupplier(container, i);
+            }
+            startConsumers(container);
+            Thread.sleep(STARTUP_MILLIS);
+
+            System.out.printf("%8s %10s %10s %10s %10s %10s %12s %12s%n", "minutes", "heap MB", "trades", "suppliers", "open RFQs", "senders", "open orders", "owned units");
+            long start = System.currentTimeMillis();
+            long nextSample = start;
+            long nextChurn = churnMillis > 0 ? start + churnMillis : Long.MAX_VALUE;
+            long now;
+            while ((now = System.currentTimeMillis()) - start < durationMillis) {
+                if (now >= nextSample) {
+                    sample((now - start) / 60000.0);
+                    nextSample += sampleMillis;
+                }
+                if (now >= nextChurn) {
+                    churn(container);
+                    nextChurn += churnMillis;
+                }
+                Thread.sleep(Math.max(1, Math.min(nextSample, nextChurn) - System.currentTimeMillis()));
+            }
+            sample((System.currentTimeMillis() - start) / 60000.0);
+            return printVerdict();
+        } finally {
+            container.kill();
+        }
+    }
+
+    private void startSupplier(ContainerController container, int index) throws Exception {
+        container.createNewAgent("supplier-" + index, SupplierAgent.class.getName(), new Object[]{"stock=1000000000", "jmx=true"}).start();
+    }
+
+    private void startConsumers(ContainerController container) throws Exception {
+        for (int i = 0; i < consumerCount; ++i) {
+            AgentController consumer = container.createNewAgent("consumer-" + generation + "-" + i, ConsumerAgent.class.getName(),
+                    new Object[]{"requestPeriod=" + requestPeriodMillis, "jmx=true"});
+            consumer.start();
+            consumers.add(consumer);
+        }
+    }
+
+    private void churn(ContainerController container) throws Exception {
+        for (AgentController consumer : consumers) {
+            consumer.kill();
+        }
+        consumers.clear();
+        ++generation;
+        startConsumers(container);
+
+        container.getAgent("supplier-0").kill();
+        // Killing is asynchronous, and the name is only free again once the supplier has terminated.
+        while (isRunning(container, "supplier-0")) {
+            Thread.sleep(10);
+        }
+        startSupplier(container, 0);
+    }
+
+    private static boolean isRunning(ContainerController container, String name) {
+        try {
+            container.getAgent(name);
+            return true;
+        } catch (ControllerException e) {
+            return false;
+        }
+    }
+
+    private void sample(double minutes) throws Exception {
+        for (int i = 0; i < 3; ++i) {
+            System.gc();
+        }
+        double heapMegabytes = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed() / 1048576.0;
+        heapSamples.add(new double[]{minutes, heapMegabytes});
+        System.out.printf("%8.1f %10.1f %10d %10d %10d %10d %12d %12d%n", minutes, heapMegabytes, sumMetric("BrokerAgent", "messages.ACCEPT-PROPOSAL"),
+                sumMetric("BrokerAgent", "suppliers"), sumMetric("BrokerAgent", "open-rfqs"), sumMetric("BrokerAgent", "admission-senders"),
+                sumMetric("ConsumerAgent", "open-orders"), sumMetric("ConsumerAgent", "owned-components"));
+    }
+
+    private long sumMetric(String agentType, String metric) throws Exception {
+        long sum = 0;
+        for (ObjectName name : mBeanServer.queryNames(new ObjectName("carmarket:type=" + agentType + ",*"), null)) {
+            sum += ((Number) mBeanServer.getAttribute(name, metric)).longValue();
+        }
+        return sum;
+    }
+
+    /**
+     *  Least-squares slope of the heap samples taken in the second half of the run, in kilobytes per minute.
+     * **/
+    private double heapGrowthKilobytesPerMinute() {
+        List<double[]> samples = heapSamples.subList(heapSamples.size() / 2, heapSamples.size());
+        double meanMinutes = samples.stream().mapToDouble(sample -> sample[0]).average().orElse(0.0);
+        double meanHeap = samples.stream().mapToDouble(sample -> sample[1]).average().orElse(0.0);
+        double covariance = 0.0;
+        double variance = 0.0;
+        for (double[] sample : samples) {
+            covariance += (sample[0] - meanMinutes) * (sample[1] - meanHeap);
+            variance += (sample[0] - meanMinutes) * (sample[0] - meanMinutes);
+        }
+        return variance > 0 ? covariance / variance * 1024 : 0.0;
+    }
+
+    private boolean printVerdict() {
+        double growth = heapGrowthKilobytesPerMinute();
+        double tradingHours = durationMillis / 3600000.0 * DEFAULT_REQUEST_PERIOD_MILLIS / requestPeriodMillis;
+        System.out.printf("Ran %.1f minutes, about %.1f hours of trading at the default request period, with %d consumer generations.%n",
+                durationMillis / 60000.0, tradingHours, generation + 1);
+        boolean flat = growth <= maxHeapGrowthKilobytesPerMinute;
+        System.out.printf("Heap %s by %.1f KB/min over the second half of the run (limit %.1f KB/min).%n", flat ? "stayed flat, drifting" : "grew", growth, maxHeapGrowthKilobytesPerMinute);
+        return flat;
+    }
+
+    private static int findFreePort() throws Exception {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        boolean flat = new MarketSoak(AgentArguments.of(args)).run();
+        System.exit(flat ? 0 : 1);
+    }
+}
@@ -0,0 +1,78 @@
+import jade.core.AID;
+
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ *  The order books of a broker, one per component type, with the standing asks of the suppliers and the
+ *  expiry of resting bids. A supplier has at most one ask per type: a new one replaces it and goes to the
+ *  back of its price level, and an ask for no units only withdraws it. The engine is used on the broker's
+ *  agent thread only.
+ * **/
+public class MatchingEngine {
+    private final Map<CarComponentType, OrderBook> books;
+    private final Map<String, BookOrder> standingAsks;
+    private final TimerWheel<BookOrder> bidExpiries;
+
+    public MatchingEngine(long tickMillis, long startMillis) {
+        this.books = new EnumMap<>(CarComponentType.class);
+        for (CarComponentType type : CarComponentType.values()) {
+            books.put(type, new OrderBook(type));
+        }
+        this.standingAsks = new HashMap<>();
+        this.bidExpiries = new TimerWheel<>(tickMillis, 512, startMillis);
+    }
+
+    public OrderBook getBook(CarComponentType type) {
+        return books.get(type);
+    }
+
+    public int getRestingOrderCount() {
+        int count = 0;
+        for (OrderBook book : books.values()) {
+            count += book.getOrderCount();
+        }
+        return count;
+    }
+
+    public void postAsk(AID supplier, LimitOrder ask, Consumer<OrderBook.Fill> onFill) {
+        OrderBook book = books.get(ask.getType());
+        String key = supplier.getName() + "/" + ask.getType();
+        BookOrder previousAsk = standingAsks.remove(key);
+        if (previousAsk != null) {
+            book.cancel(previousAsk);
+        }
+        if (ask.getQuantity() <= 0) {
+            return;
+        }
+
+        BookOrder order = new BookOrder(key, supplier, false, ask.getType(), ask.getPrice(), ask.getQuantity(), 0);
+        book.submit(order, onFill);
+        if (order.isResting()) {
+            standingAsks.put(key, order);
+        }
+    }
+
+    public BookOrder postBid(String id, AID consumer, LimitOrder bid, Consumer<OrderBook.Fill> onFill) {
+        BookOrder order = new BookOrder(id, consumer, true, bid.getType(), bid.getPrice(), bid.getQuantity(), bid.getExpiresAt());
+        books.get(bid.getType()).submit(order, onFill);
+        if (order.isResting()) {
+            bidExpiries.schedule(order, order.getExpiresAt());
+        }
+        return order;
+    }
+
+    /**
+     *  Takes the bids that reached their expiry out of the books. A filled ask leaves its supplier's entry
+     *  behind, which the next ask of the supplier replaces, so asks need no cleanup.
+     * **/
+    public void expire(long nowMillis, Consumer<BookOrder> onExpired) {
+        bidExpiries.advance(nowMillis, bid -> {
+            if (books.get(bid.getType()).cancel(bid)) {
+                onExpired.accept(bid);
+            }
+        });
+    }
+}
@@ -0,0 +1,11 @@
+import jade.lang.acl.ACLMessage;
+
+import java.io.IOException;
+
+public interface MessageCodec {
+    String getLanguage();
+
+    <T> void encode(T entity, ACLMessage message) throws IOException;
+
+    <T> T decode(ACLMessage message) throws IOException, ClassNotFoundException;
+}
@@ -0,0 +1,49 @@
+import jade.lang.acl.ACLMessage;
+
+import java.io.IOException;
+
+public class MessageCodecs {
+    public static final String CODEC_PROPERTY = "market.codec";
+
+    private static final MessageCodec BINARY_CODEC = new BinaryMessageCodec();
+    private static final MessageCodec JAVA_SERIALIZATION_CODEC = new JavaSerializationCodec();
+    private static final MessageCodec DEFAULT_CODEC = forName(System.getProperty(CODEC_PROPERTY, "binary"));
+
+    public static MessageCodec getDefault() {
+        return DEFAULT_CODEC;
+    }
+
+    public static MessageCodec forName(String name) {
+        return switch (name) {
+            case "binary" -> BINARY_CODEC;
+            case "java" -> JAVA_SERIALIZATION_CODEC;
+            default -> throw new IllegalArgumentException("Unknown message codec " + name + ", expected binary or java.");
+        };
+    }
+
+    /**
+     *  Picks the codec that produced the content of a message based on its ACL language slot.
+     *  Messages without a language are assumed to be written by the Java serialization codec,
+     *  which is the format every agent used before the binary codec was introduced.
+     * **/
+    public static MessageCodec forMessage(ACLMessage message) {
+        return BinaryMessageCodec.LANGUAGE.equals(message.getLanguage()) ? BINARY_CODEC : JAVA_SERIALIZATION_CODEC;
+    }
+
+    public static <T> void encode(T entity, ACLMessage message) throws IOException {
+        DEFAULT_CODEC.encode(entity, message);
+    }
+
+    public static <T> T decode(ACLMessage message) throws IOException, ClassNotFoundException {
+        return forMessage(message).decode(message);
+    }
+
+    public static void copyContent(ACLMessage source, ACLMessage destination) {
+        destination.setLanguage(source.getLanguage());
+        if (BinaryMessageCodec.LANGUAGE.equals(source.getLanguage())) {
+            destination.setByteSequenceContent(source.getByteSequenceContent());
+        } else {
+            destination.setContent(source.getContent());
+        }
+    }
+}
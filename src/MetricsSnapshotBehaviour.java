@@ -0,0 +1,27 @@
+import jade.core.Agent;
+import jade.core.behaviours.TickerBehaviour;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+public class MetricsSnapshotBehaviour extends TickerBehaviour {
+    private final MarketMetrics metrics;
+    private final Path snapshotFile;
+
+    public MetricsSnapshotBehaviour(Agent agent, MarketMetrics metrics, Path snapshotDirectory, long period) {
+        super(agent, period);
+        this.metrics = metrics;
+        this.snapshotFile = snapshotDirectory.resolve(agent.getLocalName() + ".jsonl");
+    }
+
+    @Override
+    protected void onTick() {
+        try {
+            metrics.appendSnapshot(snapshotFile);
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.out.println("Agent " + myAgent.getLocalName() + " stops writing metrics snapshots to " + snapshotFile + ".");
+            stop();
+        }
+    }
+}
@@ -0,0 +1,122 @@
+import java.util.Comparator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+/**
+ *  Limit order book of one component type with price-time priority. Each side keeps its price levels in a
+ *  tree keyed by the price in cents, best price first, and every level holds its orders oldest first. An
+ *  incoming order trades against the best level of the other side for as long as the prices cross, at the
+ *  price of the resting order, and what is left of it rests in the book. Adding a price level costs
+ *  O(log n), and filling or cancelling an order at an existing level O(1).
+ * **/
+public class OrderBook {
+    private final CarComponentType type;
+    private final TreeMap<Long, PriceLevel> bids;
+    private final TreeMap<Long, PriceLevel> asks;
+    private int orderCount;
+
+    public record Fill(BookOrder bid, BookOrder ask, int quantity, double price) {}
+
+    static final class PriceLevel {
+        private final long priceTicks;
+        private BookOrder head;
+        private BookOrder tail;
+
+        private PriceLevel(long priceTicks) {
+            this.priceTicks = priceTicks;
+        }
+    }
+
+    public OrderBook(CarComponentType type) {
+        this.type = type;
+        this.bids = new TreeMap<>(Comparator.reverseOrder());
+        this.asks = new TreeMap<>();
+        this.orderCount = 0;
+    }
+
+    public CarComponentType getType() {
+        return type;
+    }
+
+    public int getOrderCount() {
+        return orderCount;
+    }
+
+    public int getLevelCount() {
+        return bids.size() + asks.size();
+    }
+
+    public Double getBestBid() {
+        return bids.isEmpty() ? null : bids.firstEntry().getValue().head.getPrice();
+    }
+
+    public Double getBestAsk() {
+        return asks.isEmpty() ? null : asks.firstEntry().getValue().head.getPrice();
+    }
+
+    public void submit(BookOrder order, Consumer<Fill> onFill) {
+        TreeMap<Long, PriceLevel> opposite = order.isBid() ? asks : bids;
+        while (order.getQuantity() > 0 && !opposite.isEmpty()) {
+            Map.Entry<Long, PriceLevel> best = opposite.firstEntry();
+            if (order.isBid() ? best.getKey() > order.getPriceTicks() : best.getKey() < order.getPriceTicks()) {
+                break;
+            }
+            PriceLevel level = best.getValue();
+            BookOrder resting = level.head;
+            int quantity = Math.min(order.getQuantity(), resting.getQuantity());
+            order.fill(quantity);
+            resting.fill(quantity);
+            onFill.accept(order.isBid() ? new Fill(order, resting, quantity, resting.getPrice()) : new Fill(resting, order, quantity, resting.getPrice()));
+            if (resting.getQuantity() == 0) {
+                unlink(resting);
+            }
+        }
+        if (order.getQuantity() > 0) {
+            link(order);
+        }
+    }
+
+    public boolean cancel(BookOrder order) {
+        if (!order.isResting()) {
+            return false;
+        }
+        unlink(order);
+        return true;
+    }
+
+    private void link(BookOrder order) {
+        PriceLevel level = (order.isBid() ? bids : asks).computeIfAbsent(order.getPriceTicks(), PriceLevel::new);
+        order.level = level;
+        order.previous = level.tail;
+        order.next = null;
+        if (level.tail == null) {
+            level.head = order;
+        } else {
+            level.tail.next = order;
+        }
+        level.tail = order;
+        ++orderCount;
+    }
+
+    private void unlink(BookOrder order) {
+        PriceLevel level = order.level;
+        if (order.previous == null) {
+            level.head = order.next;
+        } else {
+            order.previous.next = order.next;
+        }
+        if (order.next == null) {
+            level.tail = order.previous;
+        } else {
+            order.next.previous = order.previous;
+        }
+        if (level.head == null) {
+            (order.isBid() ? bids : asks).remove(level.priceTicks);
+        }
+        order.level = null;
+        order.previous = null;
+        order.next = null;
+        --orderCount;
+    }
+}
@@ -0,0 +1,9 @@
+import java.io.Serializable;
+
+/**
+ *  One bar of a price rollup: the prices recorded from start for resolutionMillis, their open, high, low and
+ *  close, the quantity they add up to and their volume-weighted average price.
+ * **/
+public record PriceBar(long start, long resolutionMillis, double open, double high, double low, double close,
+                       long volume, double vwap, int tickCount) implements Serializable {
+}
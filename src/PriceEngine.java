@@ -0,0 +1,76 @@
+import java.util.Arrays;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+/**
+ *  Current and reference prices of a supplier's catalog, kept in primitive arrays indexed by SKU. The first
+ *  SKUs are the component types by ordinal, so a type's price is looked up without a map; a catalog can be
+ *  larger than the type enum, in which case the extra SKUs are variants of the priced types. A SKU without
+ *  a reference price (NaN) is not sold and never repriced.
+ *
+ *  Every supplier owns its engine and its SplittableRandom, so updates neither contend on a shared
+ *  generator nor allocate: a tick is one pass over the arrays.
+ * **/
+public class PriceEngine {
+    private final double[] referencePrices;
+    private final double[] prices;
+    private final PriceModel priceModel;
+    private final SplittableRandom random;
+
+    public PriceEngine(double[] referencePrices, PriceModel priceModel, long seed) {
+        this.referencePrices = referencePrices.clone();
+        this.prices = referencePrices.clone();
+        this.priceModel = priceModel;
+        this.random = new SplittableRandom(seed);
+    }
+
+    /**
+     *  Reference prices of a catalog of the given size: the component types by ordinal, followed by variants
+     *  that take the reference prices of the priced types in turn.
+     * **/
+    public static double[] catalogReferencePrices(Map<CarComponentType, Double> typePrices, int catalogSize) {
+        CarComponentType[] types = CarComponentType.values();
+        double[] referencePrices = new double[Math.max(catalogSize, types.length)];
+        Arrays.fill(referencePrices, Double.NaN);
+        typePrices.forEach((type, price) -> referencePrices[type.ordinal()] = price);
+
+        CarComponentType[] pricedTypes = typePrices.keySet().stream().sorted().toArray(CarComponentType[]::new);
+        for (int sku = types.length; sku < referencePrices.length && pricedTypes.length > 0; ++sku) {
+            referencePrices[sku] = typePrices.get(pricedTypes[(sku - types.length) % pricedTypes.length]);
+        }
+        return referencePrices;
+    }
+
+    public void tick() {
+        for (int sku = 0; sku < prices.length; ++sku) {
+            double referencePrice = referencePrices[sku];
+            if (!Double.isNaN(referencePrice)) {
+                prices[sku] = priceModel.nextPrice(referencePrice, prices[sku], random);
+            }
+        }
+    }
+
+    public int getSkuCount() {
+        return prices.length;
+    }
+
+    public double getPrice(int sku) {
+        return prices[sku];
+    }
+
+    public double getPrice(CarComponentType type) {
+        return prices[type.ordinal()];
+    }
+
+    public void setPrice(int sku, double price) {
+        prices[sku] = price;
+    }
+
+    public double getReferencePrice(int sku) {
+        return referencePrices[sku];
+    }
+
+    public PriceModel getPriceModel() {
+        return priceModel;
+    }
+}
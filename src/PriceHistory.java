@@ -0,0 +1,86 @@
+import java.util.List;
+
+/**
+ *  Price history of a broker: for every component type, one series of the quotes and asks suppliers sent it
+ *  and one of the trades it brokered, each with OHLC and VWAP rollups at the given resolutions. A series is
+ *  allocated when its type records its first price and never grows beyond tickCapacity ticks and
+ *  barCapacity bars per resolution, so the history takes bounded memory however long the broker runs. Used
+ *  on the broker's agent thread only.
+ * **/
+public class PriceHistory {
+    public enum Series { QUOTES, TRADES }
+
+    private final int tickCapacity;
+    private final long[] resolutionsMillis;
+    private final int barCapacity;
+    private final PriceSeries[][] series;
+
+    public PriceHistory(int tickCapacity, long[] resolutionsMillis, int barCapacity) {
+        this.tickCapacity = tickCapacity;
+        this.resolutionsMillis = resolutionsMillis.clone();
+        this.barCapacity = barCapacity;
+        this.series = new PriceSeries[Series.values().length][CarComponentType.values().length];
+    }
+
+    public static long[] parseResolutions(String resolutions) {
+        String[] fields = resolutions.split("\\|");
+        long[] resolutionsMillis = new long[fields.length];
+        for (int i = 0; i < fields.length; ++i) {
+            resolutionsMillis[i] = Long.parseLong(fields[i].trim());
+        }
+        return resolutionsMillis;
+    }
+
+    public long[] getResolutions() {
+        return resolutionsMillis.clone();
+    }
+
+    public void recordQuote(CarComponentType type, double price, long now) {
+        getOrCreateSeries(Series.QUOTES, type).record(now, price, 1);
+    }
+
+    public void recordTrade(CarComponentType type, int quantity, double price, long now) {
+        getOrCreateSeries(Series.TRADES, type).record(now, price, quantity);
+    }
+
+    private PriceSeries getOrCreateSeries(Series kind, CarComponentType type) {
+        PriceSeries priceSeries = series[kind.ordinal()][type.ordinal()];
+        if (priceSeries == null) {
+            priceSeries = new PriceSeries(tickCapacity, resolutionsMillis, barCapacity);
+            series[kind.ordinal()][type.ordinal()] = priceSeries;
+        }
+        return priceSeries;
+    }
+
+    public List<PriceSeries.Tick> getTicks(Series kind, CarComponentType type, long fromMillis, long toMillis) {
+        PriceSeries priceSeries = series[kind.ordinal()][type.ordinal()];
+        return priceSeries != null ? priceSeries.getTicks(fromMillis, toMillis) : List.of();
+    }
+
+    /**
+     *  Returns the bars of a series in the given range, oldest first, or null if the resolution is not one the
+     *  history rolls up.
+     * **/
+    public List<PriceBar> getBars(Series kind, CarComponentType type, long resolutionMillis, long fromMillis, long toMillis) {
+        PriceSeries priceSeries = series[kind.ordinal()][type.ordinal()];
+        if (priceSeries == null) {
+            for (long resolution : resolutionsMillis) {
+                if (resolution == resolutionMillis) {
+                    return List.of();
+                }
+            }
+            return null;
+        }
+        return priceSeries.getBars(resolutionMillis, fromMillis, toMillis);
+    }
+
+    public long getTickCount() {
+        long ticks = 0;
+        for (PriceSeries[] seriesOfKind : series) {
+            for (PriceSeries priceSeries : seriesOfKind) {
+                ticks += priceSeries != null ? priceSeries.getTickCount() : 0;
+            }
+        }
+        return ticks;
+    }
+}
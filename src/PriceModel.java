@@ -0,0 +1,57 @@
+import java.util.random.RandomGenerator;
+
+/**
+ *  How a supplier moves the price of one SKU on every price update. Both models keep the price within
+ *  50% of the reference price and draw their random numbers from the given generator, so a seeded
+ *  generator replays the same price path.
+ * **/
+public enum PriceModel {
+    /**
+     *  The price moves by a variation percentage between 0 and 20%, up or down with the same probability.
+     *  If the updated price falls below or above the thresholds (i.e. if it exceeds or falls under 50% of
+     *  the reference price), it is set to the corresponding threshold.
+     *
+     *  Let's assume that the reference price for an engine block is 500.0$.
+     *  For example, if an engine block currently costs 500.0$, the random number for the variation
+     *  percentage (which is between 0 and 1) is 0.5 and the variation sign is -1.0 (in other words,
+     *  negative), then the final result of the updated price will be:
+     *       500.0 + (-1.0) * 0.5 * 0.2 * 500.0 = 450.0$
+     *   which represents a variation of -10% on the previous price.
+     *
+     *   In another example, we have another engine block that currently costs 300.0$, the random number for the
+     *   variation percentage is 1.0, which multiplied with 0.2 returns 0.2 representing a 20% variation for the price.
+     *   The variation sign is -1.0, so the result is:
+     *      300.0 + (-1.0) * 1.0 * 0.2 * 300.0 = 240.0
+     *   But 240.0 is less than the lower threshold for the price, which is half of the reference price of 500.0,
+     *   i.e. 250.0. So, the new price will actually be set to 250.0$
+     * **/
+    RANDOM_WALK {
+        @Override
+        public double nextPrice(double referencePrice, double price, RandomGenerator random) {
+            double sign = (random.nextDouble() < 0.5 ? -1.0 : 1.0);
+            double percentage = random.nextDouble() * 0.2;
+            return clamp(referencePrice, price + sign * percentage * price);
+        }
+    },
+    /**
+     *  The price is pulled back by a fifth of its distance to the reference price and then moved by a normal
+     *  shock with a standard deviation of 5% of the reference price, so it wanders around the reference price
+     *  instead of sticking to the thresholds.
+     * **/
+    MEAN_REVERSION {
+        @Override
+        public double nextPrice(double referencePrice, double price, RandomGenerator random) {
+            double reversion = 0.2 * (referencePrice - price);
+            double shock = 0.05 * referencePrice * random.nextGaussian();
+            return clamp(referencePrice, price + reversion + shock);
+        }
+    };
+
+    public abstract double nextPrice(double referencePrice, double price, RandomGenerator random);
+
+    private static double clamp(double referencePrice, double price) {
+        double lowerThreshold = referencePrice - 0.5 * referencePrice;
+        double upperThreshold = referencePrice + 0.5 * referencePrice;
+        return Math.max(lowerThreshold, Math.min(upperThreshold, price));
+    }
+}
@@ -0,0 +1,168 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ *  The recorded prices of one component type: a ring of the latest ticks and a ring of bars for every
+ *  resolution, all in primitive arrays allocated up front. Every tick updates the current bar of each
+ *  resolution in place, or starts the next one, so rollups cost the same whatever the range they cover, and
+ *  once a ring is full its oldest entry is overwritten. Ticks are kept in time order: a tick older than the
+ *  previous one, after a clock step, is recorded at the time of the previous one.
+ * **/
+public class PriceSeries {
+    private final long[] times;
+    private final double[] prices;
+    private final int[] quantities;
+    private int tickHead;
+    private int tickCount;
+    private final Rollup[] rollups;
+
+    public record Tick(long time, double price, int quantity) {}
+
+    public PriceSeries(int tickCapacity, long[] resolutionsMillis, int barCapacity) {
+        this.times = new long[tickCapacity];
+        this.prices = new double[tickCapacity];
+        this.quantities = new int[tickCapacity];
+        this.tickHead = 0;
+        this.tickCount = 0;
+        this.rollups = new Rollup[resolutionsMillis.length];
+        for (int i = 0; i < resolutionsMillis.length; ++i) {
+            rollups[i] = new Rollup(resolutionsMillis[i], barCapacity);
+        }
+    }
+
+    public void record(long time, double price, int quantity) {
+        if (tickCount > 0) {
+            time = Math.max(time, times[physicalIndex(tickCount - 1, tickHead, tickCount, times.length)]);
+        }
+        times[tickHead] = time;
+        prices[tickHead] = price;
+        quantities[tickHead] = quantity;
+        tickHead = (tickHead + 1) % times.length;
+        tickCount = Math.min(tickCount + 1, times.length);
+        for (Rollup rollup : rollups) {
+            rollup.add(time, price, quantity);
+        }
+    }
+
+    public int getTickCount() {
+        return tickCount;
+    }
+
+    /**
+     *  Returns the ticks recorded from fromMillis inclusive to toMillis exclusive that are still in the ring,
+     *  oldest first.
+     * **/
+    public List<Tick> getTicks(long fromMillis, long toMillis) {
+        List<Tick> ticks = new ArrayList<>();
+        for (int i = firstAtOrAfter(times, fromMillis, tickHead, tickCount); i < tickCount; ++i) {
+            int index = physicalIndex(i, tickHead, tickCount, times.length);
+            if (times[index] >= toMillis) {
+                break;
+            }
+            ticks.add(new Tick(times[index], prices[index], quantities[index]));
+        }
+        return ticks;
+    }
+
+    /**
+     *  Returns the bars of the given resolution that start from fromMillis inclusive to toMillis exclusive,
+     *  oldest first, or null when the series has no rollup of that resolution. Periods without ticks have no
+     *  bar.
+     * **/
+    public List<PriceBar> getBars(long resolutionMillis, long fromMillis, long toMillis) {
+        for (Rollup rollup : rollups) {
+            if (rollup.resolutionMillis == resolutionMillis) {
+                return rollup.getBars(fromMillis, toMillis);
+            }
+        }
+        return null;
+    }
+
+    private static int physicalIndex(int logicalIndex, int head, int count, int capacity) {
+        return Math.floorMod(head - count + logicalIndex, capacity);
+    }
+
+    /**
+     *  Binary search for the logical index of the first entry at or after the given time in a time-ordered
+     *  ring, or count if there is none.
+     * **/
+    private static int firstAtOrAfter(long[] ring, long time, int head, int count) {
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (ring[physicalIndex(middle, head, count, ring.length)] < time) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private static final class Rollup {
+        private final long resolutionMillis;
+        private final long[] starts;
+        private final double[] opens;
+        private final double[] highs;
+        private final double[] lows;
+        private final double[] closes;
+        private final long[] volumes;
+        private final double[] notionals;
+        private final int[] tickCounts;
+        private int head;
+        private int count;
+
+        private Rollup(long resolutionMillis, int capacity) {
+            this.resolutionMillis = resolutionMillis;
+            this.starts = new long[capacity];
+            this.opens = new double[capacity];
+            this.highs = new double[capacity];
+            this.lows = new double[capacity];
+            this.closes = new double[capacity];
+            this.volumes = new long[capacity];
+            this.notionals = new double[capacity];
+            this.tickCounts = new int[capacity];
+            this.head = 0;
+            this.count = 0;
+        }
+
+        private void add(long time, double price, int quantity) {
+            long start = time - Math.floorMod(time, resolutionMillis);
+            int last = physicalIndex(count - 1, head, count, starts.length);
+            if (count > 0 && starts[last] == start) {
+                highs[last] = Math.max(highs[last], price);
+                lows[last] = Math.min(lows[last], price);
+                closes[last] = price;
+                volumes[last] += quantity;
+                notionals[last] += price * quantity;
+                ++tickCounts[last];
+                return;
+            }
+            starts[head] = start;
+            opens[head] = price;
+            highs[head] = price;
+            lows[head] = price;
+            closes[head] = price;
+            volumes[head] = quantity;
+            notionals[head] = price * quantity;
+            tickCounts[head] = 1;
+            head = (head + 1) % starts.length;
+            count = Math.min(count + 1, starts.length);
+        }
+
+        private List<PriceBar> getBars(long fromMillis, long toMillis) {
+            List<PriceBar> bars = new ArrayList<>();
+            for (int i = firstAtOrAfter(starts, fromMillis, head, count); i < count; ++i) {
+                int index = physicalIndex(i, head, count, starts.length);
+                if (starts[index] >= toMillis) {
+                    break;
+                }
+                double vwap = volumes[index] > 0 ? notionals[index] / volumes[index] : closes[index];
+                bars.add(new PriceBar(starts[index], resolutionMillis, opens[index], highs[index], lows[index], closes[index],
+                        volumes[index], vwap, tickCounts[index]));
+            }
+            return bars;
+        }
+    }
+}
@@ -0,0 +1,144 @@
+import java.util.List;
+
+/**
+ *  One purchase of a consumer, identified by the conversation id of the CFP that started it. It covers
+ *  one or more basket lines and moves from REQUESTED (CFP sent) to QUOTED (proposals received) to ACCEPTED
+ *  (offers accepted and paid for), and ends as DELIVERED once every accepted unit arrived or was cancelled
+ *  by a stock-out, or as FAILED. Every state change resets the deadline by which the next one is expected.
+ * **/
+public class PurchaseOrder {
+    private final String id;
+    private final List<BasketLine> lines;
+    private PurchaseOrderState state;
+    private int undeliveredUnits;
+    private int deliveredUnits;
+    private int openUnits;
+    private double undeliveredAmount;
+    private long deadline;
+    private final long requestedAtNanos;
+    private long acceptedAtNanos;
+
+    public PurchaseOrder(String id, List<BasketLine> lines, long deadline) {
+        this.id = id;
+        this.lines = lines;
+        this.state = PurchaseOrderState.REQUESTED;
+        this.undeliveredUnits = 0;
+        this.deliveredUnits = 0;
+        this.openUnits = 0;
+        this.undeliveredAmount = 0.0;
+        this.deadline = deadline;
+        this.requestedAtNanos = System.nanoTime();
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public List<BasketLine> getLines() {
+        return lines;
+    }
+
+    public PurchaseOrderState getState() {
+        return state;
+    }
+
+    public double getUndeliveredAmount() {
+        return undeliveredAmount;
+    }
+
+    public long getDeadline() {
+        return deadline;
+    }
+
+    public long getRequestedAtNanos() {
+        return requestedAtNanos;
+    }
+
+    public long getAcceptedAtNanos() {
+        return acceptedAtNanos;
+    }
+
+    public boolean isFinished() {
+        return state == PurchaseOrderState.DELIVERED || state == PurchaseOrderState.FAILED;
+    }
+
+    public void quote(long newDeadline) {
+        transition(PurchaseOrderState.REQUESTED, PurchaseOrderState.QUOTED);
+        this.deadline = newDeadline;
+    }
+
+    /**
+     *  Accepts one offer per unit to buy. The order stays ACCEPTED until a delivery arrived for each of them.
+     * **/
+    public void accept(List<PriceInformation> offers, long newDeadline) {
+        transition(PurchaseOrderState.QUOTED, PurchaseOrderState.ACCEPTED);
+        this.undeliveredUnits = offers.size();
+        this.undeliveredAmount = offers.stream().mapToDouble(PriceInformation::getPrice).sum();
+        this.deadline = newDeadline;
+        this.acceptedAtNanos = System.nanoTime();
+    }
+
+    /**
+     *  Takes the units of a bid that the broker's order book filled so far, which are paid for and expected
+     *  like accepted offers, and the number of units still open in the book. A bid goes from REQUESTED
+     *  straight to ACCEPTED with its first fill, and fails if it leaves the book without any.
+     * **/
+    public void fill(List<PriceInformation> offers, int newOpenUnits, long newDeadline) {
+        if (state != PurchaseOrderState.REQUESTED && state != PurchaseOrderState.ACCEPTED) {
+            throw new IllegalStateException("Purchase order " + id + " cannot take fills while it is " + state + ".");
+        }
+        if (!offers.isEmpty()) {
+            if (state == PurchaseOrderState.REQUESTED) {
+                this.state = PurchaseOrderState.ACCEPTED;
+                this.acceptedAtNanos = System.nanoTime();
+            }
+            undeliveredUnits += offers.size();
+            undeliveredAmount += offers.stream().mapToDouble(PriceInformation::getPrice).sum();
+        }
+        this.openUnits = newOpenUnits;
+        this.deadline = newDeadline;
+        if (openUnits == 0 && undeliveredUnits == 0) {
+            this.state = deliveredUnits > 0 ? PurchaseOrderState.DELIVERED : PurchaseOrderState.FAILED;
+        }
+    }
+
+    public void deliver(CarComponent component) {
+        settleUnit(component.price(), "take a delivery");
+        ++deliveredUnits;
+        if (undeliveredUnits == 0 && openUnits == 0) {
+            transition(PurchaseOrderState.ACCEPTED, PurchaseOrderState.DELIVERED);
+        }
+    }
+
+    /**
+     *  Drops an accepted unit the supplier could not deliver. An order whose units were all cancelled fails.
+     * **/
+    public void cancel(PriceInformation offer) {
+        settleUnit(offer.getPrice(), "cancel a unit");
+        if (undeliveredUnits == 0 && openUnits == 0) {
+            transition(PurchaseOrderState.ACCEPTED, deliveredUnits > 0 ? PurchaseOrderState.DELIVERED : PurchaseOrderState.FAILED);
+        }
+    }
+
+    private void settleUnit(double price, String action) {
+        if (state != PurchaseOrderState.ACCEPTED || undeliveredUnits == 0) {
+            throw new IllegalStateException("Purchase order " + id + " cannot " + action + " while it is " + state + ".");
+        }
+        --undeliveredUnits;
+        undeliveredAmount -= price;
+    }
+
+    public void fail() {
+        if (isFinished()) {
+            throw new IllegalStateException("Purchase order " + id + " cannot fail, it is already " + state + ".");
+        }
+        this.state = PurchaseOrderState.FAILED;
+    }
+
+    private void transition(PurchaseOrderState expectedState, PurchaseOrderState newState) {
+        if (state != expectedState) {
+            throw new IllegalStateException("Purchase order " + id + " cannot become " + newState + " while it is " + state + ".");
+        }
+        this.state = newState;
+    }
+}
@@ -0,0 +1,7 @@
+public enum PurchaseOrderState {
+    REQUESTED,
+    QUOTED,
+    ACCEPTED,
+    DELIVERED,
+    FAILED
+}
@@ -0,0 +1,49 @@
+import jade.core.Agent;
+import jade.core.behaviours.CyclicBehaviour;
+
+import java.util.List;
+
+/**
+ *  Sends the messages of a capture to the broker under replay on the capture's own schedule, scaled by the
+ *  replay speed, or back to back when the replay is unpaced. Every message keeps its recorded sender, so
+ *  the broker answers the ReplayEndpointAgent that stands in for it.
+ * **/
+public class ReplayDriverAgent extends Agent {
+    private static final int SEND_BATCH = 256;
+
+    private final TrafficReplay replay;
+    private List<TrafficCapture.CapturedMessage> messages;
+    private int nextMessage;
+    private long startNanos;
+
+    public ReplayDriverAgent(TrafficReplay replay) {
+        this.replay = replay;
+    }
+
+    protected void setup() {
+        this.messages = replay.getMessages();
+        this.nextMessage = 0;
+        this.startNanos = System.nanoTime();
+        addBehaviour(new CyclicBehaviour() {
+            @Override
+            public void action() {
+                long now = System.nanoTime();
+                for (int sent = 0; sent < SEND_BATCH && nextMessage < messages.size(); ++sent) {
+                    TrafficCapture.CapturedMessage next = messages.get(nextMessage);
+                    long dueNanos = replay.getSpeed() > 0 ? startNanos + (long) (next.offsetMicros() * 1000 / replay.getSpeed()) : now;
+                    if (dueNanos > now) {
+                        block(Math.max(1, (dueNanos - now) / 1_000_000));
+                        return;
+                    }
+                    replay.recordSend(next.message());
+                    send(next.message());
+                    ++nextMessage;
+                }
+                if (nextMessage == messages.size()) {
+                    replay.finishSending();
+                    myAgent.removeBehaviour(this);
+                }
+            }
+        });
+    }
+}
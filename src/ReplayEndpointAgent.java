@@ -0,0 +1,30 @@
+import jade.core.Agent;
+import jade.core.behaviours.CyclicBehaviour;
+import jade.lang.acl.ACLMessage;
+
+/**
+ *  Stands in for one recorded consumer or supplier during a TrafficReplay. It never answers: the answers the
+ *  real agent gave are in the capture and reach the broker through the ReplayDriverAgent. It only hands the
+ *  broker's messages to the replay, which times them.
+ * **/
+public class ReplayEndpointAgent extends Agent {
+    private final TrafficReplay replay;
+
+    public ReplayEndpointAgent(TrafficReplay replay) {
+        this.replay = replay;
+    }
+
+    protected void setup() {
+        addBehaviour(new CyclicBehaviour() {
+            @Override
+            public void action() {
+                ACLMessage message = receive();
+                if (message == null) {
+                    block();
+                    return;
+                }
+                replay.recordReply(message);
+            }
+        });
+    }
+}
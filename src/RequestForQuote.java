@@ -0,0 +1,143 @@
+import jade.core.AID;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ *  One consumer price request as seen by the broker. A plain CFP asks for a single component type, a
+ *  basket CFP for several types at once; both are tracked as a list of basket lines. Every supplier
+ *  answers an RFQ with one reply, which holds the quotes for all the types it was asked about. Single-type
+ *  requests that arrive while one for the same type is waiting for its suppliers join it instead of asking
+ *  the suppliers again, and get its quotes when it closes.
+ * **/
+public class RequestForQuote {
+    private final String id;
+    private final AID consumer;
+    private final String consumerConversationId;
+    private final String consumerReplyWith;
+    private final List<BasketLine> lines;
+    private final boolean basket;
+    private final Set<AID> askedSuppliers;
+    private final long deadline;
+    private final long openedAtNanos;
+    private final List<PriceInformation> quotes;
+    private final List<PriceInformation> supplierReplies;
+    private final List<RequestForQuote> joinedRequests;
+    private int receivedQuotes;
+    private boolean closed;
+
+    public RequestForQuote(String id, AID consumer, String consumerConversationId, String consumerReplyWith, List<BasketLine> lines, boolean basket, Set<AID> askedSuppliers, long deadline) {
+        this.id = id;
+        this.consumer = consumer;
+        this.consumerConversationId = consumerConversationId;
+        this.consumerReplyWith = consumerReplyWith;
+        this.lines = lines;
+        this.basket = basket;
+        this.askedSuppliers = askedSuppliers;
+        this.deadline = deadline;
+        this.openedAtNanos = System.nanoTime();
+        this.quotes = new ArrayList<>(askedSuppliers.size());
+        this.supplierReplies = new ArrayList<>(askedSuppliers.size());
+        this.joinedRequests = new ArrayList<>(0);
+        this.receivedQuotes = 0;
+        this.closed = false;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public AID getConsumer() {
+        return consumer;
+    }
+
+    public String getConsumerConversationId() {
+        return consumerConversationId;
+    }
+
+    public String getConsumerReplyWith() {
+        return consumerReplyWith;
+    }
+
+    public List<BasketLine> getLines() {
+        return lines;
+    }
+
+    public boolean isBasket() {
+        return basket;
+    }
+
+    public Set<AID> getAskedSuppliers() {
+        return askedSuppliers;
+    }
+
+    public int getExpectedQuotes() {
+        return askedSuppliers.size();
+    }
+
+    public long getDeadline() {
+        return deadline;
+    }
+
+    public long getOpenedAtNanos() {
+        return openedAtNanos;
+    }
+
+    public List<PriceInformation> getQuotes() {
+        return quotes;
+    }
+
+    public int getReceivedQuotes() {
+        return receivedQuotes;
+    }
+
+    public List<RequestForQuote> getJoinedRequests() {
+        return joinedRequests;
+    }
+
+    public void join(RequestForQuote request) {
+        joinedRequests.add(request);
+    }
+
+    public void addCachedQuotes(List<PriceInformation> cachedQuotes) {
+        quotes.addAll(cachedQuotes);
+    }
+
+    public void addSupplierReply(List<PriceInformation> supplierQuotes) {
+        quotes.addAll(supplierQuotes);
+        supplierReplies.addAll(supplierQuotes);
+        ++receivedQuotes;
+    }
+
+    /**
+     *  Adds the supplier replies of the fan-out this request joined, but not the fan-out's cached quotes,
+     *  and no reply from a supplier this request already holds a cached quote of, so that every supplier
+     *  is quoted once. Returns the replies that were added.
+     * **/
+    public List<PriceInformation> addFanOutReplies(RequestForQuote fanOut) {
+        Set<AID> quotedSuppliers = new HashSet<>();
+        quotes.forEach(quote -> quotedSuppliers.add(quote.getSupplier()));
+        List<PriceInformation> addedReplies = new ArrayList<>();
+        for (PriceInformation reply : fanOut.supplierReplies) {
+            if (!quotedSuppliers.contains(reply.getSupplier())) {
+                quotes.add(reply);
+                addedReplies.add(reply);
+            }
+        }
+        return addedReplies;
+    }
+
+    public boolean isComplete() {
+        return receivedQuotes >= askedSuppliers.size();
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    public void close() {
+        this.closed = true;
+    }
+}
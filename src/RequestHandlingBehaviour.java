@@ -10,7 +10,11 @@ public class RequestHandlingBehaviour extends CyclicBehaviour {
         ACLMessage message = myAgent.receive();
         if (message != null) {
             try {
-                ((BrokerClientAgent) myAgent).handleRequest(message);
+                if (myAgent.getDefaultDF().equals(message.getSender())) {
+                    ((BrokerClientAgent) myAgent).handleBrokerNotification(message);
+                } else {
+                    ((BrokerClientAgent) myAgent).handleRequest(message);
+                }
             } catch (IOException | ClassNotFoundException e) {
                 e.printStackTrace();
                 throw new RuntimeException(e);
@@ -0,0 +1,97 @@
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ *  Collects supplier quotes per request for quote (RFQ). Every RFQ is keyed by the conversation id
+ *  the broker used for its supplier fan-out, so any number of RFQs from the same consumer can be in
+ *  flight at the same time. An RFQ is closed either when all expected quotes arrived or when its
+ *  deadline passes, whichever happens first; late quotes for a closed RFQ are dropped.
+ *
+ *  An open single-type RFQ is also the fan-out of its type: price requests for that type can join it
+ *  until it closes, so that a burst of them costs the suppliers one question instead of one each.
+ * **/
+public class RfqAggregator {
+    private final Map<String, RequestForQuote> openRequests;
+    private final Map<CarComponentType, RequestForQuote> fanOutsByType;
+    private int joinedRequestCount;
+    private final TimerWheel<RequestForQuote> deadlines;
+
+    public RfqAggregator(long tickMillis, int slotCount, long startMillis) {
+        this.openRequests = new HashMap<>();
+        this.fanOutsByType = new EnumMap<>(CarComponentType.class);
+        this.joinedRequestCount = 0;
+        this.deadlines = new TimerWheel<>(tickMillis, slotCount, startMillis);
+    }
+
+    public void open(RequestForQuote request) {
+        openRequests.put(request.getId(), request);
+        deadlines.schedule(request, request.getDeadline());
+        if (!request.isBasket()) {
+            fanOutsByType.put(request.getLines().get(0).getType(), request);
+        }
+    }
+
+    /**
+     *  Attaches a single-type request to the open fan-out of its type and returns that fan-out, or returns
+     *  null if the type has none or the fan-out did not ask every supplier the request needs asked, in which
+     *  case the request has to be opened on its own.
+     * **/
+    public RequestForQuote join(RequestForQuote request) {
+        RequestForQuote fanOut = fanOutsByType.get(request.getLines().get(0).getType());
+        if (fanOut == null || !fanOut.getAskedSuppliers().containsAll(request.getAskedSuppliers())) {
+            return null;
+        }
+        fanOut.join(request);
+        ++joinedRequestCount;
+        return fanOut;
+    }
+
+    /**
+     *  Adds the quotes of one supplier reply to an open RFQ and returns the RFQ if this reply completed it,
+     *  in which case it is closed and no longer tracked. Returns null while replies are still missing or if
+     *  the RFQ is unknown.
+     * **/
+    public RequestForQuote addSupplierReply(String requestId, List<PriceInformation> quotes) {
+        RequestForQuote request = openRequests.get(requestId);
+        if (request == null) {
+            return null;
+        }
+
+        request.addSupplierReply(quotes);
+        if (!request.isComplete()) {
+            return null;
+        }
+
+        close(request);
+        return request;
+    }
+
+    private void close(RequestForQuote request) {
+        openRequests.remove(request.getId());
+        joinedRequestCount -= request.getJoinedRequests().size();
+        if (!request.isBasket()) {
+            fanOutsByType.remove(request.getLines().get(0).getType(), request);
+        }
+        request.close();
+    }
+
+    public void expire(long now, Consumer<RequestForQuote> onExpired) {
+        deadlines.advance(now, request -> {
+            if (!request.isClosed()) {
+                close(request);
+                onExpired.accept(request);
+            }
+        });
+    }
+
+    /**
+     *  Counts the requests that joined an open fan-out as well, since each of them is still waiting for an
+     *  answer.
+     * **/
+    public int getOpenRequestCount() {
+        return openRequests.size() + joinedRequestCount;
+    }
+}
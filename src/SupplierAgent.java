@@ -1,28 +1,47 @@
+import jade.core.AID;
 import jade.core.behaviours.*;
 import jade.lang.acl.ACLMessage;
 
 import java.io.*;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
-import java.util.stream.Stream;
+import java.util.Set;
 
-public class SupplierAgent extends BrokerClientAgent {
-    private Map<CarComponentType, Integer> stock;
+public class SupplierAgent extends BrokerClientAgent implements Checkpointable {
+    private Inventory inventory;
     private Double balance;
-    public static Map<CarComponentType, Double> referenceComponentPrices;
-    private Map<CarComponentType, Double> prices;
+    private PriceEngine priceEngine;
+    private boolean verbose;
+    private MarketMetrics metrics;
+    private LatencyHistogram requestToQuoteLatency;
+    private LatencyHistogram acceptToDeliveryLatency;
+    private AgentCheckpoint checkpoint;
+    private boolean registered;
+    private Set<AID> pendingRegistrations;
+    private boolean directDelivery;
+    private boolean orderBook;
 
     protected void setup() {
         System.out.println("Supplier agent " + getLocalName() + " has started...");
 
-        referenceComponentPrices = initializeReferenceComponentPrices();
-        this.prices = initializeComponentPrices();
-        this.stock = initializeStock();
+        AgentArguments arguments = AgentArguments.of(this);
+        this.verbose = arguments.getBoolean("verbose", false);
+        this.directDelivery = arguments.getBoolean("directDelivery", false);
+        this.orderBook = "orderbook".equals(arguments.getString("tradingMode", "rfq"));
+        this.priceEngine = initializePriceEngine(arguments);
+        this.inventory = new Inventory(CarComponentType.initializeStock(arguments.getInt("stock", 100)), arguments.getLong("reservationTtl", 5000));
         this.balance = 0.0;
+        this.pendingRegistrations = new HashSet<>();
+        initializeCheckpoint(arguments);
+        initializeMetrics(arguments);
 
         SequentialBehaviour initializationBehaviour = new SequentialBehaviour();
-        initializationBehaviour.addSubBehaviour(createBrokerSearchBehaviour());
-        initializationBehaviour.addSubBehaviour(createBrokerRegistrationBehaviour());
+        initializationBehaviour.addSubBehaviour(createBrokerSearchBehaviour(arguments.getLong("brokerSearchDelay", 2000)));
+        initializationBehaviour.addSubBehaviour(createBrokerRegistrationBehaviour(arguments.getLong("registrationDelay", 2000)));
         ParallelBehaviour requestHandlingAndPriceUpdateBehaviour = new ParallelBehaviour();
         requestHandlingAndPriceUpdateBehaviour.addSubBehaviour(createRequestHandlingBehaviour());
         requestHandlingAndPriceUpdateBehaviour.addSubBehaviour(createPriceUpdateBehaviour());
@@ -31,98 +50,224 @@ public class SupplierAgent extends BrokerClientAgent {
         addBehaviour(initializationBehaviour);
     }
 
-    public static Map<CarComponentType, Double> initializeReferenceComponentPrices() {
-        Map<CarComponentType, Double> prices = new HashMap<>();
-        prices.put(CarComponentType.CAMSHAFT, 60.0);
-        prices.put(CarComponentType.CLUTCH_PLATE, 80.0);
-        prices.put(CarComponentType.ALTERNATOR, 250.0);
-        return prices;
+    /**
+     *  The supplier measures how long broker requests wait and run before it answers them, from the moment
+     *  they reached its mailbox.
+     * **/
+    private void initializeMetrics(AgentArguments arguments) {
+        this.metrics = new MarketMetrics("SupplierAgent", getLocalName());
+        this.requestToQuoteLatency = metrics.histogram("request-to-quote");
+        this.acceptToDeliveryLatency = metrics.histogram("accept-to-delivery");
+        metrics.gauge("reservations", () -> inventory.getReservationCount());
+        for (CarComponentType type : inventory.getStockedTypes()) {
+            metrics.gauge("available." + type, () -> inventory.getAvailableUnits(type));
+        }
+        if (arguments.getBoolean("jmx", false)) {
+            metrics.registerMBean();
+        }
+        String metricsDirectory = arguments.getString("metrics", "");
+        if (!metricsDirectory.isBlank()) {
+            addBehaviour(new MetricsSnapshotBehaviour(this, metrics, Path.of(metricsDirectory), arguments.getLong("metricsPeriod", 10000)));
+        }
     }
 
-    private Map<CarComponentType, Double> initializeComponentPrices() {
-        Map<CarComponentType, Double> prices = new HashMap<>();
-        prices.put(CarComponentType.CAMSHAFT, 60.0);
-        prices.put(CarComponentType.CLUTCH_PLATE, 80.0);
-        prices.put(CarComponentType.ALTERNATOR, 250.0);
-        return prices;
+    /**
+     *  Warm-starts the supplier from its latest checkpoint in the given directory, if it has one, and then
+     *  checkpoints its balance, stock and prices every checkpointPeriod milliseconds. Reserved units count as
+     *  stock, since the reservations do not survive a restart. An empty directory turns checkpoints off.
+     * **/
+    private void initializeCheckpoint(AgentArguments arguments) {
+        String directory = arguments.getString("checkpoint", "");
+        if (directory.isBlank()) {
+            return;
+        }
+        try {
+            long start = System.nanoTime();
+            this.checkpoint = new AgentCheckpoint(Path.of(directory), getLocalName());
+            AgentCheckpoint.Contents contents = checkpoint.restore();
+            if (contents != null) {
+                restoreCheckpoint(contents.snapshot());
+                System.out.println("Supplier " + getLocalName() + " warm-started from its checkpoint in " + (System.nanoTime() - start) / 1000 + " us with a balance of " + balance);
+            }
+            addBehaviour(new CheckpointBehaviour(this, checkpoint, this, arguments.getLong("checkpointPeriod", 10000)));
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.out.println("Supplier " + getLocalName() + " could not restore its checkpoint from " + directory + " and runs without checkpoints.");
+            this.checkpoint = null;
+        }
     }
 
-    private Map<CarComponentType, Integer> initializeStock() {
-        Map<CarComponentType, Integer> stock = new HashMap<>();
-        stock.put(CarComponentType.CAMSHAFT, 100);
-        stock.put(CarComponentType.CLUTCH_PLATE, 100);
-        stock.put(CarComponentType.ALTERNATOR, 100);
-        return stock;
+    public void writeCheckpoint(BinaryWriter snapshot, BinaryWriter log) {
+        snapshot.writeDouble(balance);
+        snapshot.writeVarInt(inventory.getStockedTypes().size());
+        for (CarComponentType type : inventory.getStockedTypes()) {
+            snapshot.writeByte(type.ordinal());
+            snapshot.writeVarInt(inventory.getUnitsOnHand(type));
+        }
+        snapshot.writeVarInt(priceEngine.getSkuCount());
+        for (int sku = 0; sku < priceEngine.getSkuCount(); ++sku) {
+            snapshot.writeDouble(priceEngine.getPrice(sku));
+        }
     }
 
-    private Behaviour createBrokerSearchBehaviour() {
-        return new BrokerSearchBehaviour(this, 2000);
+    private void restoreCheckpoint(BinaryReader snapshot) throws IOException {
+        double restoredBalance = snapshot.readDouble();
+        Map<CarComponentType, Integer> restoredStock = new HashMap<>();
+        for (int count = snapshot.readVarInt(); count > 0; --count) {
+            restoredStock.put(CarComponentType.values()[snapshot.readByte()], snapshot.readVarInt());
+        }
+        double[] restoredPrices = new double[snapshot.readVarInt()];
+        for (int sku = 0; sku < restoredPrices.length; ++sku) {
+            restoredPrices[sku] = snapshot.readDouble();
+        }
+
+        this.balance = restoredBalance;
+        restoredStock.forEach(inventory::restoreUnits);
+        // A catalog that changed size since the checkpoint keeps the prices of the SKUs both have.
+        for (int sku = 0; sku < Math.min(restoredPrices.length, priceEngine.getSkuCount()); ++sku) {
+            priceEngine.setPrice(sku, restoredPrices[sku]);
+        }
+    }
+
+    /**
+     *  The engine starts from the reference prices. Its seed mixes the seed argument with the agent name, so
+     *  suppliers started with the same seed still follow different price paths.
+     * **/
+    private PriceEngine initializePriceEngine(AgentArguments arguments) {
+        double[] referencePrices = PriceEngine.catalogReferencePrices(CarComponentType.initializeReferencePrices(), arguments.getInt("catalogSize", 0));
+        PriceModel priceModel = PriceModel.valueOf(arguments.getString("priceModel", "random_walk").toUpperCase());
+        long seed = arguments.getLong("seed", System.nanoTime()) * 31 + getLocalName().hashCode();
+        return new PriceEngine(referencePrices, priceModel, seed);
+    }
+
+    private Behaviour createBrokerSearchBehaviour(long delayMillis) {
+        return new BrokerSearchBehaviour(this, delayMillis);
     }
 
-    private Behaviour createBrokerRegistrationBehaviour() {
-        return new WakerBehaviour(this, 2000) {
+    /**
+     *  The supplier is ready to trade once every broker it registered with has agreed to the registration.
+     * **/
+    private Behaviour createBrokerRegistrationBehaviour(long delayMillis) {
+        return new WakerBehaviour(this, delayMillis) {
             @Override
             protected void onWake() {
-                ACLMessage registrationMessage = new ACLMessage(ACLMessage.SUBSCRIBE);
-                registrationMessage.addReceiver(brokerAgents[0]);
-                registrationMessage.setContent("supplier_registration");
-                send(registrationMessage);
-                System.out.println("Supplier " + getLocalName() + " has sent registration to the broker.");
+                // Only the brokers that serve at least one stocked component type need to know this supplier.
+                Set<AID> brokers = brokerDirectory.getBrokersFor(inventory.getStockedTypes());
+                pendingRegistrations.addAll(brokers);
+                registerWithBrokers(brokers);
+                registered = true;
+                if (pendingRegistrations.isEmpty()) {
+                    LaunchCoordinatorAgent.signalReady(myAgent);
+                }
             }
         };
     }
 
+    private void registerWithBrokers(Set<AID> brokers) {
+        ACLMessage registrationMessage = new ACLMessage(ACLMessage.SUBSCRIBE);
+        brokers.forEach(registrationMessage::addReceiver);
+        registrationMessage.setConversationId(getLocalName() + "-registration");
+        registrationMessage.setContent("supplier_registration");
+        send(registrationMessage);
+        System.out.println("Supplier " + getLocalName() + " has sent registration to the brokers " + brokers.stream().map(AID::getLocalName).toList());
+        pushQuotesToBroker();
+    }
+
     /**
-     *  Generates a random price for a car component based on the hardcoded reference prices.
-     *  The price update is usually an update that is of a variation percentage between 0 and 20%.
-     *  If the generated price falls below or above the chosen thresholds (i.e. if the update exceeds
-     *  or falls under 50% of the reference price, the updated price is set to the corresponding threshold).
-     *
-     *  Let's assume that the reference price for an engine block is 500.0$.
-     *  For example, if an engine block currently costs 500.0$, the random number for the variation
-     *  percentage (which is between 0 and 1) is 0.5 and the variation sign is -1.0 (in other words,
-     *  negative), then the final result of the updated price will be:
-     *       500.0 + (-1.0) * 0.5 * 0.2 * 500.0 = 450.0$
-     *   which represents a variation of -10% on the previous price.
-     *
-     *   In another example, we have another engine block that currently costs 300.0$, the random number for the
-     *   variation percentage is 1.0, which multiplied with 0.2 returns 0.2 representing a 20% variation for the price.
-     *   The variation sign is -1.0, so the result is:
-     *      300.0 + (-1.0) * 1.0 * 0.2 * 300.0 = 240.0
-     *   But 240.0 is less than the lower threshold for the price, which is half of the reference price of 500.0,
-     *   i.e. 250.0. So, the new price will actually be set to 250.0$
+     *  A broker that joins after the supplier registered, e.g. one that replaces a broker that left, gets
+     *  the registration and the quotes right away if it serves some of the stocked types.
      * **/
-    public static Double generateUpdatedPrice(CarComponentType type, Double price) {
-        Double sign = (Math.random() < 0.5 ? -1.0 : 1.0);
-        Double percentage = Math.random() * 0.2;
-        Double newPrice = price + sign * percentage * price;
-        Double lowerThreshold = referenceComponentPrices.get(type) - 0.5 * referenceComponentPrices.get(type);
-        Double upperThreshold = referenceComponentPrices.get(type) + 0.5 * referenceComponentPrices.get(type);
-
-        if (newPrice < lowerThreshold) {
-            newPrice = lowerThreshold;
-        } else if (newPrice > upperThreshold) {
-            newPrice = upperThreshold;
+    private void handleRegistrationAgreement(ACLMessage agreement) {
+        if (pendingRegistrations.remove(agreement.getSender()) && pendingRegistrations.isEmpty()) {
+            System.out.println("Supplier " + getLocalName() + " is registered with all its brokers.");
+            LaunchCoordinatorAgent.signalReady(this);
         }
+    }
 
-        return newPrice;
+    @Override
+    protected void onBrokerJoined(AID broker) {
+        if (registered && inventory.getStockedTypes().stream().anyMatch(type -> brokerDirectory.isServedBy(type, broker))) {
+            registerWithBrokers(Set.of(broker));
+        }
     }
 
     private Behaviour createPriceUpdateBehaviour() {
         return new TickerBehaviour(this, 5000) {
             @Override
             protected void onTick() {
-                referenceComponentPrices.entrySet().stream()
-                        .map(typePricePair -> new CarComponent(typePricePair.getKey(), generateUpdatedPrice(typePricePair.getKey(), typePricePair.getValue())))
-                        .forEach(carComponent -> prices.put(carComponent.type(), carComponent.price()));
-                String listOfUpdatedPricesAsString = Stream.of(prices)
-                        .map(Object::toString)
-                        .reduce("", (acc, x) -> acc + x);
-                System.out.println(getLocalName() + "'s randomly updated prices: " + listOfUpdatedPricesAsString);
+                priceEngine.tick();
+                if (verbose) {
+                    StringBuilder updatedPrices = new StringBuilder();
+                    for (CarComponentType type : inventory.getStockedTypes()) {
+                        updatedPrices.append(type).append('=').append(priceEngine.getPrice(type)).append(' ');
+                    }
+                    System.out.println(getLocalName() + "'s randomly updated prices: " + updatedPrices + "(" + priceEngine.getSkuCount() + " SKUs)");
+                }
+                pushQuotesToBroker();
             }
         };
     }
 
+    /**
+     *  Sends the current price of every stocked component to the brokers serving its type, which cache them
+     *  and answers consumer price requests from memory until the quotes go stale. Types that ran out are
+     *  sent without a price, which tells the broker to stop asking for them.
+     * **/
+    private void pushQuotesToBroker() {
+        Map<AID, List<PriceInformation>> quotesByBroker = new HashMap<>();
+        for (CarComponentType type : inventory.getStockedTypes()) {
+            Double price = inventory.isInStock(type) ? quotablePrice(type) : null;
+            for (AID broker : brokerDirectory.getOwnersOf(type)) {
+                quotesByBroker.computeIfAbsent(broker, aid -> new ArrayList<>()).add(new PriceInformation(this.getAID(), price, type));
+            }
+        }
+
+        quotesByBroker.forEach((broker, quotes) -> {
+            ACLMessage quoteUpdate = new ACLMessage(ACLMessage.INFORM);
+            quoteUpdate.setOntology(MarketOntology.QUOTE_UPDATE);
+            quoteUpdate.addReceiver(broker);
+            try {
+                MessageCodecs.encode(quotes, quoteUpdate);
+            } catch (IOException e) {
+                e.printStackTrace();
+                throw new RuntimeException(e);
+            }
+            send(quoteUpdate);
+        });
+        if (orderBook) {
+            postAsksToBrokers();
+        }
+    }
+
+    /**
+     *  In the order book trading mode the supplier keeps a standing ask per type in the book of every broker
+     *  that serves it, for all its free units at its current price. The broker takes the filled units off the
+     *  ask, and the supplier replaces it whenever it reprices or runs out of a type.
+     * **/
+    private void postAsksToBrokers() {
+        Map<AID, List<LimitOrder>> asksByBroker = new HashMap<>();
+        for (CarComponentType type : inventory.getStockedTypes()) {
+            Double price = quotablePrice(type);
+            int units = price != null ? inventory.getAvailableUnits(type) : 0;
+            for (AID broker : brokerDirectory.getOwnersOf(type)) {
+                asksByBroker.computeIfAbsent(broker, aid -> new ArrayList<>()).add(new LimitOrder(type, units, units > 0 ? price : 0.0, 0));
+            }
+        }
+
+        asksByBroker.forEach((broker, asks) -> {
+            ACLMessage askMessage = new ACLMessage(ACLMessage.PROPOSE);
+            askMessage.setOntology(MarketOntology.ORDER);
+            askMessage.addReceiver(broker);
+            try {
+                MessageCodecs.encode(asks, askMessage);
+            } catch (IOException e) {
+                e.printStackTrace();
+                throw new RuntimeException(e);
+            }
+            send(askMessage);
+        });
+    }
+
     private void handleUnknownRequestMessage(ACLMessage request) throws IOException {
         System.out.println("Supplier " + getLocalName() + " received a message that is not understood.");
         ACLMessage response = new ACLMessage(ACLMessage.NOT_UNDERSTOOD);
@@ -131,45 +276,201 @@ public class SupplierAgent extends BrokerClientAgent {
         throw new IOException("Message " + request.getPerformative() + " with content " + request.getContent() + "and performative " + ACLMessage.getPerformative(request.getPerformative()) + " not understood.");
     }
 
+    private Double quotablePrice(CarComponentType type) {
+        double price = priceEngine.getPrice(type);
+        return Double.isNaN(price) ? null : price;
+    }
+
+    private static String reservationId(AID consumer, CarComponentType type) {
+        return consumer.getName() + "/" + type;
+    }
+
+    /**
+     *  Quotes one unit of a type for a consumer and holds it for the consumer until the reservation expires.
+     *  The quote has no price if nothing is left to reserve.
+     * **/
+    private PriceInformation quoteAndReserve(CarComponentType type, AID consumer, long now) {
+        Double price = quotablePrice(type);
+        if (price == null || consumer == null || !inventory.reserve(reservationId(consumer, type), type, 1, now)) {
+            price = null;
+        }
+        PriceInformation quote = new PriceInformation(this.getAID(), price, type);
+        quote.setDestinationAid(consumer);
+        return quote;
+    }
+
     private void handleBrokerPriceRequest(ACLMessage request) throws IOException, ClassNotFoundException {
-        PriceInformation priceRequestFromBroker = Base64Serializer.deserialize(request.getContent());
+        if (MarketOntology.BASKET.equals(request.getOntology())) {
+            handleBrokerBasketPriceRequest(request);
+            return;
+        }
+        if (MarketOntology.RESERVATION.equals(request.getOntology())) {
+            handleBrokerReservationRequest(request);
+            return;
+        }
+        PriceInformation priceRequestFromBroker = MessageCodecs.decode(request);
 
         String componentTypeAsString = priceRequestFromBroker.getType().name();
-        System.out.println("Supplier " + getLocalName() + " received price request from " + brokerAgents[0].getLocalName() + " for " + componentTypeAsString);
+        if (verbose) {
+            System.out.println("Supplier " + getLocalName() + " received price request from " + request.getSender().getLocalName() + " for " + componentTypeAsString);
+        }
 
-        PriceInformation price = new PriceInformation(this.getAID(), prices.get(priceRequestFromBroker.getType()), priceRequestFromBroker.getType());
-        price.setDestinationAid(priceRequestFromBroker.getDestinationAid());
-        String serializedObjectString = Base64Serializer.serialize(price);
+        long now = System.currentTimeMillis();
+        inventory.expire(now);
+        PriceInformation price = quoteAndReserve(priceRequestFromBroker.getType(), priceRequestFromBroker.getDestinationAid(), now);
 
-        ACLMessage priceMessage = new ACLMessage(ACLMessage.INFORM);
-        priceMessage.addReceiver(brokerAgents[0]);
-        priceMessage.setContent(serializedObjectString);
+        ACLMessage priceMessage = request.createReply();
+        priceMessage.setPerformative(ACLMessage.INFORM);
+        MessageCodecs.encode(price, priceMessage);
         send(priceMessage);
-        System.out.println("Supplier " + getLocalName() + " sent " + componentTypeAsString + " price information to " + brokerAgents[0].getLocalName());
+        MarketMetrics.recordSincePosted(requestToQuoteLatency, request);
+        if (verbose) {
+            System.out.println("Supplier " + getLocalName() + " sent " + componentTypeAsString + " price information to " + request.getSender().getLocalName());
+        }
+    }
+
+    /**
+     *  Answers all the types of a basket price request in one INFORM. Types this supplier cannot sell are
+     *  quoted without a price, which the broker leaves out of its proposal.
+     * **/
+    private void handleBrokerBasketPriceRequest(ACLMessage request) throws IOException, ClassNotFoundException {
+        List<PriceInformation> priceRequestsFromBroker = MessageCodecs.decode(request);
+        if (verbose) {
+            System.out.println("Supplier " + getLocalName() + " received a basket price request from " + request.getSender().getLocalName() + " for " + priceRequestsFromBroker.size() + " component types");
+        }
+
+        long now = System.currentTimeMillis();
+        inventory.expire(now);
+        List<PriceInformation> quotes = new ArrayList<>(priceRequestsFromBroker.size());
+        for (PriceInformation priceRequestFromBroker : priceRequestsFromBroker) {
+            quotes.add(quoteAndReserve(priceRequestFromBroker.getType(), priceRequestFromBroker.getDestinationAid(), now));
+        }
+
+        ACLMessage priceMessage = request.createReply();
+        priceMessage.setPerformative(ACLMessage.INFORM);
+        MessageCodecs.encode(quotes, priceMessage);
+        send(priceMessage);
+        MarketMetrics.recordSincePosted(requestToQuoteLatency, request);
+        if (verbose) {
+            System.out.println("Supplier " + getLocalName() + " sent " + quotes.size() + " basket quotes to " + request.getSender().getLocalName());
+        }
+    }
+
+    /**
+     *  Holds one unit for each consumer that joined a price request this supplier already quoted to another
+     *  consumer. The broker expects no answer; a unit that cannot be held is sold from the free stock.
+     * **/
+    private void handleBrokerReservationRequest(ACLMessage request) throws IOException, ClassNotFoundException {
+        List<PriceInformation> reservations = MessageCodecs.decode(request);
+        long now = System.currentTimeMillis();
+        inventory.expire(now);
+        int heldCount = 0;
+        for (PriceInformation reservation : reservations) {
+            if (inventory.reserve(reservationId(reservation.getDestinationAid(), reservation.getType()), reservation.getType(), 1, now)) {
+                ++heldCount;
+            }
+        }
+        if (verbose) {
+            System.out.println("Supplier " + getLocalName() + " holds " + heldCount + "/" + reservations.size() + " units for the consumers that joined " + request.getConversationId());
+        }
+    }
+
+    /**
+     *  Sells one accepted unit, from the consumer's reservation if it still holds one and from the free
+     *  stock otherwise. Returns null if neither has a unit left.
+     * **/
+    private ComponentDeliveryUnit sellComponent(PriceInformation acceptedOffer) {
+        if (!inventory.commit(reservationId(acceptedOffer.getDestinationAid(), acceptedOffer.getType()))
+                && !inventory.take(acceptedOffer.getType(), 1)) {
+            return null;
+        }
+        this.balance += acceptedOffer.getPrice();
+        metrics.countComponent(acceptedOffer.getType(), 1);
+        return new ComponentDeliveryUnit(new CarComponent(acceptedOffer.getType(), acceptedOffer.getPrice()), this.getAID(), acceptedOffer.getDestinationAid());
     }
 
     private void handleComponentRequestFromBroker(ACLMessage message) throws IOException, ClassNotFoundException {
-        System.out.println("Supplier " + getLocalName() + " received a component request from " + brokerAgents[0].getLocalName());
-        PriceInformation componentRequestFromBroker = Base64Serializer.deserialize(message.getContent());
+        if (verbose) {
+            System.out.println("Supplier " + getLocalName() + " received a component request from " + message.getSender().getLocalName());
+        }
+        boolean basket = MarketOntology.BASKET.equals(message.getOntology());
+        List<PriceInformation> acceptedOffers = basket ? MessageCodecs.decode(message) : List.of(MessageCodecs.<PriceInformation>decode(message));
+
+        inventory.expire(System.currentTimeMillis());
+        List<ComponentDeliveryUnit> units = new ArrayList<>(acceptedOffers.size());
+        List<PriceInformation> unfilledOffers = new ArrayList<>();
+        for (PriceInformation acceptedOffer : acceptedOffers) {
+            ComponentDeliveryUnit unit = sellComponent(acceptedOffer);
+            if (unit != null) {
+                units.add(unit);
+            } else {
+                unfilledOffers.add(acceptedOffer);
+            }
+        }
 
-        this.balance += componentRequestFromBroker.getPrice();
-        Integer currentStock = this.stock.get(componentRequestFromBroker.getType());
-        this.stock.put(componentRequestFromBroker.getType(), currentStock - 1);
+        if (!units.isEmpty()) {
+            deliverComponents(message, units, basket);
+        }
+        if (!unfilledOffers.isEmpty()) {
+            ACLMessage stockOutReport = message.createReply();
+            stockOutReport.setPerformative(ACLMessage.FAILURE);
+            stockOutReport.setOntology(MarketOntology.STOCK_OUT);
+            MessageCodecs.encode(unfilledOffers, stockOutReport);
+            send(stockOutReport);
+            if (verbose) {
+                System.out.println("Supplier " + getLocalName() + " is out of stock for " + unfilledOffers.size() + " accepted units and reported it to " + message.getSender().getLocalName());
+            }
+        }
+        MarketMetrics.recordSincePosted(acceptToDeliveryLatency, message);
+        if (acceptedOffers.stream().anyMatch(acceptedOffer -> !inventory.isInStock(acceptedOffer.getType()))) {
+            pushQuotesToBroker();
+        }
+    }
 
-        ComponentDeliveryUnit unit = new ComponentDeliveryUnit(new CarComponent(componentRequestFromBroker.getType(), componentRequestFromBroker.getPrice()), this.getAID(), componentRequestFromBroker.getDestinationAid());
-        String serializedDeliveryUnit = Base64Serializer.serialize(unit);
+    /**
+     *  The delivery names its consumer and summarizes the sold units in the envelope, so that the broker can
+     *  journal and forward it without decoding it. With directDelivery, the units go straight to the consumer
+     *  and the broker only gets the envelope as a receipt.
+     * **/
+    private void deliverComponents(ACLMessage acceptMessage, List<ComponentDeliveryUnit> units, boolean basket) throws IOException {
+        AID consumer = units.get(0).getDestination();
+        String receipt = TradeReceipt.formatDeliveries(units);
+        ACLMessage delivery = acceptMessage.createReply();
+        delivery.setPerformative(ACLMessage.AGREE);
+        delivery.addUserDefinedParameter(MarketOntology.CONSUMER_PARAMETER, consumer.getName());
+        delivery.addUserDefinedParameter(MarketOntology.RECEIPT_PARAMETER, receipt);
+        MessageCodecs.encode(basket ? units : units.get(0), delivery);
+        if (directDelivery) {
+            delivery.clearAllReceiver();
+            delivery.addReceiver(consumer);
 
-        ACLMessage deliveryUnitResponseToBroker = new ACLMessage(ACLMessage.AGREE);
-        deliveryUnitResponseToBroker.addReceiver(brokerAgents[0]);
-        deliveryUnitResponseToBroker.setContent(serializedDeliveryUnit);
-        send(deliveryUnitResponseToBroker);
-        System.out.println("Supplier " + getLocalName() + " sent the requested component to " + brokerAgents[0].getLocalName());
+            ACLMessage deliveryReceipt = acceptMessage.createReply();
+            deliveryReceipt.setPerformative(ACLMessage.INFORM);
+            deliveryReceipt.setOntology(MarketOntology.DELIVERY_RECEIPT);
+            deliveryReceipt.addUserDefinedParameter(MarketOntology.CONSUMER_PARAMETER, consumer.getName());
+            deliveryReceipt.addUserDefinedParameter(MarketOntology.RECEIPT_PARAMETER, receipt);
+            send(deliveryReceipt);
+        }
+        send(delivery);
+        if (verbose) {
+            System.out.println("Supplier " + getLocalName() + " sent the requested component to " + (directDelivery ? consumer : acceptMessage.getSender()).getLocalName());
+        }
     }
 
     protected void handleRequest(ACLMessage request) throws IOException, ClassNotFoundException {
+        metrics.countMessage(request.getPerformative());
+        if (getAMS().equals(request.getSender())) {
+            // Deliveries the broker passes on keep the supplier as sender, so the AMS reports to the supplier
+            // when their consumer has left the platform. The units are gone with the consumer either way.
+            if (verbose) {
+                System.out.println("Supplier " + getLocalName() + " could not deliver conversation " + request.getConversationId() + ": " + request.getContent());
+            }
+            return;
+        }
         switch (request.getPerformative()) {
             case ACLMessage.REQUEST -> handleBrokerPriceRequest(request);
             case ACLMessage.ACCEPT_PROPOSAL -> handleComponentRequestFromBroker(request);
+            case ACLMessage.AGREE -> handleRegistrationAgreement(request);
             default -> handleUnknownRequestMessage(request);
         }
     }
@@ -179,6 +480,15 @@ public class SupplierAgent extends BrokerClientAgent {
     }
 
     protected void takeDown() {
+        cancelBrokerSubscription();
+        metrics.unregisterMBean();
+        if (checkpoint != null) {
+            try {
+                checkpoint.checkpoint(this);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
         System.out.println("Supplier " + getAID().getName() + " has terminated.");
     }
 }
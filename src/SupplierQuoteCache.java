@@ -0,0 +1,90 @@
+import jade.core.AID;
+
+import java.util.*;
+
+/**
+ *  Latest quote pushed by every supplier, indexed by component type. Quotes older than the
+ *  time-to-live are treated as missing, so the broker asks the supplier again instead of proposing
+ *  a price that may have moved since.
+ *
+ *  A quote without a price means the supplier ran out of that type. The supplier is then remembered as
+ *  depleted for it until it quotes a price again, so the broker stops asking it.
+ * **/
+public class SupplierQuoteCache {
+    private final long timeToLiveMillis;
+    private final List<Map<AID, CachedQuote>> quotesByType;
+    private final List<Set<AID>> depletedSuppliersByType;
+
+    private record CachedQuote(PriceInformation quote, long receivedAt) {}
+
+    public SupplierQuoteCache(long timeToLiveMillis) {
+        this.timeToLiveMillis = timeToLiveMillis;
+        this.quotesByType = new ArrayList<>();
+        this.depletedSuppliersByType = new ArrayList<>();
+        for (int i = 0; i < CarComponentType.values().length; ++i) {
+            quotesByType.add(new HashMap<>());
+            depletedSuppliersByType.add(new HashSet<>());
+        }
+    }
+
+    public void update(PriceInformation quote, long now) {
+        if (quote.getSupplier() == null || quote.getType() == null) {
+            return;
+        }
+
+        int ordinal = quote.getType().ordinal();
+        if (quote.getPrice() != null) {
+            quotesByType.get(ordinal).put(quote.getSupplier(), new CachedQuote(quote, now));
+            depletedSuppliersByType.get(ordinal).remove(quote.getSupplier());
+        } else {
+            quotesByType.get(ordinal).remove(quote.getSupplier());
+            depletedSuppliersByType.get(ordinal).add(quote.getSupplier());
+        }
+    }
+
+    public boolean isDepleted(CarComponentType type, AID supplier) {
+        return depletedSuppliersByType.get(type.ordinal()).contains(supplier);
+    }
+
+    public PriceInformation getFreshQuote(CarComponentType type, AID supplier, long now) {
+        CachedQuote cachedQuote = quotesByType.get(type.ordinal()).get(supplier);
+        if (cachedQuote == null || now - cachedQuote.receivedAt() > timeToLiveMillis) {
+            return null;
+        }
+        return cachedQuote.quote();
+    }
+
+    /**
+     *  Returns the cheapest price any supplier quoted for the type within the time-to-live, or null.
+     * **/
+    public Double getCheapestFreshPrice(CarComponentType type, long now) {
+        Double cheapest = null;
+        for (CachedQuote cachedQuote : quotesByType.get(type.ordinal()).values()) {
+            if (now - cachedQuote.receivedAt() <= timeToLiveMillis && (cheapest == null || cachedQuote.quote().getPrice() < cheapest)) {
+                cheapest = cachedQuote.quote().getPrice();
+            }
+        }
+        return cheapest;
+    }
+
+    /**
+     *  Returns the k cheapest quotes, cheapest first. A k of zero or less keeps every quote.
+     * **/
+    public static List<PriceInformation> selectCheapest(List<PriceInformation> quotes, int k) {
+        List<PriceInformation> sortedQuotes = new ArrayList<>(quotes);
+        sortedQuotes.sort(Comparator.comparingDouble(PriceInformation::getPrice));
+        return k > 0 && sortedQuotes.size() > k ? new ArrayList<>(sortedQuotes.subList(0, k)) : sortedQuotes;
+    }
+
+    /**
+     *  Same as selectCheapest, but keeps the k cheapest quotes of every component type, which is what a
+     *  basket proposal needs when the quotes of several types are mixed in one list.
+     * **/
+    public static List<PriceInformation> selectCheapestPerType(List<PriceInformation> quotes, int k) {
+        Map<CarComponentType, List<PriceInformation>> quotesByType = new EnumMap<>(CarComponentType.class);
+        quotes.forEach(quote -> quotesByType.computeIfAbsent(quote.getType(), type -> new ArrayList<>()).add(quote));
+        List<PriceInformation> selectedQuotes = new ArrayList<>();
+        quotesByType.values().forEach(quotesOfType -> selectedQuotes.addAll(selectCheapest(quotesOfType, k)));
+        return selectedQuotes;
+    }
+}
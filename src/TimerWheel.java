@@ -0,0 +1,85 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ *  Hashed timer wheel. Scheduling is O(1) and advancing only visits the slots whose tick has passed,
+ *  so the cost of expiring deadlines does not depend on how many of them are pending. Deadlines further
+ *  away than one revolution of the wheel simply stay in their slot until the revolution they belong to.
+ *
+ *  Entries cannot be cancelled: owners are expected to ignore the ones that fire after the timed
+ *  operation already finished, which is cheaper than unlinking them on the hot path.
+ * **/
+public class TimerWheel<T> {
+    private final long tickMillis;
+    private final List<List<Entry<T>>> slots;
+    private final List<T> expiredItems;
+    private long currentTick;
+    private int size;
+
+    private record Entry<T>(T item, long deadlineTick) {}
+
+    public TimerWheel(long tickMillis, int slotCount, long startMillis) {
+        this.tickMillis = tickMillis;
+        this.slots = new ArrayList<>(slotCount);
+        for (int i = 0; i < slotCount; ++i) {
+            slots.add(new ArrayList<>());
+        }
+        this.expiredItems = new ArrayList<>();
+        this.currentTick = startMillis / tickMillis;
+        this.size = 0;
+    }
+
+    public long getTickMillis() {
+        return tickMillis;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void schedule(T item, long deadlineMillis) {
+        long deadlineTick = Math.max(ceilDiv(deadlineMillis, tickMillis), currentTick + 1);
+        slots.get((int) (deadlineTick % slots.size())).add(new Entry<>(item, deadlineTick));
+        ++size;
+    }
+
+    public void advance(long nowMillis, Consumer<T> onExpired) {
+        long targetTick = nowMillis / tickMillis;
+        int visitedSlots = 0;
+        while (currentTick < targetTick && visitedSlots <= slots.size()) {
+            ++currentTick;
+            ++visitedSlots;
+            expireSlot(slots.get((int) (currentTick % slots.size())), targetTick, onExpired);
+        }
+        if (currentTick < targetTick) {
+            // The wheel fell behind by more than one revolution, every slot has already been visited once.
+            currentTick = targetTick;
+            slots.forEach(slot -> expireSlot(slot, targetTick, onExpired));
+        }
+    }
+
+    private void expireSlot(List<Entry<T>> slot, long targetTick, Consumer<T> onExpired) {
+        int kept = 0;
+        for (int i = 0; i < slot.size(); ++i) {
+            Entry<T> entry = slot.get(i);
+            if (entry.deadlineTick() <= targetTick) {
+                expiredItems.add(entry.item());
+            } else {
+                slot.set(kept++, entry);
+            }
+        }
+        slot.subList(kept, slot.size()).clear();
+        size -= expiredItems.size();
+
+        // Callbacks run after the slot is compacted because they may schedule new deadlines into it.
+        for (T item : expiredItems) {
+            onExpired.accept(item);
+        }
+        expiredItems.clear();
+    }
+
+    private static long ceilDiv(long dividend, long divisor) {
+        return -Math.floorDiv(-dividend, divisor);
+    }
+}
@@ -0,0 +1,165 @@
+import jade.core.AID;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ *  Append-only journal of the trading events a broker sees. Every event is a fixed-size binary record
+ *  written straight into a memory-mapped segment file, so appending an event allocates nothing and costs
+ *  a handful of stores. A full segment is closed and the next one is mapped, and files are named with
+ *  the broker name and a sequence number so that replaying them in file name order replays the events.
+ *
+ *  Agents are written as small integer ids. The first time an agent shows up, an AGENT record maps its id
+ *  to its name, truncated to what fits in a record. Unused space in a segment stays zero, which is where
+ *  a reader stops. A journal is used by a single agent thread and is not thread safe.
+ *
+ *  Record layout, little endian:
+ *      0  byte   kind
+ *      1  byte   component type ordinal
+ *      2  short  quantity
+ *      4  int    consumer id
+ *      8  long   timestamp in milliseconds
+ *      16 int    supplier id
+ *      20 int    hash of the conversation id
+ *      24 double price, NaN if there is none
+ *  AGENT records keep the kind and use bytes 2-3 for the name length, 4-7 for the agent id and the rest
+ *  of the record for the name.
+ * **/
+public class TradeJournal implements AutoCloseable {
+    public static final int RECORD_SIZE = 64;
+    public static final String FILE_SUFFIX = ".journal";
+
+    public static final byte AGENT = 1;
+    public static final byte REQUEST = 2;
+    public static final byte QUOTE = 3;
+    public static final byte ACCEPT = 4;
+    public static final byte DELIVERY = 5;
+    public static final byte STOCK_OUT = 6;
+
+    public static final int TYPE_OFFSET = 1;
+    public static final int QUANTITY_OFFSET = 2;
+    public static final int CONSUMER_OFFSET = 4;
+    public static final int TIMESTAMP_OFFSET = 8;
+    public static final int SUPPLIER_OFFSET = 16;
+    public static final int CONVERSATION_OFFSET = 20;
+    public static final int PRICE_OFFSET = 24;
+    public static final int AGENT_NAME_LENGTH_OFFSET = 2;
+    public static final int AGENT_ID_OFFSET = 4;
+    public static final int AGENT_NAME_OFFSET = 8;
+
+    private static final int NO_AGENT = -1;
+
+    private final Path directory;
+    private final String filePrefix;
+    private final long segmentSize;
+    private final Map<String, Integer> agentIds;
+    private FileChannel segmentChannel;
+    private MappedByteBuffer segment;
+    private int segmentNumber;
+
+    public TradeJournal(Path directory, String name, long segmentSize) throws IOException {
+        this.directory = directory;
+        this.filePrefix = name + "-";
+        this.segmentSize = Math.max(RECORD_SIZE, segmentSize - segmentSize % RECORD_SIZE);
+        this.agentIds = new HashMap<>();
+        this.segmentNumber = 0;
+        Files.createDirectories(directory);
+        try (var existingSegments = Files.list(directory)) {
+            existingSegments.map(path -> path.getFileName().toString())
+                    .filter(fileName -> fileName.startsWith(filePrefix) && fileName.endsWith(FILE_SUFFIX))
+                    .forEach(fileName -> segmentNumber = Math.max(segmentNumber, parseSegmentNumber(fileName) + 1));
+        }
+        openNextSegment();
+    }
+
+    private int parseSegmentNumber(String fileName) {
+        try {
+            return Integer.parseInt(fileName.substring(filePrefix.length(), fileName.length() - FILE_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private void openNextSegment() throws IOException {
+        closeSegment();
+        Path segmentPath = directory.resolve(String.format("%s%06d%s", filePrefix, segmentNumber++, FILE_SUFFIX));
+        segmentChannel = FileChannel.open(segmentPath, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        segment = segmentChannel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        segment.order(ByteOrder.LITTLE_ENDIAN);
+        // Agent ids are only defined within a segment, so every segment can be read on its own.
+        agentIds.clear();
+    }
+
+    private void closeSegment() throws IOException {
+        if (segmentChannel != null) {
+            segment.force();
+            segmentChannel.close();
+            segmentChannel = null;
+            segment = null;
+        }
+    }
+
+    private int nextRecord() throws IOException {
+        if (segment.remaining() < RECORD_SIZE) {
+            openNextSegment();
+        }
+        int position = segment.position();
+        segment.position(position + RECORD_SIZE);
+        return position;
+    }
+
+    private int agentId(AID agent) throws IOException {
+        if (agent == null) {
+            return NO_AGENT;
+        }
+        Integer agentId = agentIds.get(agent.getName());
+        if (agentId != null) {
+            return agentId;
+        }
+
+        byte[] name = agent.getName().getBytes(StandardCharsets.UTF_8);
+        int nameLength = Math.min(name.length, RECORD_SIZE - AGENT_NAME_OFFSET);
+        agentId = agentIds.size();
+        int position = nextRecord();
+        segment.put(position, AGENT);
+        segment.putShort(position + AGENT_NAME_LENGTH_OFFSET, (short) nameLength);
+        segment.putInt(position + AGENT_ID_OFFSET, agentId);
+        segment.put(position + AGENT_NAME_OFFSET, name, 0, nameLength);
+        agentIds.put(agent.getName(), agentId);
+        return agentId;
+    }
+
+    /**
+     *  Appends one event. The kind is written last, so a reader never sees a record with half its fields.
+     * **/
+    public void append(byte kind, String conversationId, AID consumer, AID supplier, CarComponentType type, int quantity, Double price) throws IOException {
+        // Room for the event and the AGENT records of both its agents, which must share its segment.
+        if (segment.remaining() < 3 * RECORD_SIZE) {
+            openNextSegment();
+        }
+        int consumerId = agentId(consumer);
+        int supplierId = agentId(supplier);
+        int position = nextRecord();
+        segment.put(position + TYPE_OFFSET, type != null ? (byte) type.ordinal() : -1);
+        segment.putShort(position + QUANTITY_OFFSET, (short) quantity);
+        segment.putInt(position + CONSUMER_OFFSET, consumerId);
+        segment.putLong(position + TIMESTAMP_OFFSET, System.currentTimeMillis());
+        segment.putInt(position + SUPPLIER_OFFSET, supplierId);
+        segment.putInt(position + CONVERSATION_OFFSET, conversationId != null ? conversationId.hashCode() : 0);
+        segment.putDouble(position + PRICE_OFFSET, price != null ? price : Double.NaN);
+        segment.put(position, kind);
+    }
+
+    @Override
+    public void close() throws IOException {
+        closeSegment();
+    }
+}
@@ -0,0 +1,190 @@
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ *  Offline reader for the segments written by TradeJournal. It maps every segment read-only and walks the
+ *  records in file name order, rebuilding from the delivery events what the agents themselves keep in
+ *  memory: supplier balances and stock and consumer holdings, along with volume statistics per component
+ *  type. Suppliers are assumed to start with the stock CarComponentType.initializeStock gives them. Usage:
+ *      java TradeJournalReplay journal=journal stock=100
+ * **/
+public class TradeJournalReplay {
+    private final int typeCount;
+    private final Map<String, Integer> agentIndexes;
+    private final List<String> agentNames;
+    private final int[] initialStock;
+    private final long[] recordsByKind;
+    private final long[] deliveriesByType;
+    private final double[] volumeByType;
+    private final double[] minimumPriceByType;
+    private final double[] maximumPriceByType;
+    private boolean[] isSupplier;
+    private boolean[] isConsumer;
+    private double[] balances;
+    private int[] deliveredUnits;
+    private long records;
+    private long bytes;
+    private int segments;
+
+    public TradeJournalReplay(Map<CarComponentType, Integer> initialStock) {
+        this.typeCount = CarComponentType.values().length;
+        this.agentIndexes = new HashMap<>();
+        this.agentNames = new ArrayList<>();
+        this.initialStock = new int[typeCount];
+        initialStock.forEach((type, quantity) -> this.initialStock[type.ordinal()] = quantity);
+        this.recordsByKind = new long[TradeJournal.STOCK_OUT + 1];
+        this.deliveriesByType = new long[typeCount];
+        this.volumeByType = new double[typeCount];
+        this.minimumPriceByType = new double[typeCount];
+        this.maximumPriceByType = new double[typeCount];
+        Arrays.fill(minimumPriceByType, Double.MAX_VALUE);
+        this.isSupplier = new boolean[16];
+        this.isConsumer = new boolean[16];
+        this.balances = new double[16];
+        this.deliveredUnits = new int[16 * typeCount];
+    }
+
+    public void replayDirectory(Path directory) throws IOException {
+        List<Path> segmentPaths;
+        try (Stream<Path> files = Files.list(directory)) {
+            segmentPaths = files.filter(path -> path.getFileName().toString().endsWith(TradeJournal.FILE_SUFFIX)).sorted().toList();
+        }
+        for (Path segmentPath : segmentPaths) {
+            replaySegment(segmentPath);
+        }
+    }
+
+    public void replaySegment(Path segmentPath) throws IOException {
+        try (FileChannel channel = FileChannel.open(segmentPath, StandardOpenOption.READ)) {
+            MappedByteBuffer segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            segment.order(ByteOrder.LITTLE_ENDIAN);
+            ++segments;
+
+            // Agent ids are local to a segment, this maps them to the indexes used across the replay.
+            int[] agentIndexById = new int[16];
+            for (int position = 0; position + TradeJournal.RECORD_SIZE <= segment.limit(); position += TradeJournal.RECORD_SIZE) {
+                byte kind = segment.get(position);
+                if (kind == 0) {
+                    break;
+                }
+                ++records;
+                bytes += TradeJournal.RECORD_SIZE;
+                if (kind < recordsByKind.length) {
+                    ++recordsByKind[kind];
+                }
+
+                if (kind == TradeJournal.AGENT) {
+                    int agentId = segment.getInt(position + TradeJournal.AGENT_ID_OFFSET);
+                    byte[] name = new byte[segment.getShort(position + TradeJournal.AGENT_NAME_LENGTH_OFFSET)];
+                    segment.get(position + TradeJournal.AGENT_NAME_OFFSET, name);
+                    if (agentId >= agentIndexById.length) {
+                        agentIndexById = Arrays.copyOf(agentIndexById, Math.max(agentId + 1, 2 * agentIndexById.length));
+                    }
+                    agentIndexById[agentId] = agentIndex(new String(name, StandardCharsets.UTF_8));
+                } else if (kind == TradeJournal.DELIVERY) {
+                    int type = segment.get(position + TradeJournal.TYPE_OFFSET);
+                    int consumer = agentIndexById[segment.getInt(position + TradeJournal.CONSUMER_OFFSET)];
+                    int supplier = agentIndexById[segment.getInt(position + TradeJournal.SUPPLIER_OFFSET)];
+                    int quantity = segment.getShort(position + TradeJournal.QUANTITY_OFFSET);
+                    double price = segment.getDouble(position + TradeJournal.PRICE_OFFSET);
+                    recordDelivery(consumer, supplier, type, quantity, price);
+                }
+            }
+        }
+    }
+
+    private int agentIndex(String name) {
+        Integer index = agentIndexes.get(name);
+        if (index != null) {
+            return index;
+        }
+
+        index = agentNames.size();
+        agentNames.add(name);
+        agentIndexes.put(name, index);
+        if (index >= balances.length) {
+            int capacity = 2 * balances.length;
+            isSupplier = Arrays.copyOf(isSupplier, capacity);
+            isConsumer = Arrays.copyOf(isConsumer, capacity);
+            balances = Arrays.copyOf(balances, capacity);
+            deliveredUnits = Arrays.copyOf(deliveredUnits, capacity * typeCount);
+        }
+        return index;
+    }
+
+    private void recordDelivery(int consumer, int supplier, int type, int quantity, double price) {
+        isConsumer[consumer] = true;
+        isSupplier[supplier] = true;
+        balances[supplier] += quantity * price;
+        balances[consumer] -= quantity * price;
+        deliveredUnits[supplier * typeCount + type] -= quantity;
+        deliveredUnits[consumer * typeCount + type] += quantity;
+
+        deliveriesByType[type] += quantity;
+        volumeByType[type] += quantity * price;
+        minimumPriceByType[type] = Math.min(minimumPriceByType[type], price);
+        maximumPriceByType[type] = Math.max(maximumPriceByType[type], price);
+    }
+
+    public void printSummary(long wallClockNanos) {
+        double seconds = wallClockNanos / 1e9;
+        System.out.printf("Replayed %d records from %d segments in %.3f s (%.0f records/s, %.1f MB/s).%n",
+                records, segments, seconds, records / seconds, bytes / 1e6 / seconds);
+        System.out.printf("  %d agents, %d requests, %d quotes, %d accepts, %d deliveries, %d stock-outs%n",
+                recordsByKind[TradeJournal.AGENT], recordsByKind[TradeJournal.REQUEST], recordsByKind[TradeJournal.QUOTE],
+                recordsByKind[TradeJournal.ACCEPT], recordsByKind[TradeJournal.DELIVERY], recordsByKind[TradeJournal.STOCK_OUT]);
+
+        CarComponentType[] types = CarComponentType.values();
+        for (int type = 0; type < typeCount; ++type) {
+            if (deliveriesByType[type] > 0) {
+                System.out.printf("  %-16s %12d units, volume %16.2f, average price %10.2f, range %10.2f - %10.2f%n", types[type],
+                        deliveriesByType[type], volumeByType[type], volumeByType[type] / deliveriesByType[type],
+                        minimumPriceByType[type], maximumPriceByType[type]);
+            }
+        }
+
+        for (int agent = 0; agent < agentNames.size(); ++agent) {
+            if (isSupplier[agent]) {
+                StringBuilder stock = new StringBuilder();
+                for (int type = 0; type < typeCount; ++type) {
+                    if (initialStock[type] > 0) {
+                        stock.append(' ').append(types[type]).append('=').append(initialStock[type] + deliveredUnits[agent * typeCount + type]);
+                    }
+                }
+                System.out.printf("Supplier %s balance %.2f, stock%s%n", agentNames.get(agent), balances[agent], stock);
+            }
+        }
+        for (int agent = 0; agent < agentNames.size(); ++agent) {
+            if (isConsumer[agent]) {
+                StringBuilder holdings = new StringBuilder();
+                for (int type = 0; type < typeCount; ++type) {
+                    if (deliveredUnits[agent * typeCount + type] > 0) {
+                        holdings.append(' ').append(types[type]).append('=').append(deliveredUnits[agent * typeCount + type]);
+                    }
+                }
+                System.out.printf("Consumer %s spent %.2f, holdings%s%n", agentNames.get(agent), -balances[agent], holdings);
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        AgentArguments arguments = AgentArguments.of(args);
+        TradeJournalReplay replay = new TradeJournalReplay(CarComponentType.initializeStock(arguments.getInt("stock", 100)));
+
+        long start = System.nanoTime();
+        replay.replayDirectory(Path.of(arguments.getString("journal", "journal")));
+        replay.printSummary(System.nanoTime() - start);
+    }
+}
@@ -0,0 +1,48 @@
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ *  One line of the settlement summary that accepts and deliveries carry in their receipt parameter: the
+ *  units of one component type sold at one price. The summary lets the broker journal a trade and route its
+ *  message without decoding the content. It is written as TYPE:quantity:price lines separated by ';'.
+ * **/
+public record TradeReceipt(CarComponentType type, int quantity, double price) {
+    public static String formatOffers(List<PriceInformation> offers) {
+        Map<String, Integer> quantities = new LinkedHashMap<>();
+        for (PriceInformation offer : offers) {
+            quantities.merge(offer.getType() + ":" + offer.getPrice(), 1, Integer::sum);
+        }
+        return format(quantities);
+    }
+
+    public static String formatDeliveries(List<ComponentDeliveryUnit> deliveryUnits) {
+        Map<String, Integer> quantities = new LinkedHashMap<>();
+        for (ComponentDeliveryUnit deliveryUnit : deliveryUnits) {
+            quantities.merge(deliveryUnit.getComponent().type() + ":" + deliveryUnit.getComponent().price(), 1, Integer::sum);
+        }
+        return format(quantities);
+    }
+
+    private static String format(Map<String, Integer> quantities) {
+        StringBuilder receipt = new StringBuilder();
+        quantities.forEach((typeAndPrice, quantity) -> {
+            if (!receipt.isEmpty()) {
+                receipt.append(';');
+            }
+            int separator = typeAndPrice.indexOf(':');
+            receipt.append(typeAndPrice, 0, separator).append(':').append(quantity).append(typeAndPrice, separator, typeAndPrice.length());
+        });
+        return receipt.toString();
+    }
+
+    public static List<TradeReceipt> parse(String receipt) {
+        List<TradeReceipt> lines = new ArrayList<>();
+        for (String line : receipt.split(";")) {
+            String[] fields = line.split(":");
+            lines.add(new TradeReceipt(CarComponentType.valueOf(fields[0]), Integer.parseInt(fields[1]), Double.parseDouble(fields[2])));
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,195 @@
+import jade.core.AID;
+import jade.lang.acl.ACLMessage;
+import jade.util.leap.Iterator;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ *  Binary capture of the ACL messages a broker receives, for TrafficReplay to play back against another
+ *  build. The file starts with the format version and the name of the capturing broker, followed by one
+ *  length-prefixed record per message:
+ *      varint  microseconds since the previous record
+ *      byte    performative
+ *      agent   sender, varint receiver count, receivers
+ *      string  conversation id, reply-with, in-reply-to, language, encoding, ontology, protocol
+ *      varint  user-defined parameter count, then key and value strings
+ *      byte    content kind (0 none, 1 string, 2 byte sequence), then the content
+ *  An agent is a varint: its index plus one in the table of names seen so far, or 0 followed by a name
+ *  seen for the first time, so that every name is written once. A capture is written by a single agent
+ *  thread and is not thread safe.
+ * **/
+public class TrafficCapture implements AutoCloseable {
+    private static final int FORMAT_VERSION = 1;
+    private static final byte NO_CONTENT = 0;
+    private static final byte STRING_CONTENT = 1;
+    private static final byte BYTE_SEQUENCE_CONTENT = 2;
+
+    private final OutputStream output;
+    private final BinaryWriter record;
+    private final BinaryWriter lengthPrefix;
+    private final Map<String, Integer> agentIndexes;
+    private long previousNanos;
+    private long messageCount;
+
+    public record CapturedMessage(long offsetMicros, ACLMessage message) {}
+
+    public record Capture(String brokerName, List<CapturedMessage> messages) {}
+
+    public TrafficCapture(Path file, AID broker) throws IOException {
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        this.output = new BufferedOutputStream(Files.newOutputStream(file), 1 << 16);
+        this.record = new BinaryWriter(512);
+        this.lengthPrefix = new BinaryWriter(8);
+        this.agentIndexes = new HashMap<>();
+        this.previousNanos = System.nanoTime();
+        this.messageCount = 0;
+
+        record.writeVarInt(FORMAT_VERSION);
+        record.writeString(broker.getName());
+        output.write(record.toByteArray());
+    }
+
+    public long getMessageCount() {
+        return messageCount;
+    }
+
+    public void capture(ACLMessage message) throws IOException {
+        long now = System.nanoTime();
+        record.reset();
+        record.writeVarInt((int) Math.min((now - previousNanos) / 1000, Integer.MAX_VALUE));
+        previousNanos = now;
+
+        record.writeByte(message.getPerformative());
+        writeAgent(message.getSender());
+        List<AID> receivers = new ArrayList<>();
+        Iterator receiverIterator = message.getAllReceiver();
+        while (receiverIterator.hasNext()) {
+            receivers.add((AID) receiverIterator.next());
+        }
+        record.writeVarInt(receivers.size());
+        for (AID receiver : receivers) {
+            writeAgent(receiver);
+        }
+
+        record.writeString(message.getConversationId());
+        record.writeString(message.getReplyWith());
+        record.writeString(message.getInReplyTo());
+        record.writeString(message.getLanguage());
+        record.writeString(message.getEncoding());
+        record.writeString(message.getOntology());
+        record.writeString(message.getProtocol());
+
+        Properties parameters = message.getAllUserDefinedParameters();
+        record.writeVarInt(parameters.size());
+        for (String key : parameters.stringPropertyNames()) {
+            record.writeString(key);
+            record.writeString(parameters.getProperty(key));
+        }
+
+        if (message.hasByteSequenceContent()) {
+            byte[] content = message.getByteSequenceContent();
+            record.writeByte(BYTE_SEQUENCE_CONTENT);
+            record.writeVarInt(content.length);
+            record.writeBytes(content);
+        } else if (message.getContent() != null) {
+            record.writeByte(STRING_CONTENT);
+            record.writeString(message.getContent());
+        } else {
+            record.writeByte(NO_CONTENT);
+        }
+
+        lengthPrefix.reset();
+        lengthPrefix.writeVarInt(record.size());
+        output.write(lengthPrefix.toByteArray());
+        output.write(record.toByteArray());
+        ++messageCount;
+    }
+
+    private void writeAgent(AID agent) {
+        String name = agent == null ? "" : agent.getName();
+        Integer index = agentIndexes.get(name);
+        if (index != null) {
+            record.writeVarInt(index + 1);
+            return;
+        }
+        agentIndexes.put(name, agentIndexes.size());
+        record.writeVarInt(0);
+        record.writeString(name);
+    }
+
+    @Override
+    public void close() throws IOException {
+        output.close();
+    }
+
+    public static Capture read(Path file) throws IOException {
+        byte[] bytes = Files.readAllBytes(file);
+        BinaryReader reader = new BinaryReader(bytes);
+        int version = reader.readVarInt();
+        if (version != FORMAT_VERSION) {
+            throw new IOException("Capture " + file + " has format version " + version + ", expected " + FORMAT_VERSION + ".");
+        }
+        String brokerName = reader.readString();
+
+        List<String> agentNames = new ArrayList<>();
+        List<CapturedMessage> messages = new ArrayList<>();
+        long offsetMicros = 0;
+        while (reader.hasRemaining()) {
+            int length = reader.readVarInt();
+            BinaryReader recordReader = new BinaryReader(reader.readBytes(length));
+            offsetMicros += recordReader.readVarInt();
+
+            ACLMessage message = new ACLMessage(recordReader.readByte());
+            message.setSender(readAgent(recordReader, agentNames));
+            int receiverCount = recordReader.readVarInt();
+            for (int i = 0; i < receiverCount; ++i) {
+                message.addReceiver(readAgent(recordReader, agentNames));
+            }
+
+            message.setConversationId(recordReader.readString());
+            message.setReplyWith(recordReader.readString());
+            message.setInReplyTo(recordReader.readString());
+            message.setLanguage(recordReader.readString());
+            message.setEncoding(recordReader.readString());
+            message.setOntology(recordReader.readString());
+            message.setProtocol(recordReader.readString());
+
+            int parameterCount = recordReader.readVarInt();
+            for (int i = 0; i < parameterCount; ++i) {
+                message.addUserDefinedParameter(recordReader.readString(), recordReader.readString());
+            }
+
+            switch (recordReader.readByte()) {
+                case BYTE_SEQUENCE_CONTENT -> message.setByteSequenceContent(recordReader.readBytes(recordReader.readVarInt()));
+                case STRING_CONTENT -> message.setContent(recordReader.readString());
+                default -> {
+                }
+            }
+            messages.add(new CapturedMessage(offsetMicros, message));
+        }
+        return new Capture(brokerName, messages);
+    }
+
+    private static AID readAgent(BinaryReader reader, List<String> agentNames) throws IOException {
+        int index = reader.readVarInt();
+        String name;
+        if (index == 0) {
+            name = reader.readString();
+            agentNames.add(name);
+        } else {
+            name = agentNames.get(index - 1);
+        }
+        return name.isEmpty() ? null : new AID(name, AID.ISGUID);
+    }
+}
@@ -0,0 +1,214 @@
+import jade.core.AID;
+import jade.core.Profile;
+import jade.core.ProfileImpl;
+import jade.core.Runtime;
+import jade.lang.acl.ACLMessage;
+import jade.wrapper.ContainerController;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ *  Plays a traffic capture written by a broker started with capture=<file> back against the BrokerAgent of
+ *  the current build. It boots an in-process platform with the platform name of the capture, the broker
+ *  under its recorded name and a ReplayEndpointAgent for every agent that sent it something, so that the
+ *  names inside the recorded messages still resolve. The recorded messages then go to the broker at their
+ *  original pace, speed times faster, or as fast as they can be sent with speed=max.
+ *
+ *  The report gives the replay throughput and the broker's reply latency: the time from a recorded message
+ *  to the broker's next message in the same conversation. report=<file> saves it, and baseline=<file>
+ *  compares the run with a report saved by another build. Broker options go through -Dmarket.<key>. Usage:
+ *      java TrafficReplay capture=broker.capture speed=max report=after.properties baseline=before.properties
+ * **/
+public class TrafficReplay {
+    private static final long STARTUP_MILLIS = 3000;
+    private static final String[] REPORT_KEYS = {"messages", "seconds", "messages-per-second", "replies", "reply-p50-ms", "reply-p90-ms", "reply-p99-ms", "reply-max-ms"};
+
+    private final Path captureFile;
+    private final double speed;
+    private final long settleMillis;
+    private final String reportFile;
+    private final String baselineFile;
+    private final TrafficCapture.Capture capture;
+    private final Map<String, Long> pendingConversations;
+    private final LatencyHistogram replyLatency;
+    private final AtomicLong replies;
+    private final CountDownLatch sendingFinished;
+    private volatile long lastReplyNanos;
+    private long startNanos;
+    private long endNanos;
+
+    public TrafficReplay(AgentArguments arguments) throws IOException {
+        this.captureFile = Path.of(arguments.getString("capture", "broker.capture"));
+        String speedArgument = arguments.getString("speed", "1");
+        this.speed = "max".equals(speedArgument) ? 0.0 : Double.parseDouble(speedArgument);
+        this.settleMillis = arguments.getLong("settle", 2000);
+        this.reportFile = arguments.getString("report", "");
+        this.baselineFile = arguments.getString("baseline", "");
+        this.capture = TrafficCapture.read(captureFile);
+        this.pendingConversations = new ConcurrentHashMap<>();
+        this.replyLatency = new LatencyHistogram();
+        this.replies = new AtomicLong();
+        this.sendingFinished = new CountDownLatch(1);
+        prepareMessages();
+    }
+
+    /**
+     *  Platform agents are left out, since the replay platform has its own, and every message is addressed to
+     *  the broker alone: a consumer may have sent it to other brokers as well.
+     * **/
+    private void prepareMessages() {
+        AID broker = new AID(capture.brokerName(), AID.ISGUID);
+        capture.messages().removeIf(captured -> isPlatformAgent(captured.message().getSender()));
+        for (TrafficCapture.CapturedMessage captured : capture.messages()) {
+            captured.message().clearAllReceiver();
+            captured.message().addReceiver(broker);
+        }
+    }
+
+    private static boolean isPlatformAgent(AID agent) {
+        return agent == null || agent.getLocalName().equals("ams") || agent.getLocalName().equals("df");
+    }
+
+    public List<TrafficCapture.CapturedMessage> getMessages() {
+        return capture.messages();
+    }
+
+    public double getSpeed() {
+        return speed;
+    }
+
+    public void recordSend(ACLMessage message) {
+        if (message.getConversationId() != null) {
+            pendingConversations.put(message.getConversationId(), System.nanoTime());
+        }
+    }
+
+    public void recordReply(ACLMessage message) {
+        long now = System.nanoTime();
+        replies.incrementAndGet();
+        lastReplyNanos = now;
+        Long sentNanos = message.getConversationId() != null ? pendingConversations.remove(message.getConversationId()) : null;
+        if (sentNanos != null) {
+            replyLatency.record(now - sentNanos);
+        }
+    }
+
+    public void finishSending() {
+        sendingFinished.countDown();
+    }
+
+    public void run() throws Exception {
+        String brokerName = capture.brokerName();
+        Profile profile = new ProfileImpl(null, findFreePort(), brokerName.substring(brokerName.indexOf('@') + 1));
+        profile.setParameter(Profile.GUI, "false");
+        ContainerController container = Runtime.instance().createMainContainer(profile);
+        try {
+            startAgents(container);
+            Thread.sleep(STARTUP_MILLIS);
+
+            startNanos = System.nanoTime();
+            lastReplyNanos = startNanos;
+            container.acceptNewAgent("replay-driver", new ReplayDriverAgent(this)).start();
+            sendingFinished.await();
+            endNanos = System.nanoTime();
+            // Replies still on their way are counted until the broker has been quiet for settleMillis.
+            while (System.nanoTime() - lastReplyNanos < TimeUnit.MILLISECONDS.toNanos(settleMillis)) {
+                Thread.sleep(settleMillis / 10 + 1);
+            }
+            printReport(createReport());
+        } finally {
+            container.kill();
+        }
+    }
+
+    private void startAgents(ContainerController container) throws Exception {
+        String brokerLocalName = new AID(capture.brokerName(), AID.ISGUID).getLocalName();
+        // The broker under test neither captures nor journals, whatever the -Dmarket options of the replay say.
+        container.createNewAgent(brokerLocalName, BrokerAgent.class.getName(), new Object[]{"capture=", "journal=", "metrics="}).start();
+
+        Set<String> endpointNames = new LinkedHashSet<>();
+        for (TrafficCapture.CapturedMessage captured : capture.messages()) {
+            endpointNames.add(captured.message().getSender().getLocalName());
+        }
+        endpointNames.remove(brokerLocalName);
+        for (String endpointName : endpointNames) {
+            container.acceptNewAgent(endpointName, new ReplayEndpointAgent(this)).start();
+        }
+        System.out.printf("Replaying %d messages from %d agents to %s, captured over %.1f s.%n", capture.messages().size(), endpointNames.size(),
+                brokerLocalName, capture.messages().isEmpty() ? 0.0 : capture.messages().get(capture.messages().size() - 1).offsetMicros() / 1e6);
+    }
+
+    private Properties createReport() {
+        double seconds = (endNanos - startNanos) / 1e9;
+        Properties report = new Properties();
+        report.setProperty("messages", Integer.toString(capture.messages().size()));
+        report.setProperty("seconds", String.format("%.3f", seconds));
+        report.setProperty("messages-per-second", String.format("%.1f", capture.messages().size() / Math.max(seconds, 1e-9)));
+        report.setProperty("replies", Long.toString(replies.get()));
+        report.setProperty("reply-p50-ms", String.format("%.3f", toMillis(replyLatency.getPercentile(0.5))));
+        report.setProperty("reply-p90-ms", String.format("%.3f", toMillis(replyLatency.getPercentile(0.9))));
+        report.setProperty("reply-p99-ms", String.format("%.3f", toMillis(replyLatency.getPercentile(0.99))));
+        report.setProperty("reply-max-ms", String.format("%.3f", toMillis(replyLatency.getMaximum())));
+        return report;
+    }
+
+    private void printReport(Properties report) throws IOException {
+        Properties baseline = null;
+        if (!baselineFile.isBlank()) {
+            baseline = new Properties();
+            try (Reader reader = Files.newBufferedReader(Path.of(baselineFile))) {
+                baseline.load(reader);
+            }
+        }
+
+        System.out.printf("Replay of %s at %s.%n", captureFile, speed > 0 ? speed + "x speed" : "maximum speed");
+        if (baseline == null) {
+            for (String key : REPORT_KEYS) {
+                System.out.printf("%20s %12s%n", key, report.getProperty(key));
+            }
+        } else {
+            System.out.printf("%20s %12s %12s %9s%n", "", "baseline", "this build", "change");
+            for (String key : REPORT_KEYS) {
+                double before = Double.parseDouble(baseline.getProperty(key, "NaN"));
+                double after = Double.parseDouble(report.getProperty(key));
+                System.out.printf("%20s %12s %12s %8.1f%%%n", key, baseline.getProperty(key, "-"), report.getProperty(key), 100 * (after - before) / before);
+            }
+        }
+        System.out.println("Reply latencies run from a replayed message to the broker's next message in its conversation.");
+
+        if (!reportFile.isBlank()) {
+            try (Writer writer = Files.newBufferedWriter(Path.of(reportFile))) {
+                report.store(writer, "TrafficReplay of " + captureFile);
+            }
+        }
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / 1e6;
+    }
+
+    private static int findFreePort() throws Exception {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        new TrafficReplay(AgentArguments.of(args)).run();
+        System.exit(0);
+    }
+}